@@ -12,7 +12,7 @@ public abstract class AbstractCourseSensitiveAction extends NodeAction {
     
     public AbstractCourseSensitiveAction() {
         TmcEventBus.getDefault().subscribeDependent(new TmcEventListener() {
-            public void receive(CourseDb.ChangedEvent event) throws Throwable {
+            public void receive(CourseDb.CurrentCourseChangedEvent event) throws Throwable {
                 setEnabled(CourseDb.getInstance().getCurrentCourse() != null);
             }
         }, this);
@@ -1,11 +1,10 @@
 package fi.helsinki.cs.tmc.actions;
 
-import fi.helsinki.cs.tmc.core.utilities.SingletonTask;
-import fi.helsinki.cs.tmc.core.utilities.TmcRequestProcessor;
 import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
 import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer;
 import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer.SingletonToken;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 import java.io.IOException;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
@@ -28,12 +27,12 @@ public class CheckDiskSpace {
     }
 
     public void startCheckingPeriodically() {
-        SingletonTask periodicChecker = new SingletonTask(() -> {
+        BackgroundScheduler.getDefault().schedulePeriodically("Check disk space", DEFAULT_CHECK_INTERVAL, DEFAULT_CHECK_INTERVAL, true, (outcome) -> {
             doChecks((message) -> {
                 TmcNotificationDisplayer.getDefault().notify(notifierToken, "You're running out of disk space", ImageUtilities.loadImageIcon("fi/helsinki/cs/tmc/ui/infobubble.png", false), message, null, NotificationDisplayer.Priority.HIGH);
             });
-        }, TmcRequestProcessor.instance);
-        periodicChecker.setInterval(DEFAULT_CHECK_INTERVAL);
+            outcome.succeeded();
+        });
     }
 
     public void run() {
@@ -1,6 +1,5 @@
 package fi.helsinki.cs.tmc.actions;
 
-import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
@@ -9,12 +8,15 @@ import fi.helsinki.cs.tmc.core.events.TmcEvent;
 import fi.helsinki.cs.tmc.coreimpl.BridgingProgressObserver;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
 import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.CourseDetailsCache;
 import fi.helsinki.cs.tmc.model.LocalExerciseStatus;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
 import fi.helsinki.cs.tmc.ui.DownloadOrUpdateExercisesDialog;
 import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 import fi.helsinki.cs.tmc.utilities.BgTask;
 import fi.helsinki.cs.tmc.utilities.BgTaskListener;
+import fi.helsinki.cs.tmc.utilities.BgTaskListenerList;
 import fi.helsinki.cs.tmc.utilities.Inflector;
 import fi.helsinki.cs.tmc.utilities.TmcStringUtils;
 
@@ -43,11 +45,16 @@ import org.openide.util.NbBundle.Messages;
 @Messages("CTL_CheckForNewExercisesOrUpdates=&Download/update exercises")
 public class CheckForNewExercisesOrUpdates extends AbstractAction {
 
-    public static void startTimer() {
-        int interval = 20 * 60 * 1000; // 20 minutes
-        javax.swing.Timer timer = new javax.swing.Timer(interval, new CheckForNewExercisesOrUpdates(true, true));
-        timer.setRepeats(true);
-        timer.start();
+    public static void startPeriodicChecks() {
+        long interval = CourseDetailsCache.BACKGROUND_INTERVAL;
+        BackgroundScheduler.getDefault().schedulePeriodically("Check for new exercises", interval, interval, true, new BackgroundScheduler.Job() {
+            @Override
+            public void run(BackgroundScheduler.Outcome outcome) {
+                new CheckForNewExercisesOrUpdates(true, true)
+                        .addListener(BackgroundScheduler.<Course>outcomeListener(outcome))
+                        .run();
+            }
+        });
     }
 
     private static final TmcNotificationDisplayer.SingletonToken NOTIFIER_TOKEN = TmcNotificationDisplayer.createSingletonToken();
@@ -58,6 +65,7 @@ public class CheckForNewExercisesOrUpdates extends AbstractAction {
     private boolean beQuiet;
     private boolean backgroundCheck;
     private TmcEventBus eventBus;
+    private BgTaskListenerList<Course> listeners;
 
     public CheckForNewExercisesOrUpdates() {
         this(false, false);
@@ -70,6 +78,16 @@ public class CheckForNewExercisesOrUpdates extends AbstractAction {
         this.beQuiet = beQuiet;
         this.backgroundCheck = backgroundCheck;
         this.eventBus = TmcEventBus.getDefault();
+        this.listeners = new BgTaskListenerList<Course>();
+    }
+
+    /**
+     * Adds a listener told when the course has been fetched, or the check
+     * was skipped or failed.
+     */
+    public CheckForNewExercisesOrUpdates addListener(BgTaskListener<Course> listener) {
+        this.listeners.addListener(listener);
+        return this;
     }
 
     @Override
@@ -81,6 +99,7 @@ public class CheckForNewExercisesOrUpdates extends AbstractAction {
         final Course currentCourseBeforeUpdate = courseDb.getCurrentCourse();
 
         if (backgroundCheck && !((TmcCoreSettingsImpl) TmcSettingsHolder.get()).isCheckingForUpdatesInTheBackground()) {
+            listeners.bgTaskCancelled();
             return;
         }
 
@@ -88,15 +107,18 @@ public class CheckForNewExercisesOrUpdates extends AbstractAction {
             if (!beQuiet) {
                 dialogs.displayMessage("Please make sure you're logged in and have selected a course in TMC -> Settings.");
             }
+            listeners.bgTaskCancelled();
             return;
         }
         eventBus.post(new InvokedEvent(currentCourseBeforeUpdate));
 
         ProgressObserver observer = new BridgingProgressObserver();
-        Callable<Course> getFullCourseInfoTask = TmcCore.get().getCourseDetails(observer, courseDb.getCurrentCourse());
+        long maxAge = backgroundCheck ? CourseDetailsCache.BACKGROUND : (beQuiet ? CourseDetailsCache.RECENT : CourseDetailsCache.NO_CACHE);
+        Callable<Course> getFullCourseInfoTask = CourseDetailsCache.getInstance().getCourseDetails(observer, currentCourseBeforeUpdate, maxAge);
         BgTask.start("Checking for new exercises", getFullCourseInfoTask, observer, new BgTaskListener<Course>() {
             @Override
             public void bgTaskReady(Course receivedCourse) {
+                listeners.bgTaskReady(receivedCourse);
                 Callable<Void> task = () -> {
                     if (receivedCourse != null) {
                         courseDb.putDetailedCourse(receivedCourse);
@@ -141,10 +163,12 @@ public class CheckForNewExercisesOrUpdates extends AbstractAction {
 
             @Override
             public void bgTaskCancelled() {
+                listeners.bgTaskCancelled();
             }
 
             @Override
             public void bgTaskFailed(Throwable ex) {
+                listeners.bgTaskFailed(ex);
                 if (!beQuiet) {
                     SwingUtilities.invokeLater(() -> {
                         dialogs.displayError("Failed to check for new exercises.\nPlease check your internet connection.");
@@ -8,8 +8,10 @@ import fi.helsinki.cs.tmc.coreimpl.BridgingProgressObserver;
 import fi.helsinki.cs.tmc.model.CourseDb;
 import fi.helsinki.cs.tmc.model.ReviewDb;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 import fi.helsinki.cs.tmc.utilities.BgTask;
 import fi.helsinki.cs.tmc.utilities.BgTaskListener;
+import fi.helsinki.cs.tmc.utilities.EmptyBgTaskListener;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -37,16 +39,18 @@ public class CheckForNewReviews implements ActionListener, Runnable {
     
     private static CheckForNewReviews instance;
     
-    public static void startTimer() {
+    public static void startPeriodicChecks() {
         if (instance == null) {
             instance = new CheckForNewReviews(true, false, false);
-            int interval = 20*60*1000; // 20 minutes
-            javax.swing.Timer timer = new javax.swing.Timer(interval, instance);
-            timer.setRepeats(true);
-            timer.start();
-            SwingUtilities.invokeLater(instance);
+            long interval = 20*60*1000; // 20 minutes
+            BackgroundScheduler.getDefault().schedulePeriodically("Check for code reviews", 0, interval, true, new BackgroundScheduler.Job() {
+                @Override
+                public void run(BackgroundScheduler.Outcome outcome) {
+                    instance.run(BackgroundScheduler.<List<Review>>outcomeListener(outcome));
+                }
+            });
         } else {
-            log.warning("CheckForNewReviews.startTimer() called twice");
+            log.warning("CheckForNewReviews.startPeriodicChecks() called twice");
         }
     }
     
@@ -77,6 +81,10 @@ public class CheckForNewReviews implements ActionListener, Runnable {
     
     @Override
     public void run() {
+        run(EmptyBgTaskListener.get());
+    }
+
+    private void run(final BgTaskListener<? super List<Review>> outcomeListener) {
         if (resetNotifications) {
             reviewDb.forgetReviewsNotifiedAbout();
         }
@@ -86,9 +94,11 @@ public class CheckForNewReviews implements ActionListener, Runnable {
             if (!beQuiet) {
                 dialogs.displayError("Please select a course in TMC->Settings");
             }
+            outcomeListener.bgTaskCancelled();
             return;
         }
         if (course.getReviewsUrl() == null) {
+            outcomeListener.bgTaskCancelled();
             return;
         }
         
@@ -97,6 +107,7 @@ public class CheckForNewReviews implements ActionListener, Runnable {
         BgTask.start("Checking for code reviews", getReviewsTask, observer, new BgTaskListener<List<Review>>() {
             @Override
             public void bgTaskReady(List<Review> result) {
+                outcomeListener.bgTaskReady(result);
                 boolean newReviews = reviewDb.setReviews(result);
                 if (!newReviews && notifyAboutNoNewReviews) {
                     SwingUtilities.invokeLater(() -> {
@@ -107,6 +118,7 @@ public class CheckForNewReviews implements ActionListener, Runnable {
 
             @Override
             public void bgTaskFailed(final Throwable ex) {
+                outcomeListener.bgTaskFailed(ex);
                 final String msg = "Failed to check for code reviews.\nPlease check your internet connection.";
                 log.log(Level.INFO, msg, ex);
                 if (!beQuiet) {
@@ -118,6 +130,7 @@ public class CheckForNewReviews implements ActionListener, Runnable {
 
             @Override
             public void bgTaskCancelled() {
+                outcomeListener.bgTaskCancelled();
             }
         });
     }
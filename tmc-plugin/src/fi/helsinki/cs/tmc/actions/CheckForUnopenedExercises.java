@@ -4,6 +4,7 @@ import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
 import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.CourseDirMonitor;
 import fi.helsinki.cs.tmc.model.ProjectMediator;
 import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.ui.OpenClosedExercisesDialog;
@@ -12,7 +13,10 @@ import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.Icon;
 
 import org.openide.awt.NotificationDisplayer;
@@ -27,11 +31,13 @@ public class CheckForUnopenedExercises implements ActionListener {
     
     private ProjectMediator projects;
     private CourseDb courseDb;
+    private CourseDirMonitor courseDirMonitor;
     private TmcNotificationDisplayer notifier;
 
     public CheckForUnopenedExercises() {
         this.projects = ProjectMediator.getInstance();
         this.courseDb = CourseDb.getInstance();
+        this.courseDirMonitor = CourseDirMonitor.getInstance();
         this.notifier = TmcNotificationDisplayer.getDefault();
     }
     
@@ -53,10 +59,14 @@ public class CheckForUnopenedExercises implements ActionListener {
     }
     
     private List<Exercise> unopenedExercises() {
+        List<Exercise> exercises = courseDb.getCurrentCourseExercises();
+        Map<Exercise, TmcProjectInfo> downloaded = projects.tryGetProjectsForExercises(courseDirMonitor.withoutMissing(exercises));
+        Set<TmcProjectInfo> open = new HashSet<>(projects.getOpenProjects());
+
         List<Exercise> unopenedExercises = new ArrayList<>();
-        for (Exercise ex : courseDb.getCurrentCourseExercises()) {
-            TmcProjectInfo project = projects.tryGetProjectForExercise(ex);
-            if (project != null && !projects.isProjectOpen(project)) {
+        for (Exercise ex : exercises) {
+            TmcProjectInfo project = downloaded.get(ex);
+            if (project != null && !open.contains(project)) {
                 unopenedExercises.add(ex);
             }
         }
@@ -1,10 +1,14 @@
 package fi.helsinki.cs.tmc.actions;
 
+import fi.helsinki.cs.tmc.model.ProjectHibernator;
 import fi.helsinki.cs.tmc.model.ProjectMediator;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
 import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer;
+import fi.helsinki.cs.tmc.utilities.BgTask;
+import fi.helsinki.cs.tmc.utilities.BgTaskListener;
 
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 
 import org.openide.NotifyDescriptor;
 import org.openide.util.ImageUtilities;
@@ -23,6 +27,44 @@ public class CheckProjectCount {
     }
     
     public void checkAndNotifyIfOver() {
+        if (!ProjectHibernator.getInstance().isEnabled()) {
+            notifyIfOver();
+            return;
+        }
+        // Hibernation may close enough projects that the user needn't be bothered.
+        BgTask.start("Closing finished exercises", new Runnable() {
+            @Override
+            public void run() {
+                new HibernateProjects().run();
+            }
+        }, new BgTaskListener<Object>() {
+            @Override
+            public void bgTaskReady(Object result) {
+                notifyIfOverLater();
+            }
+
+            @Override
+            public void bgTaskCancelled() {
+                notifyIfOverLater();
+            }
+
+            @Override
+            public void bgTaskFailed(Throwable ex) {
+                notifyIfOverLater();
+            }
+        });
+    }
+
+    private void notifyIfOverLater() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                notifyIfOver();
+            }
+        });
+    }
+
+    private void notifyIfOver() {
         if (this.getProjectCount() >= POPUP_LIMIT) {
             this.displayPopup();
         } else if (this.getProjectCount() >= BALLOON_LIMIT) {
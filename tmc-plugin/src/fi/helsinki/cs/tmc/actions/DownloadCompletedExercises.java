@@ -1,6 +1,5 @@
 package fi.helsinki.cs.tmc.actions;
 
-import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
@@ -8,6 +7,7 @@ import fi.helsinki.cs.tmc.core.events.TmcEvent;
 import fi.helsinki.cs.tmc.coreimpl.BridgingProgressObserver;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
 import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.CourseDetailsCache;
 import fi.helsinki.cs.tmc.model.LocalExerciseStatus;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
 import fi.helsinki.cs.tmc.ui.DownloadOrUpdateExercisesDialog;
@@ -53,7 +53,7 @@ public final class DownloadCompletedExercises implements ActionListener {
         eventBus.post(new InvokedEvent(currentCourse));
 
         ProgressObserver observer = new BridgingProgressObserver();
-        Callable<Course> getFullCourseInfoTask = TmcCore.get().getCourseDetails(observer, courseDb.getCurrentCourse());
+        Callable<Course> getFullCourseInfoTask = CourseDetailsCache.getInstance().getCourseDetails(observer, currentCourse, CourseDetailsCache.NO_CACHE);
         BgTask.start("Checking for new exercises", getFullCourseInfoTask, observer, new BgTaskListener<Course>() {
             @Override
             public void bgTaskReady(Course receivedCourse) {
@@ -134,7 +134,15 @@ public class DownloadSolutionAction extends AbstractExerciseSensitiveAction {
     private void downloadSolution(final Exercise ex, final TmcProjectInfo proj) {
         Exercise exercise = exerciseForProject(proj.getProject());
         ProgressObserver observer = new BridgingProgressObserver();
-        Callable<Exercise> dlModelSolutionTask = TmcCore.get().downloadModelSolution(observer, exercise);
+        final Callable<Exercise> download = TmcCore.get().downloadModelSolution(observer, exercise);
+        Callable<Exercise> dlModelSolutionTask = new Callable<Exercise>() {
+            @Override
+            public Exercise call() throws Exception {
+                // The solution is extracted over the project, so shared jars must not be touched.
+                projectMediator.getJarDeduplicator().breakLinks(proj.getProjectDirAsFile().toPath());
+                return download.call();
+            }
+        };
         BgTask.start("Downloading suggested solution", dlModelSolutionTask, observer,
                 new BgTaskListener<Object>() {
             @Override
@@ -0,0 +1,101 @@
+package fi.helsinki.cs.tmc.actions;
+
+import fi.helsinki.cs.tmc.model.ProjectHibernator;
+import fi.helsinki.cs.tmc.model.TmcProjectInfo;
+import fi.helsinki.cs.tmc.ui.TmcNotificationDisplayer;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
+import fi.helsinki.cs.tmc.utilities.BgTask;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.swing.SwingUtilities;
+
+import org.openide.awt.NotificationDisplayer;
+import org.openide.util.ImageUtilities;
+
+/**
+ * Periodically closes exercise projects that the hibernation settings say
+ * are no longer needed, and offers to reopen them.
+ */
+public class HibernateProjects {
+
+    private static final String JOB_NAME = "Project hibernation";
+    private static final long INITIAL_DELAY = 10 * 60 * 1000;
+    private static final long INTERVAL = 60 * 60 * 1000;
+
+    private static final TmcNotificationDisplayer.SingletonToken NOTIFIER_TOKEN = TmcNotificationDisplayer.createSingletonToken();
+
+    public static void startPeriodicChecks() {
+        BackgroundScheduler.getDefault().schedulePeriodically(JOB_NAME, INITIAL_DELAY, INTERVAL, false, (outcome) -> {
+            new HibernateProjects().run();
+            outcome.succeeded();
+        });
+    }
+
+    /**
+     * Runs a check in the background, e.g. after new projects were opened.
+     */
+    public static void runSoon() {
+        BackgroundScheduler.getDefault().runSoon(JOB_NAME, new Runnable() {
+            @Override
+            public void run() {
+                new HibernateProjects().run();
+            }
+        });
+    }
+
+    private final ProjectHibernator hibernator;
+    private final TmcNotificationDisplayer notifier;
+
+    public HibernateProjects() {
+        this.hibernator = ProjectHibernator.getInstance();
+        this.notifier = TmcNotificationDisplayer.getDefault();
+    }
+
+    public void run() {
+        if (!hibernator.isEnabled()) {
+            return;
+        }
+        final List<TmcProjectInfo> closed = hibernator.hibernateNow();
+        if (!closed.isEmpty()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    showNotification(closed.size());
+                }
+            });
+        }
+    }
+
+    private void showNotification(int count) {
+        String msg;
+        if (count == 1) {
+            msg = "Closed one finished exercise to keep NetBeans fast.";
+        } else {
+            msg = "Closed " + count + " finished exercises to keep NetBeans fast.";
+        }
+        notifier.notify(NOTIFIER_TOKEN, msg, ImageUtilities.loadImageIcon("fi/helsinki/cs/tmc/ui/infobubble.png", false),
+                "Click here to reopen them.", reopenAction(), NotificationDisplayer.Priority.LOW);
+    }
+
+    private ActionListener reopenAction() {
+        return new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                reopenInBackground();
+            }
+        };
+    }
+
+    public static void reopenInBackground() {
+        BgTask.start("Reopening closed exercises", new Callable<Void>() {
+            @Override
+            public Void call() {
+                ProjectHibernator.getInstance().reopenAll();
+                return null;
+            }
+        });
+    }
+}
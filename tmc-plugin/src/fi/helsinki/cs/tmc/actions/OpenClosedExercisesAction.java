@@ -6,7 +6,10 @@ import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.utilities.BgTask;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 public class OpenClosedExercisesAction {
@@ -20,16 +23,19 @@ public class OpenClosedExercisesAction {
         BgTask.start("Opening closed exercises", new Callable() {
             @Override
             public Void call() {
-                List<Exercise> unopenedExercises = new ArrayList<>();
+                Map<Exercise, TmcProjectInfo> downloaded = projects.tryGetProjectsForExercises(exercisesToOpen);
+                Set<TmcProjectInfo> open = new HashSet<>(projects.getOpenProjects());
+
+                List<TmcProjectInfo> unopenedProjects = new ArrayList<>();
                 for (Exercise ex : exercisesToOpen) {
-                    TmcProjectInfo project = projects.tryGetProjectForExercise(ex);
-                    if (project != null && !projects.isProjectOpen(project)) {
-                        unopenedExercises.add(ex);
+                    TmcProjectInfo project = downloaded.get(ex);
+                    if (project != null && !open.contains(project)) {
+                        unopenedProjects.add(project);
                     }
                 }
 
-                if (!unopenedExercises.isEmpty()) {
-                    openAction(unopenedExercises);
+                if (!unopenedProjects.isEmpty()) {
+                    openAction(unopenedProjects);
                 }
                 
                 return null;
@@ -37,12 +43,9 @@ public class OpenClosedExercisesAction {
         });
     }
     
-    private void openAction(final List<Exercise> exercises) {
-        for (Exercise ex : exercises) {
-            TmcProjectInfo project = projects.tryGetProjectForExercise(ex);
-            if (project != null && !projects.isProjectOpen(project)) {
-                projects.openProject(project);
-            }
+    private void openAction(final List<TmcProjectInfo> unopenedProjects) {
+        for (TmcProjectInfo project : unopenedProjects) {
+            projects.openProject(project);
         }
     }
 }
@@ -8,6 +8,7 @@ import fi.helsinki.cs.tmc.coreimpl.BridgingProgressObserver;
 
 import fi.helsinki.cs.tmc.data.CourseListUtils;
 import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.CourseDetailsCache;
 import fi.helsinki.cs.tmc.utilities.BgTaskListener;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
 import fi.helsinki.cs.tmc.utilities.BgTask;
@@ -52,6 +53,12 @@ public final class RefreshCoursesAction {
 
     public void run() {
         log.log(Level.INFO, "Running list courses");
+        Course knownCurrentCourse = courseDb.getCurrentCourse();
+        if (knownCurrentCourse != null) {
+            // Fetch the details while the list is being fetched.
+            CourseDetailsCache.getInstance().prefetch(knownCurrentCourse, CourseDetailsCache.RECENT);
+        }
+
         ProgressObserver observer = new BridgingProgressObserver();
         Callable<List<Course>> courseListTask = TmcCore.get().listCourses(observer);
 
@@ -62,7 +69,7 @@ public final class RefreshCoursesAction {
                 Course currentCourseStub = CourseListUtils.getCourseByName(courses, courseDb.getCurrentCourseName());
                 if (currentCourseStub != null) {
                     ProgressObserver observer = new BridgingProgressObserver();
-                    Callable<Course> currentCourseTask = TmcCore.get().getCourseDetails(observer, currentCourseStub);
+                    Callable<Course> currentCourseTask = CourseDetailsCache.getInstance().getCourseDetails(observer, currentCourseStub, CourseDetailsCache.RECENT);
 
                     BgTask.start("Loading course", currentCourseTask, observer, new BgTaskListener<Course>() {
                         @Override
@@ -0,0 +1,32 @@
+package fi.helsinki.cs.tmc.actions;
+
+import fi.helsinki.cs.tmc.model.ProjectHibernator;
+import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
+
+import java.awt.event.ActionEvent;
+import javax.swing.AbstractAction;
+
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(category = "TMC",
+        id = "fi.helsinki.cs.tmc.actions.ReopenHibernatedExercisesAction")
+@ActionRegistration(displayName = "#CTL_ReopenHibernatedExercisesAction")
+@ActionReferences({
+    @ActionReference(path = "Menu/TM&C", position = -42)
+})
+@Messages("CTL_ReopenHibernatedExercisesAction=Reopen automatically closed exercises")
+public class ReopenHibernatedExercisesAction extends AbstractAction {
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (ProjectHibernator.getInstance().getHibernatedExercises().isEmpty()) {
+            ConvenientDialogDisplayer.getDefault().displayMessage("No exercises have been closed automatically.");
+            return;
+        }
+        HibernateProjects.reopenInBackground();
+    }
+}
@@ -59,6 +59,11 @@ public class SaveSettingsAction extends AbstractAction {
         settings.setErrorMsgLocale(prefUi.getErrorMsgLocale());
         settings.setFixUnoptimalSettings(prefUi.getFixUnoptimalSettingsEnabled());
         settings.setSendDiagnostics(prefUi.getSendDiagnosticsEnabled());
+        settings.setHibernatingProjects(prefUi.getHibernateProjects());
+        settings.setHibernatingCompletedProjects(prefUi.getHibernateCompletedProjects());
+        settings.setHibernatingExpiredProjects(prefUi.getHibernateExpiredProjects());
+        settings.setHibernateUntouchedDays(prefUi.getHibernateUntouchedDays());
+        settings.setOpenProjectBudget(prefUi.getOpenProjectBudget());
 
         eventBus.post(new InvokedEvent());
         
@@ -70,6 +75,10 @@ public class SaveSettingsAction extends AbstractAction {
             sendDiagnostics.run();
         }
 
+        if (settings.isHibernatingProjects()) {
+            HibernateProjects.runSoon();
+        }
+
         if (prefUi.getSelectedCourseName() != null) {
             try {
                 courseDb.setAvailableCourses(prefUi.getAvailableCourses());
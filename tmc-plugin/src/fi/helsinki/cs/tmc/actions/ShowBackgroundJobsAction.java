@@ -0,0 +1,59 @@
+package fi.helsinki.cs.tmc.actions;
+
+import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler.JobStatus;
+
+import java.awt.event.ActionEvent;
+import javax.swing.AbstractAction;
+
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.awt.ActionReferences;
+import org.openide.awt.ActionRegistration;
+import org.openide.util.NbBundle.Messages;
+
+@ActionID(category = "TMC",
+        id = "fi.helsinki.cs.tmc.actions.ShowBackgroundJobsAction")
+@ActionRegistration(displayName = "#CTL_ShowBackgroundJobsAction")
+@ActionReferences({
+    @ActionReference(path = "Menu/TM&C", position = 55)
+})
+@Messages("CTL_ShowBackgroundJobsAction=Background jobs")
+public class ShowBackgroundJobsAction extends AbstractAction {
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        ConvenientDialogDisplayer.getDefault().displayMessage(describe());
+    }
+
+    private String describe() {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (JobStatus status : BackgroundScheduler.getDefault().getStatus()) {
+            sb.append(status.name).append(": ");
+            if (status.running) {
+                sb.append("running");
+            } else if (status.pausedForIdle) {
+                sb.append("paused until you return");
+            } else {
+                sb.append("next run in ").append(minutes(status.nextRunAt - now));
+            }
+            if (status.lastRunAt != 0) {
+                sb.append(", last run ").append(minutes(now - status.lastRunAt)).append(" ago");
+            }
+            if (status.lastFailure != null) {
+                sb.append("\n    failed ").append(status.consecutiveFailures).append(" time(s) in a row: ").append(status.lastFailure);
+            }
+            sb.append("\n");
+        }
+        if (sb.length() == 0) {
+            return "No background jobs are scheduled.";
+        }
+        return sb.toString();
+    }
+
+    private String minutes(long millis) {
+        return Math.max(0, millis / 60000) + " min";
+    }
+}
@@ -70,6 +70,11 @@ public final class ShowSettingsAction extends AbstractAction {
         prefUI.setErrorMsgLocale(settings.getErrorMsgLocale());
         prefUI.setFixUnoptimalSettingsEnabled(settings.getFixUnoptimalSettings());
         prefUI.setSendDiagnosticsEnabled(settings.getSendDiagnostics());
+        prefUI.setHibernateProjects(settings.isHibernatingProjects());
+        prefUI.setHibernateCompletedProjects(settings.isHibernatingCompletedProjects());
+        prefUI.setHibernateExpiredProjects(settings.isHibernatingExpiredProjects());
+        prefUI.setHibernateUntouchedDays(settings.getHibernateUntouchedDays());
+        prefUI.setOpenProjectBudget(settings.getOpenProjectBudget());
 
         ActionListener listener = new ActionListener() {
             @Override
@@ -7,8 +7,11 @@ import fi.helsinki.cs.tmc.core.holders.TmcLangsHolder;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
 import fi.helsinki.cs.tmc.langs.util.TaskExecutorImpl;
+import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.CourseDirMonitor;
 import fi.helsinki.cs.tmc.snapshotsLocal.SnapshotsFacade;
 import fi.helsinki.cs.tmc.tasks.LoginTask;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 import fi.helsinki.cs.tmc.utilities.BgTask;
 import fi.helsinki.cs.tmc.utilities.BgTaskListener;
 import fi.helsinki.cs.tmc.utilities.LoginManager;
@@ -51,8 +54,9 @@ public class TmcModuleInstall extends ModuleInstall {
 
                 TmcCore.setInstance(new TmcCore());
 
-                CheckForNewExercisesOrUpdates.startTimer();
-                CheckForNewReviews.startTimer();
+                CheckForNewExercisesOrUpdates.startPeriodicChecks();
+                CheckForNewReviews.startPeriodicChecks();
+                HibernateProjects.startPeriodicChecks();
                 ReviewEventListener.start();
                 // Push events are disabled for now since this spams threads and
                 // its functionality is rarely used since code reviews trigger
@@ -63,6 +67,7 @@ public class TmcModuleInstall extends ModuleInstall {
                 checkDiskSpace.startCheckingPeriodically();
                 checkDiskSpace.run();
                 SnapshotsFacade.start();
+                CourseDirMonitor.start();
 
                 Preferences prefs = NbPreferences.forModule(TmcModuleInstall.class);
 
@@ -134,6 +139,9 @@ public class TmcModuleInstall extends ModuleInstall {
         } catch (Exception e) {
             log.log(Level.WARNING, "Failed to close SnapshotsFacade.", e);
         }
+        CourseDirMonitor.stop();
+        BackgroundScheduler.getDefault().shutdown();
+        CourseDb.getInstance().flush();
     }
 
     private void doFirstRun() {
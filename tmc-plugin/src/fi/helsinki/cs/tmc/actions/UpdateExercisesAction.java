@@ -1,28 +1,20 @@
 package fi.helsinki.cs.tmc.actions;
 
-import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.utilities.ServerErrorHelper;
 import fi.helsinki.cs.tmc.core.events.TmcEvent;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
-import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.coreimpl.BridgingProgressObserver;
+import fi.helsinki.cs.tmc.model.BulkExerciseDownloader;
 import fi.helsinki.cs.tmc.model.ProjectMediator;
-import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.ui.ConvenientDialogDisplayer;
-import fi.helsinki.cs.tmc.utilities.AggregatingBgTaskListener;
 import fi.helsinki.cs.tmc.utilities.BgTask;
 import fi.helsinki.cs.tmc.utilities.BgTaskListener;
 
-import com.google.common.collect.ImmutableList;
-
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 import javax.swing.SwingUtilities;
 
@@ -31,14 +23,12 @@ public class UpdateExercisesAction implements ActionListener {
     private static final Logger log = Logger.getLogger(UpdateExercisesAction.class.getName());
 
     private List<Exercise> exercisesToUpdate;
-    private CourseDb courseDb;
     private ProjectMediator projectMediator;
     private ConvenientDialogDisplayer dialogDisplayer;
     private TmcEventBus eventBus;
 
     public UpdateExercisesAction(List<Exercise> exercisesToUpdate) {
         this.exercisesToUpdate = exercisesToUpdate;
-        this.courseDb = CourseDb.getInstance();
         this.projectMediator = ProjectMediator.getInstance();
         this.dialogDisplayer = ConvenientDialogDisplayer.getDefault();
         this.eventBus = TmcEventBus.getDefault();
@@ -50,60 +40,43 @@ public class UpdateExercisesAction implements ActionListener {
     }
 
     public void run() {
-        final AggregatingBgTaskListener<TmcProjectInfo> projectOpener = new AggregatingBgTaskListener<TmcProjectInfo>(exercisesToUpdate.size(), new BgTaskListener<Collection<TmcProjectInfo>>() {
-            @Override
-            public void bgTaskReady(Collection<TmcProjectInfo> result) {
-                result = new ArrayList<>(result);
+        if (exercisesToUpdate.isEmpty()) {
+            return;
+        }
+        for (final Exercise exercise : exercisesToUpdate) {
+            eventBus.post(new InvokedEvent(exercise));
+        }
 
-                // result may contain nulls since some downloads might fail
-                while (result.remove(null)) {
-                }
+        ProgressObserver observer = new BridgingProgressObserver();
+        BulkExerciseDownloader downloader = new BulkExerciseDownloader(exercisesToUpdate, observer);
+        String label = (exercisesToUpdate.size() == 1)
+                ? "Downloading " + exercisesToUpdate.get(0).getName()
+                : "Downloading " + exercisesToUpdate.size() + " exercises";
+        BgTask.start(label, downloader, observer, new BgTaskListener<BulkExerciseDownloader.Result>() {
+            @Override
+            public void bgTaskReady(BulkExerciseDownloader.Result result) {
+                projectMediator.scanForExternalChanges(result.projects);
 
-                projectMediator.scanForExternalChanges(result);
+                // Updated projects of finished exercises can wait until the user is idle.
+                projectMediator.openProjectsInBackground(result.projects);
 
-                // Open all at once. This is much faster.
-                projectMediator.openProjects(result);
+                if (!result.failures.isEmpty()) {
+                    bgTaskFailed(result.failures.values().iterator().next());
+                }
             }
 
-            // Cancelled and failed are never called since we only call bgTaskReady below manually
             @Override
             public void bgTaskCancelled() {
             }
 
             @Override
             public void bgTaskFailed(Throwable ex) {
+                String msg = ServerErrorHelper.getServerExceptionMsg(ex);
+                SwingUtilities.invokeLater(() -> {
+                    dialogDisplayer.displayError("Failed to download updated exercises.\n" + msg, ex);
+                });
             }
         });
-
-        for (final Exercise exercise : exercisesToUpdate) {
-            final File projectDir = projectMediator.getProjectDirForExercise(exercise).toFile();
-            eventBus.post(new InvokedEvent(exercise));
-
-            Callable<List<Exercise>> downloadAndExtractExerciseTask = TmcCore.get().downloadOrUpdateExercises(ProgressObserver.NULL_OBSERVER, ImmutableList.of(exercise));
-            BgTask.start("Downloading " + exercise.getName(), downloadAndExtractExerciseTask, new BgTaskListener<List<Exercise>>() {
-
-                @Override
-                public void bgTaskReady(List<Exercise> exercises) {
-                    courseDb.exerciseDownloaded(exercise);
-                    TmcProjectInfo project = projectMediator.tryGetProjectForExercise(exercise);
-                    projectOpener.bgTaskReady(project);
-                }
-
-                @Override
-                public void bgTaskCancelled() {
-                    projectOpener.bgTaskReady(null);
-                }
-
-                @Override
-                public void bgTaskFailed(Throwable ex) {
-                    projectOpener.bgTaskReady(null);
-                    String msg = ServerErrorHelper.getServerExceptionMsg(ex);
-                    SwingUtilities.invokeLater(() -> {
-                        dialogDisplayer.displayError("Failed to download updated exercises.\n" + msg, ex);
-                    });
-                }
-            });
-        }
     }
 
     public static class InvokedEvent implements TmcEvent {
@@ -46,6 +46,13 @@ public class TmcCoreSettingsImpl implements TmcSettings {
     private static final String PREF_OAUTH_APPLICATION_ID = "oauthApplicationId";
     private static final String PREF_OAUTH_SECRET = "oauthSecret";
     private static final String PREF_ORGANIZATION = "organization";
+    private static final String PREF_SNAPSHOT_DEBOUNCE_MILLIS = "snapshotDebounceMillis";
+    private static final String PREF_INCREMENTAL_SNAPSHOTS = "incrementalSnapshots";
+    private static final String PREF_HIBERNATE_PROJECTS = "hibernateProjects";
+    private static final String PREF_HIBERNATE_COMPLETED = "hibernateCompleted";
+    private static final String PREF_HIBERNATE_EXPIRED = "hibernateExpired";
+    private static final String PREF_HIBERNATE_UNTOUCHED_DAYS = "hibernateUntouchedDays";
+    private static final String PREF_OPEN_PROJECT_BUDGET = "openProjectBudget";
 
     private static PersistableSettings settings = PersistableSettings.forModule(TmcCoreSettingsImpl.class);
     
@@ -323,6 +330,93 @@ public class TmcCoreSettingsImpl implements TmcSettings {
         return settings.get(PREF_SEND_DIAGNOSTICS, "1").equals("1");
     }
 
+    /**
+     * How long source snapshots wait for further file changes to coalesce
+     * before zipping the project.
+     */
+    public long getSnapshotDebounceMillis() {
+        try {
+            return Long.parseLong(settings.get(PREF_SNAPSHOT_DEBOUNCE_MILLIS, "1000"));
+        } catch (NumberFormatException e) {
+            return 1000;
+        }
+    }
+
+    public void setSnapshotDebounceMillis(long value) {
+        settings.put(PREF_SNAPSHOT_DEBOUNCE_MILLIS, "" + value);
+    }
+
+    /**
+     * Whether source snapshots are sent as deltas against the previous one.
+     * Off by default since the server must know how to reassemble them.
+     */
+    public boolean isSendingIncrementalSnapshots() {
+        return settings.get(PREF_INCREMENTAL_SNAPSHOTS, "0").equals("1");
+    }
+
+    public void setSendingIncrementalSnapshots(boolean value) {
+        settings.put(PREF_INCREMENTAL_SNAPSHOTS, value ? "1" : "0");
+    }
+
+    /**
+     * Whether exercise projects matching the hibernation rules are closed
+     * automatically when too many projects are open. Off by default.
+     */
+    public boolean isHibernatingProjects() {
+        return settings.get(PREF_HIBERNATE_PROJECTS, "0").equals("1");
+    }
+
+    public void setHibernatingProjects(boolean value) {
+        settings.put(PREF_HIBERNATE_PROJECTS, value ? "1" : "0");
+    }
+
+    public boolean isHibernatingCompletedProjects() {
+        return settings.get(PREF_HIBERNATE_COMPLETED, "1").equals("1");
+    }
+
+    public void setHibernatingCompletedProjects(boolean value) {
+        settings.put(PREF_HIBERNATE_COMPLETED, value ? "1" : "0");
+    }
+
+    public boolean isHibernatingExpiredProjects() {
+        return settings.get(PREF_HIBERNATE_EXPIRED, "1").equals("1");
+    }
+
+    public void setHibernatingExpiredProjects(boolean value) {
+        settings.put(PREF_HIBERNATE_EXPIRED, value ? "1" : "0");
+    }
+
+    /**
+     * Days without changes after which any exercise project may be
+     * hibernated. Zero disables the rule.
+     */
+    public int getHibernateUntouchedDays() {
+        try {
+            return Integer.parseInt(settings.get(PREF_HIBERNATE_UNTOUCHED_DAYS, "14"));
+        } catch (NumberFormatException e) {
+            return 14;
+        }
+    }
+
+    public void setHibernateUntouchedDays(int value) {
+        settings.put(PREF_HIBERNATE_UNTOUCHED_DAYS, "" + value);
+    }
+
+    /**
+     * How many projects hibernation tries to keep open at most.
+     */
+    public int getOpenProjectBudget() {
+        try {
+            return Integer.parseInt(settings.get(PREF_OPEN_PROJECT_BUDGET, "15"));
+        } catch (NumberFormatException e) {
+            return 15;
+        }
+    }
+
+    public void setOpenProjectBudget(int value) {
+        settings.put(PREF_OPEN_PROJECT_BUDGET, "" + value);
+    }
+
     @Override
     public Optional<String> getToken() {
         return Optional.fromNullable(settings.get(PREF_OAUTH_TOKEN, null));
@@ -0,0 +1,332 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.TmcCore;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import fi.helsinki.cs.tmc.core.exceptions.AuthenticationFailedException;
+import fi.helsinki.cs.tmc.core.exceptions.NotLoggedInException;
+import fi.helsinki.cs.tmc.utilities.CancellableCallable;
+import fi.helsinki.cs.tmc.utilities.HardLinkDeduplicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.oltu.oauth2.common.exception.OAuthProblemException;
+import org.apache.oltu.oauth2.common.exception.OAuthSystemException;
+
+/**
+ * Downloads many exercises as one background task.
+ *
+ * <p>
+ * A bounded number of downloads run at a time. Finished downloads are
+ * passed through a queue to the calling thread, which looks up their projects
+ * in batches. The downloaded checksums are recorded in one go at the end.
+ *
+ * <p>
+ * A failed download is retried a few times with increasing delays. If
+ * the server says we're not logged in, the task fails so that {@link
+ * fi.helsinki.cs.tmc.utilities.BgTask} can log in and call it again. The
+ * exercises that were finished already are not downloaded again.
+ */
+public class BulkExerciseDownloader implements CancellableCallable<BulkExerciseDownloader.Result> {
+
+    private static final Logger log = Logger.getLogger(BulkExerciseDownloader.class.getName());
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    /**
+     * Downloads and extracts one exercise.
+     */
+    public interface Fetcher {
+        void fetch(Exercise exercise) throws Exception;
+    }
+
+    public static final class Result {
+        /**
+         * Projects of the exercises that were downloaded.
+         */
+        public final List<TmcProjectInfo> projects;
+
+        /**
+         * Exercises that failed, with the last error for each.
+         */
+        public final Map<Exercise, Throwable> failures;
+
+        private Result(List<TmcProjectInfo> projects, Map<Exercise, Throwable> failures) {
+            this.projects = Collections.unmodifiableList(projects);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+    }
+
+    private static final class Fetched {
+        private final Exercise exercise;
+        private final Throwable failure; // Null if successful
+
+        public Fetched(Exercise exercise, Throwable failure) {
+            this.exercise = exercise;
+            this.failure = failure;
+        }
+    }
+
+    private final List<Exercise> exercises;
+    private final ProgressObserver observer;
+    private final Fetcher fetcher;
+    private final CourseDb courseDb;
+    private final ProjectMediator projectMediator;
+
+    private int concurrency;
+    private int maxAttempts;
+    private long retryDelay;
+
+    // Only touched by the thread running call().
+    private final Set<Exercise> finished;
+    private final List<TmcProjectInfo> projects;
+    private final Map<Exercise, Throwable> failures;
+
+    private volatile boolean cancelled;
+    private volatile ExecutorService pool;
+
+    public BulkExerciseDownloader(List<Exercise> exercises, ProgressObserver observer) {
+        this(exercises, observer, new CachingFetcher(ProjectMediator.getInstance(), ExerciseArchiveCache.getInstance()),
+                CourseDb.getInstance(), ProjectMediator.getInstance());
+    }
+
+    /**
+     * Extracts exercises that aren't on disk from the archive cache if
+     * possible, and otherwise downloads them and caches new ones.
+     * Identical jars in the extracted projects are hard linked together.
+     */
+    private static final class CachingFetcher implements Fetcher {
+        private final ProjectMediator projectMediator;
+        private final ExerciseArchiveCache cache;
+        private final HardLinkDeduplicator deduplicator;
+
+        public CachingFetcher(ProjectMediator projectMediator, ExerciseArchiveCache cache) {
+            this.projectMediator = projectMediator;
+            this.cache = cache;
+            this.deduplicator = projectMediator.getJarDeduplicator();
+        }
+
+        @Override
+        public void fetch(Exercise exercise) throws Exception {
+            File projectDir = projectMediator.getProjectDirForExercise(exercise).toFile();
+            boolean isNew = !projectDir.exists();
+            if (isNew && cache.extractTo(exercise.getChecksum(), projectDir)) {
+                log.log(Level.FINE, "Extracted {0} from the archive cache", exercise.getName());
+                deduplicate(projectDir);
+                return;
+            }
+
+            if (!isNew) {
+                // The update is extracted over the project.
+                deduplicator.breakLinks(projectDir.toPath());
+            }
+
+            TmcCore.get().downloadOrUpdateExercises(ProgressObserver.NULL_OBSERVER, Collections.singletonList(exercise)).call();
+
+            // Only a fresh download has nothing but the exercise's own files.
+            if (isNew && projectDir.isDirectory()) {
+                try {
+                    cache.store(exercise.getChecksum(), projectDir);
+                } catch (IOException ex) {
+                    log.log(Level.INFO, "Failed to cache " + exercise.getName(), ex);
+                }
+            }
+            deduplicate(projectDir);
+        }
+
+        private void deduplicate(File projectDir) {
+            try {
+                long saved = deduplicator.deduplicate(projectDir.toPath());
+                if (saved > 0) {
+                    log.log(Level.FINE, "Saved {0} bytes by linking jars in {1}", new Object[] {saved, projectDir});
+                }
+                deduplicator.collectGarbage();
+            } catch (IOException ex) {
+                log.log(Level.INFO, "Failed to deduplicate jars in " + projectDir, ex);
+            }
+        }
+    }
+
+    /*package*/ BulkExerciseDownloader(List<Exercise> exercises, ProgressObserver observer, Fetcher fetcher, CourseDb courseDb, ProjectMediator projectMediator) {
+        this.exercises = new ArrayList<Exercise>(exercises);
+        this.observer = observer;
+        this.fetcher = fetcher;
+        this.courseDb = courseDb;
+        this.projectMediator = projectMediator;
+        this.concurrency = DEFAULT_CONCURRENCY;
+        this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        this.retryDelay = DEFAULT_RETRY_DELAY;
+        this.finished = new HashSet<Exercise>();
+        this.projects = new ArrayList<TmcProjectInfo>();
+        this.failures = new LinkedHashMap<Exercise, Throwable>();
+    }
+
+    public BulkExerciseDownloader setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public BulkExerciseDownloader setRetries(int maxAttempts, long retryDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelay = retryDelayMillis;
+        return this;
+    }
+
+    @Override
+    public Result call() throws Exception {
+        List<Exercise> remaining = new ArrayList<Exercise>();
+        for (Exercise ex : exercises) {
+            if (!finished.contains(ex)) {
+                remaining.add(ex);
+            }
+        }
+
+        final BlockingQueue<Fetched> queue = new LinkedBlockingQueue<Fetched>();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, remaining.size())), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Exercise downloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool = workers;
+        for (final Exercise ex : remaining) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    queue.add(new Fetched(ex, fetchWithRetries(ex)));
+                }
+            });
+        }
+        workers.shutdown();
+
+        List<Exercise> downloaded = new ArrayList<Exercise>();
+        try {
+            reportProgress();
+            int pending = remaining.size();
+            while (pending > 0) {
+                Fetched first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (cancelled) {
+                    throw new InterruptedException();
+                }
+                if (first == null) {
+                    continue;
+                }
+                List<Fetched> batch = new ArrayList<Fetched>();
+                batch.add(first);
+                queue.drainTo(batch);
+                pending -= batch.size();
+
+                Throwable authProblem = register(batch, downloaded);
+                reportProgress();
+                if (authProblem != null) {
+                    throw (authProblem instanceof Exception) ? (Exception) authProblem : new Exception(authProblem);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            if (!downloaded.isEmpty()) {
+                courseDb.exercisesDownloaded(downloaded);
+            }
+        }
+
+        return new Result(new ArrayList<TmcProjectInfo>(projects), new LinkedHashMap<Exercise, Throwable>(failures));
+    }
+
+    @Override
+    public boolean cancel() {
+        cancelled = true;
+        ExecutorService workers = pool;
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        return true;
+    }
+
+    private Throwable fetchWithRetries(Exercise ex) {
+        long delay = retryDelay;
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                fetcher.fetch(ex);
+                return null;
+            } catch (Throwable t) {
+                if (isAuthProblem(t) || attempt >= maxAttempts || cancelled) {
+                    return t;
+                }
+                log.log(Level.INFO, "Downloading " + ex.getName() + " failed. Retrying.", t);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return e;
+            }
+            delay *= 2;
+        }
+    }
+
+    /**
+     * Looks up the projects of a batch of finished downloads.
+     * Returns the first authentication problem, if any.
+     */
+    private Throwable register(List<Fetched> batch, List<Exercise> downloaded) {
+        Throwable authProblem = null;
+        List<Exercise> succeeded = new ArrayList<Exercise>();
+        for (Fetched fetched : batch) {
+            if (fetched.failure == null) {
+                succeeded.add(fetched.exercise);
+            } else if (isAuthProblem(fetched.failure)) {
+                if (authProblem == null) {
+                    authProblem = fetched.failure;
+                }
+            } else {
+                failures.put(fetched.exercise, fetched.failure);
+                finished.add(fetched.exercise);
+            }
+        }
+
+        Map<Exercise, TmcProjectInfo> found = projectMediator.tryGetProjectsForExercises(succeeded);
+        for (Exercise ex : succeeded) {
+            TmcProjectInfo project = found.get(ex);
+            if (project != null) {
+                projects.add(project);
+                downloaded.add(ex);
+            } else {
+                failures.put(ex, new RuntimeException("Failed to open project for exercise " + ex.getName()));
+            }
+            finished.add(ex);
+        }
+        return authProblem;
+    }
+
+    private void reportProgress() {
+        int done = finished.size();
+        int total = exercises.size();
+        observer.progress(0, (double) done / Math.max(1, total), "Downloaded " + done + " of " + total + " exercises");
+    }
+
+    private static boolean isAuthProblem(Throwable t) {
+        return t instanceof NotLoggedInException
+                || t instanceof AuthenticationFailedException
+                || t instanceof OAuthProblemException
+                || t instanceof OAuthSystemException;
+    }
+}
@@ -7,30 +7,128 @@ import fi.helsinki.cs.tmc.core.domain.ExerciseKey;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
-import fi.helsinki.cs.tmc.data.CourseListUtils;
 import fi.helsinki.cs.tmc.core.events.TmcEvent;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.core.persistance.ConfigFileIo;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.utilities.WriteBehindFile;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Stores the list of available courses, the current course and its exercise list.
+ *
+ * <p>
+ * The database is stored in a directory holding a small index file and one
+ * file per course. Only the current course is read at startup. Other courses
+ * are read when they are first asked for.
+ *
+ * <p>
+ * Changes are written to disk in the background a moment after they are made,
+ * so that e.g. downloading many exercises causes only one write.
+ * Call {@link #flush()} to write pending changes immediately.
+ *
+ * <p>
+ * Safe to use from any thread. Reads see an immutable snapshot of the
+ * database and never block. Changes are serialized and publish a new snapshot.
+ * Events are posted after the change is published and no lock is held, so
+ * listeners may call back into the database.
  */
 public class CourseDb {
 
+    /**
+     * Posted after any change, following the more specific events below.
+     */
     public static class ChangedEvent implements TmcEvent {}
+
+    /**
+     * The current course was switched to another one, or it appeared in or disappeared from the course list.
+     */
+    public static class CurrentCourseChangedEvent implements TmcEvent {
+        public final String oldCourseName; // May be null
+        public final String newCourseName; // May be null
+        public CurrentCourseChangedEvent(String oldCourseName, String newCourseName) {
+            this.oldCourseName = oldCourseName;
+            this.newCourseName = newCourseName;
+        }
+    }
+
+    /**
+     * Exercises appeared in the current course.
+     */
+    public static class ExercisesAddedEvent implements TmcEvent {
+        public final Set<ExerciseKey> keys;
+        public ExercisesAddedEvent(Set<ExerciseKey> keys) {
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Exercises disappeared from the current course.
+     */
+    public static class ExercisesRemovedEvent implements TmcEvent {
+        public final Set<ExerciseKey> keys;
+        public ExercisesRemovedEvent(Set<ExerciseKey> keys) {
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * Exercises of the current course changed status, e.g. got completed,
+     * reviewed or a new deadline or checksum from the server.
+     */
+    public static class ExercisesChangedEvent implements TmcEvent {
+        public final Set<ExerciseKey> keys;
+        public ExercisesChangedEvent(Set<ExerciseKey> keys) {
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * The downloaded checksums of exercises were updated or forgotten.
+     */
+    public static class ChecksumsUpdatedEvent implements TmcEvent {
+        public final Set<ExerciseKey> keys;
+        public ChecksumsUpdatedEvent(Set<ExerciseKey> keys) {
+            this.keys = keys;
+        }
+    }
     
     public static final Logger logger = Logger.getLogger(CourseDb.class.getName());
+    private static final String LEGACY_FILE_NAME = "CourseDb.json";
+    private static final String DIR_NAME = "CourseDb";
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final String COURSES_DIR_NAME = "courses";
+    private static final long SAVE_DELAY_MILLIS = 1000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Gson gson = new GsonBuilder()
+            .serializeNulls()
+            .setPrettyPrinting()
+            .registerTypeAdapter(ExerciseKey.class, new ExerciseKey.GsonAdapter())
+            .create();
+    private static final Gson compactGson = new GsonBuilder()
+            .serializeNulls()
+            .registerTypeAdapter(ExerciseKey.class, new ExerciseKey.GsonAdapter())
+            .create();
     private static CourseDb defaultInstance;
     
     public static synchronized CourseDb getInstance() {
@@ -41,67 +139,157 @@ public class CourseDb {
     }
 
     private TmcEventBus eventBus;
-    private ConfigFileIo configFile;
-    private List<Course> availableCourses;
-    private String currentCourseName;
-    private Map<ExerciseKey, String> downloadedExerciseChecksums;
+    private Path coursesDir;
+    private WriteBehindFile indexFile;
+    private final AtomicReference<Snapshot> state;
 
     private CourseDb() {
-        this(TmcEventBus.getDefault(), new ConfigFileIo("CourseDb.json"));
+        this(TmcEventBus.getDefault(),
+                ((TmcCoreSettingsImpl) TmcSettingsHolder.get()).getConfigRoot().resolve(DIR_NAME),
+                new ConfigFileIo(LEGACY_FILE_NAME));
     }
     
-    public CourseDb(TmcEventBus eventBus, ConfigFileIo configFile) {
+    public CourseDb(TmcEventBus eventBus, Path dir) {
+        this(eventBus, dir, null);
+    }
+
+    /**
+     * @param legacyFile the old single file database, read if {@code dir} has no database yet. May be null.
+     */
+    /*package*/ CourseDb(TmcEventBus eventBus, Path dir, ConfigFileIo legacyFile) {
         this.eventBus = eventBus;
-        this.configFile = configFile;
-        this.availableCourses = new ArrayList<Course>();
-        this.currentCourseName = null;
-        this.downloadedExerciseChecksums = new HashMap<ExerciseKey, String>();
+        this.coursesDir = dir.resolve(COURSES_DIR_NAME);
+        this.indexFile = new WriteBehindFile(dir.resolve(INDEX_FILE_NAME), new WriteBehindFile.ContentSource() {
+            @Override
+            public String getContent() {
+                return indexToJson();
+            }
+        }, SAVE_DELAY_MILLIS);
+        this.state = new AtomicReference<Snapshot>(Snapshot.EMPTY);
         try {
-            loadFromFile();
+            if (Files.exists(indexFile.getPath())) {
+                loadFromDir();
+            } else if (legacyFile != null && legacyFile.exists()) {
+                loadFromLegacyFile(legacyFile);
+            }
         } catch (Exception e) {
             logger.log(Level.WARNING, "Failed to load course database", e);
         }
     }
     
+    /**
+     * Returns all courses. Reads any courses not read yet.
+     */
     public List<Course> getAvailableCourses() {
-        return Collections.unmodifiableList(availableCourses);
+        List<Course> result = new ArrayList<Course>();
+        for (CourseSlot slot : state.get().slots) {
+            Course course = slot.getCourse();
+            if (course != null) {
+                result.add(course);
+            }
+        }
+        return Collections.unmodifiableList(result);
     }
 
+    /**
+     * Replaces the course list.
+     *
+     * <p>
+     * Courses already in the database keep their slot and file, which is
+     * rewritten only if the course changed. Files of dropped courses are
+     * deleted on the next start.
+     */
     public void setAvailableCourses(List<Course> availableCourses) {
-        this.availableCourses = availableCourses;
-        save();
+        List<TmcEvent> events;
+        synchronized (this) {
+            Snapshot old = state.get();
+            List<CourseSlot> newSlots = new ArrayList<CourseSlot>();
+            Set<String> names = new HashSet<String>();
+            for (Course course : availableCourses) {
+                if (!names.add(course.getName())) {
+                    continue; // Would share a file with the first one
+                }
+                CourseSlot slot = old.slotsByName.get(course.getName());
+                if (slot != null) {
+                    slot.update(course);
+                } else {
+                    slot = new CourseSlot(course);
+                }
+                newSlots.add(slot);
+            }
+            for (CourseSlot slot : old.slots) {
+                if (!names.contains(slot.name)) {
+                    slot.file.cancel();
+                }
+            }
+            events = publish(new Snapshot(newSlots, old.currentCourseName, old.downloadedExerciseChecksums));
+        }
+        post(events);
     }
 
     public Course getCurrentCourse() {
-        return CourseListUtils.getCourseByName(availableCourses, currentCourseName);
+        return state.get().currentCourse;
     }
 
     public String getCurrentCourseName() {
-        return currentCourseName;
+        return state.get().currentCourseName;
     }
 
     public void setCurrentCourseName(String currentCourseName) {
-        this.currentCourseName = currentCourseName;
-        save();
+        List<TmcEvent> events;
+        synchronized (this) {
+            Snapshot old = state.get();
+            events = publish(new Snapshot(old.slots, currentCourseName, old.downloadedExerciseChecksums));
+        }
+        post(events);
     }
 
+    /**
+     * Replaces a course with one with full details from the server.
+     *
+     * <p>
+     * Exercises that haven't changed keep their existing objects, and nothing
+     * is saved if nothing changed.
+     */
     public void putDetailedCourse(Course course) {
-        for (int i = 0; i < availableCourses.size(); ++i) {
-            if (availableCourses.get(i).getName().equals(course.getName())) {
-                availableCourses.set(i, course);
-                save();
-                break;
+        List<TmcEvent> events;
+        synchronized (this) {
+            CourseSlot slot = state.get().slotsByName.get(course.getName());
+            if (slot == null) {
+                return;
+            }
+            Course old = slot.getCourse();
+            if (old == course) {
+                return;
             }
+            if (old != null) {
+                if (compactGson.toJson(old).equals(compactGson.toJson(course))) {
+                    return;
+                }
+                reuseUnchangedExercises(old, course);
+            }
+            slot.setCourse(course);
+            events = republish();
         }
+        post(events);
     }
 
-    public Exercise getExerciseByKey(ExerciseKey key) {
-        for (Exercise ex : getCurrentCourseExercises()) {
-            if (key.equals(ex.getKey())) {
-                return ex;
+    private void reuseUnchangedExercises(Course old, Course received) {
+        Map<ExerciseKey, Exercise> oldExercises = new HashMap<ExerciseKey, Exercise>();
+        for (Exercise ex : old.getExercises()) {
+            oldExercises.put(ex.getKey(), ex);
+        }
+        List<Exercise> exercises = received.getExercises();
+        for (int i = 0; i < exercises.size(); ++i) {
+            Exercise oldEx = oldExercises.get(exercises.get(i).getKey());
+            if (oldEx != null && compactGson.toJson(oldEx).equals(compactGson.toJson(exercises.get(i)))) {
+                exercises.set(i, oldEx);
             }
         }
-        return null;
+    }
+
+    public Exercise getExerciseByKey(ExerciseKey key) {
+        return state.get().currentExercisesByKey.get(key);
     }
 
     /**
@@ -120,43 +308,24 @@ public class CourseDb {
     }
     
     public Course getCourseByName(String name) {
-        for (Course course : availableCourses) {
-            if (course.getName().equals(name)) {
-                return course;
-            }
-        }
-        return null;
+        CourseSlot slot = state.get().slotsByName.get(name);
+        return (slot != null) ? slot.getCourse() : null;
     }
     
     public boolean isUnlockable(Exercise ex) {
-        Course course = getCourseByName(ex.getCourseName());
-        return course != null && course.getUnlockables().contains(ex.getName());
+        CourseSlot slot = state.get().slotsByName.get(ex.getCourseName());
+        return slot != null && slot.getUnlockables().contains(ex.getName());
     }
     
     /**
      * Returns all exercises from the current course that can be unlocked (and must be unlocked together).
      */
     public List<Exercise> getCurrentCourseUnlockableExercises() {
-        List<Exercise> result = new ArrayList<Exercise>();
-        Course course = getCurrentCourse();
-        if (course != null) {
-            List<String> unlockables = course.getUnlockables();
-            if (unlockables == null) {
-                unlockables = Collections.emptyList();
-            }
-            for (String exerciseName : unlockables) {
-                for (Exercise ex : course.getExercises()) {
-                    if (ex.getName().equals(exerciseName)) {
-                        result.add(ex);
-                    }
-                }
-            }
-        }
-        return result;
+        return new ArrayList<Exercise>(state.get().currentUnlockableExercises);
     }
 
     public String getDownloadedExerciseChecksum(ExerciseKey ex) {
-        return downloadedExerciseChecksums.get(ex);
+        return state.get().downloadedExerciseChecksums.get(ex);
     }
     
     /**
@@ -166,19 +335,405 @@ public class CourseDb {
      * Sets the downloaded checksum of the exercise to be the one reported by the server.
      */
     public void exerciseDownloaded(Exercise ex) {
-        downloadedExerciseChecksums.put(ex.getKey(), ex.getChecksum());
-        save();
+        exercisesDownloaded(Collections.singletonList(ex));
+    }
+
+    /**
+     * Like {@link #exerciseDownloaded(Exercise)} for many exercises, saving only once.
+     */
+    public void exercisesDownloaded(Collection<Exercise> exercises) {
+        List<TmcEvent> events;
+        synchronized (this) {
+            Map<ExerciseKey, String> checksums = new HashMap<ExerciseKey, String>(state.get().downloadedExerciseChecksums);
+            for (Exercise ex : exercises) {
+                checksums.put(ex.getKey(), ex.getChecksum());
+            }
+            events = publish(state.get().withDownloadedExerciseChecksums(checksums));
+        }
+        post(events);
     }
     
-    //TODO: arrange for downloadedExerciseChecksums.put(..., null) when a project is deleted!
+    /**
+     * Forgets the downloaded checksums of exercises whose projects have been deleted.
+     */
+    public void forgetDownloadedExercises(Collection<ExerciseKey> keys) {
+        List<TmcEvent> events;
+        synchronized (this) {
+            Map<ExerciseKey, String> checksums = new HashMap<ExerciseKey, String>(state.get().downloadedExerciseChecksums);
+            if (!checksums.keySet().removeAll(keys)) {
+                return;
+            }
+            events = publish(state.get().withDownloadedExerciseChecksums(checksums));
+        }
+        post(events);
+    }
     
+    /**
+     * Schedules the database to be written and tells listeners that it has changed.
+     *
+     * <p>
+     * Callers that modify the current course or its exercises in place must call this
+     * so that lookups see the changes.
+     */
     public void save() {
-        try {
-            saveToFile();
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Failed to save course database", e);
+        List<TmcEvent> events;
+        synchronized (this) {
+            events = republish();
+        }
+        post(events);
+    }
+
+    /**
+     * Marks the current course changed and publishes a snapshot with fresh lookup tables.
+     */
+    private List<TmcEvent> republish() {
+        Snapshot old = state.get();
+        if (old.currentSlot != null) {
+            old.currentSlot.changed();
+        }
+        return publish(new Snapshot(old.slots, old.currentCourseName, old.downloadedExerciseChecksums));
+    }
+
+    /**
+     * Writes pending changes to disk now.
+     */
+    public void flush() {
+        for (CourseSlot slot : state.get().slots) {
+            slot.file.flush();
+        }
+        indexFile.flush();
+    }
+
+    /**
+     * Makes the snapshot current and returns the events to post once the lock is released.
+     */
+    private List<TmcEvent> publish(Snapshot snapshot) {
+        Snapshot old = state.getAndSet(snapshot);
+        indexFile.markDirty();
+        return changesBetween(old, snapshot);
+    }
+
+    private void post(List<TmcEvent> events) {
+        for (TmcEvent event : events) {
+            eventBus.post(event);
+        }
+    }
+
+    private List<TmcEvent> changesBetween(Snapshot old, Snapshot now) {
+        List<TmcEvent> events = new ArrayList<TmcEvent>();
+        if (!Objects.equals(old.currentCourseName, now.currentCourseName)
+                || (old.currentCourse == null) != (now.currentCourse == null)) {
+            events.add(new CurrentCourseChangedEvent(old.currentCourseName, now.currentCourseName));
+        } else if (old.currentExerciseStatuses != now.currentExerciseStatuses) {
+            Set<ExerciseKey> added = new HashSet<ExerciseKey>();
+            Set<ExerciseKey> changed = new HashSet<ExerciseKey>();
+            for (Map.Entry<ExerciseKey, ExerciseStatus> entry : now.currentExerciseStatuses.entrySet()) {
+                ExerciseStatus oldStatus = old.currentExerciseStatuses.get(entry.getKey());
+                if (oldStatus == null) {
+                    added.add(entry.getKey());
+                } else if (!oldStatus.equals(entry.getValue())) {
+                    changed.add(entry.getKey());
+                }
+            }
+            Set<ExerciseKey> removed = new HashSet<ExerciseKey>(old.currentExerciseStatuses.keySet());
+            removed.removeAll(now.currentExerciseStatuses.keySet());
+
+            if (!added.isEmpty()) {
+                events.add(new ExercisesAddedEvent(Collections.unmodifiableSet(added)));
+            }
+            if (!removed.isEmpty()) {
+                events.add(new ExercisesRemovedEvent(Collections.unmodifiableSet(removed)));
+            }
+            if (!changed.isEmpty()) {
+                events.add(new ExercisesChangedEvent(Collections.unmodifiableSet(changed)));
+            }
         }
-        eventBus.post(new ChangedEvent());
+
+        if (old.downloadedExerciseChecksums != now.downloadedExerciseChecksums) {
+            Set<ExerciseKey> updated = new HashSet<ExerciseKey>();
+            for (Map.Entry<ExerciseKey, String> entry : now.downloadedExerciseChecksums.entrySet()) {
+                if (!Objects.equals(entry.getValue(), old.downloadedExerciseChecksums.get(entry.getKey()))) {
+                    updated.add(entry.getKey());
+                }
+            }
+            for (ExerciseKey key : old.downloadedExerciseChecksums.keySet()) {
+                if (!now.downloadedExerciseChecksums.containsKey(key)) {
+                    updated.add(key);
+                }
+            }
+            if (!updated.isEmpty()) {
+                events.add(new ChecksumsUpdatedEvent(Collections.unmodifiableSet(updated)));
+            }
+        }
+
+        events.add(new ChangedEvent());
+        return events;
+    }
+
+    /**
+     * The parts of an exercise that a change event is posted for.
+     */
+    private static final class ExerciseStatus {
+        private final boolean attempted;
+        private final boolean completed;
+        private final boolean reviewed;
+        private final boolean allReviewPointsGiven;
+        private final boolean locked;
+        private final String checksum;
+        private final Date deadline;
+        private final Date softDeadline;
+
+        public ExerciseStatus(Exercise ex) {
+            this.attempted = ex.isAttempted();
+            this.completed = ex.isCompleted();
+            this.reviewed = ex.isReviewed();
+            this.allReviewPointsGiven = ex.isAllReviewPointsGiven();
+            this.locked = ex.isLocked();
+            this.checksum = ex.getChecksum();
+            this.deadline = ex.getDeadlineDate();
+            this.softDeadline = ex.getSoftDeadlineDate();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ExerciseStatus)) {
+                return false;
+            }
+            ExerciseStatus that = (ExerciseStatus) obj;
+            return this.attempted == that.attempted
+                    && this.completed == that.completed
+                    && this.reviewed == that.reviewed
+                    && this.allReviewPointsGiven == that.allReviewPointsGiven
+                    && this.locked == that.locked
+                    && Objects.equals(this.checksum, that.checksum)
+                    && Objects.equals(this.deadline, that.deadline)
+                    && Objects.equals(this.softDeadline, that.softDeadline);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(attempted, completed, reviewed, allReviewPointsGiven, locked, checksum, deadline, softDeadline);
+        }
+    }
+
+    /**
+     * The state of the database at one point in time, with lookup tables.
+     *
+     * <p>
+     * Never modified after construction. Changes publish a new snapshot,
+     * so readers need no locking and never see a half-made change.
+     * The courses and exercises themselves are the usual mutable objects.
+     */
+    private static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(
+                Collections.<CourseSlot>emptyList(), null, Collections.<ExerciseKey, String>emptyMap());
+
+        private final List<CourseSlot> slots;
+        private final Map<String, CourseSlot> slotsByName;
+        private final String currentCourseName;
+        private final CourseSlot currentSlot;
+        private final Course currentCourse;
+        private final Map<ExerciseKey, Exercise> currentExercisesByKey;
+        private final List<Exercise> currentUnlockableExercises;
+        private final Map<ExerciseKey, ExerciseStatus> currentExerciseStatuses;
+        private final Map<ExerciseKey, String> downloadedExerciseChecksums;
+
+        public Snapshot(List<CourseSlot> slots, String currentCourseName, Map<ExerciseKey, String> downloadedExerciseChecksums) {
+            this.slots = Collections.unmodifiableList(new ArrayList<CourseSlot>(slots));
+            Map<String, CourseSlot> byName = new HashMap<String, CourseSlot>();
+            for (CourseSlot slot : slots) {
+                if (!byName.containsKey(slot.name)) {
+                    byName.put(slot.name, slot);
+                }
+            }
+            this.slotsByName = Collections.unmodifiableMap(byName);
+            this.currentCourseName = currentCourseName;
+            this.currentSlot = byName.get(currentCourseName);
+            this.currentCourse = (currentSlot != null) ? currentSlot.getCourse() : null;
+
+            Map<ExerciseKey, Exercise> byKey = new HashMap<ExerciseKey, Exercise>();
+            Map<ExerciseKey, ExerciseStatus> statuses = new HashMap<ExerciseKey, ExerciseStatus>();
+            Map<String, Exercise> byExerciseName = new HashMap<String, Exercise>();
+            if (currentCourse != null) {
+                for (Exercise ex : currentCourse.getExercises()) {
+                    if (!byKey.containsKey(ex.getKey())) {
+                        byKey.put(ex.getKey(), ex);
+                        statuses.put(ex.getKey(), new ExerciseStatus(ex));
+                    }
+                    if (!byExerciseName.containsKey(ex.getName())) {
+                        byExerciseName.put(ex.getName(), ex);
+                    }
+                }
+            }
+            this.currentExercisesByKey = Collections.unmodifiableMap(byKey);
+            this.currentExerciseStatuses = Collections.unmodifiableMap(statuses);
+
+            List<Exercise> unlockableExercises = new ArrayList<Exercise>();
+            if (currentCourse != null && currentCourse.getUnlockables() != null) {
+                for (String exerciseName : currentCourse.getUnlockables()) {
+                    Exercise ex = byExerciseName.get(exerciseName);
+                    if (ex != null) {
+                        unlockableExercises.add(ex);
+                    }
+                }
+            }
+            this.currentUnlockableExercises = Collections.unmodifiableList(unlockableExercises);
+            this.downloadedExerciseChecksums = Collections.unmodifiableMap(
+                    new HashMap<ExerciseKey, String>(downloadedExerciseChecksums));
+        }
+
+        private Snapshot(Snapshot base, Map<ExerciseKey, String> downloadedExerciseChecksums) {
+            this.slots = base.slots;
+            this.slotsByName = base.slotsByName;
+            this.currentCourseName = base.currentCourseName;
+            this.currentSlot = base.currentSlot;
+            this.currentCourse = base.currentCourse;
+            this.currentExercisesByKey = base.currentExercisesByKey;
+            this.currentUnlockableExercises = base.currentUnlockableExercises;
+            this.currentExerciseStatuses = base.currentExerciseStatuses;
+            this.downloadedExerciseChecksums = Collections.unmodifiableMap(downloadedExerciseChecksums);
+        }
+
+        /**
+         * Returns a copy with different checksums, reusing the lookup tables.
+         * The map must not be modified afterwards.
+         */
+        public Snapshot withDownloadedExerciseChecksums(Map<ExerciseKey, String> checksums) {
+            return new Snapshot(this, checksums);
+        }
+    }
+
+    /**
+     * One course and its file. The course is read from the file when first needed.
+     */
+    private final class CourseSlot {
+        private final String name;
+        private final WriteBehindFile file;
+
+        // Guarded by this.
+        private boolean loaded;
+        private Course course; // Null if the file couldn't be read
+        private Set<String> unlockables;
+
+        /**
+         * A course that is on disk and not read yet.
+         */
+        public CourseSlot(String name) {
+            this.name = name;
+            this.file = new WriteBehindFile(coursesDir.resolve(fileNameForCourse(name)), new WriteBehindFile.ContentSource() {
+                @Override
+                public String getContent() {
+                    return courseToJson();
+                }
+            }, SAVE_DELAY_MILLIS);
+            this.loaded = false;
+        }
+
+        /**
+         * A new course that needs to be written.
+         */
+        public CourseSlot(Course course) {
+            this(course.getName());
+            setCourse(course);
+        }
+
+        public synchronized Course getCourse() {
+            if (!loaded) {
+                try {
+                    Reader reader = Files.newBufferedReader(file.getPath(), UTF8);
+                    try {
+                        course = compactGson.fromJson(reader, Course.class);
+                    } finally {
+                        reader.close();
+                    }
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to load course " + name + " from course database", e);
+                    course = null;
+                }
+                updateUnlockables();
+                loaded = true;
+            }
+            return course;
+        }
+
+        public synchronized Set<String> getUnlockables() {
+            getCourse();
+            return unlockables;
+        }
+
+        public synchronized void setCourse(Course course) {
+            this.course = course;
+            this.loaded = true;
+            changed();
+        }
+
+        /**
+         * Replaces the course unless it is the same as the stored one.
+         *
+         * <p>
+         * A course not read yet is compared to its file, so that it needn't be parsed.
+         */
+        public synchronized void update(Course received) {
+            String json = compactGson.toJson(received);
+            if (loaded) {
+                if (course == received || (course != null && compactGson.toJson(course).equals(json))) {
+                    return;
+                }
+            } else {
+                try {
+                    if (new String(Files.readAllBytes(file.getPath()), UTF8).equals(json)) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    // Treat as changed and rewrite it.
+                }
+            }
+            setCourse(received);
+        }
+
+        /**
+         * Schedules the course to be written if it has been read.
+         */
+        public synchronized void changed() {
+            if (loaded && course != null) {
+                updateUnlockables();
+                file.markDirty();
+            }
+        }
+
+        private void updateUnlockables() {
+            if (course != null && course.getUnlockables() != null) {
+                unlockables = Collections.unmodifiableSet(new HashSet<String>(course.getUnlockables()));
+            } else {
+                unlockables = Collections.emptySet();
+            }
+        }
+
+        private synchronized String courseToJson() {
+            return compactGson.toJson(course);
+        }
+    }
+
+    /**
+     * Makes a file name from a course name, escaping all but plain ASCII letters, digits, '-' and '_'.
+     */
+    private static String fileNameForCourse(String courseName) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : courseName.getBytes(UTF8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02x", b & 0xff));
+            }
+        }
+        return sb.append(".json").toString();
+    }
+
+    private static class StoredIndex {
+        public List<String> courseNames;
+        public String currentCourseName;
+        public Map<ExerciseKey, String> downloadedExerciseChecksums;
     }
     
     private static class StoredStuff {
@@ -187,51 +742,87 @@ public class CourseDb {
         public Map<ExerciseKey, String> downloadedExerciseChecksums;
     }
     
-    private void saveToFile() throws IOException {
-        StoredStuff stuff = new StoredStuff();
-        stuff.availableCourses = this.availableCourses;
-        stuff.currentCourseName = this.currentCourseName;
-        stuff.downloadedExerciseChecksums = this.downloadedExerciseChecksums;
-        Writer w = configFile.getWriter();
+    private String indexToJson() {
+        Snapshot snapshot = state.get();
+        StoredIndex index = new StoredIndex();
+        index.courseNames = new ArrayList<String>();
+        for (CourseSlot slot : snapshot.slots) {
+            index.courseNames.add(slot.name);
+        }
+        index.currentCourseName = snapshot.currentCourseName;
+        index.downloadedExerciseChecksums = snapshot.downloadedExerciseChecksums;
+        return gson.toJson(index);
+    }
+
+    private void loadFromDir() throws IOException {
+        StoredIndex index;
+        Reader reader = Files.newBufferedReader(indexFile.getPath(), UTF8);
         try {
-            getGson().toJson(stuff, w);
+            index = gson.fromJson(reader, StoredIndex.class);
         } finally {
-            w.close();
+            reader.close();
+        }
+        if (index == null) {
+            return;
+        }
+
+        List<CourseSlot> slots = new ArrayList<CourseSlot>();
+        if (index.courseNames != null) {
+            for (String name : index.courseNames) {
+                slots.add(new CourseSlot(name));
+            }
+        }
+        Map<ExerciseKey, String> checksums = new HashMap<ExerciseKey, String>();
+        if (index.downloadedExerciseChecksums != null) {
+            checksums.putAll(index.downloadedExerciseChecksums);
         }
+        state.set(new Snapshot(slots, index.currentCourseName, checksums));
+
+        deleteUnlistedCourseFiles(slots);
     }
 
-    private void loadFromFile() throws IOException {
-        if (!configFile.exists()) {
+    /**
+     * Removes files of courses that were dropped from the course list.
+     */
+    private void deleteUnlistedCourseFiles(List<CourseSlot> slots) throws IOException {
+        if (!Files.isDirectory(coursesDir)) {
             return;
         }
-        
-        Reader reader = configFile.getReader();
+        Set<Path> listed = new HashSet<Path>();
+        for (CourseSlot slot : slots) {
+            listed.add(slot.file.getPath());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(coursesDir)) {
+            for (Path file : files) {
+                if (!listed.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void loadFromLegacyFile(ConfigFileIo legacyFile) throws IOException {
+        Reader reader = legacyFile.getReader();
         StoredStuff stuff;
         try {
-            stuff = getGson().fromJson(reader, StoredStuff.class);
+            stuff = gson.fromJson(reader, StoredStuff.class);
         } finally {
             reader.close();
         }
         if (stuff != null) {
+            List<CourseSlot> slots = new ArrayList<CourseSlot>();
             if (stuff.availableCourses != null) {
-                this.availableCourses.clear();
-                this.availableCourses.addAll(stuff.availableCourses);
+                for (Course course : stuff.availableCourses) {
+                    slots.add(new CourseSlot(course));
+                }
             }
             
-            this.currentCourseName = stuff.currentCourseName;
-            
+            Map<ExerciseKey, String> checksums = new HashMap<ExerciseKey, String>();
             if (stuff.downloadedExerciseChecksums != null) {
-                this.downloadedExerciseChecksums.clear();
-                this.downloadedExerciseChecksums.putAll(stuff.downloadedExerciseChecksums);
+                checksums.putAll(stuff.downloadedExerciseChecksums);
             }
+            state.set(new Snapshot(slots, stuff.currentCourseName, checksums));
+            indexFile.markDirty();
         }
     }
-    
-    private Gson getGson() {
-        return new GsonBuilder()
-                .serializeNulls()
-                .setPrettyPrinting()
-                .registerTypeAdapter(ExerciseKey.class, new ExerciseKey.GsonAdapter())
-                .create();
-    }
 }
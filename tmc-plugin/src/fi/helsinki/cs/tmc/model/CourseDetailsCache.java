@@ -0,0 +1,181 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.TmcCore;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.core.events.TmcEventListener;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
+import fi.helsinki.cs.tmc.utilities.BgTask;
+import fi.helsinki.cs.tmc.utilities.BgTaskListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fetches course details from the server, avoiding needless requests.
+ *
+ * <p>
+ * Callers say how old a previously fetched result they accept. Automatic
+ * checks accept fairly old results and so often cause no request at all.
+ * Concurrent requests for the same course share one request.
+ */
+public class CourseDetailsCache {
+
+    private static final Logger log = Logger.getLogger(CourseDetailsCache.class.getName());
+
+    /**
+     * For checks the user asked for.
+     */
+    public static final long NO_CACHE = 0;
+
+    /**
+     * For checks made automatically right after something else fetched the course.
+     */
+    public static final long RECENT = 60 * 1000;
+
+    /**
+     * How often the background check for new exercises runs.
+     */
+    public static final long BACKGROUND_INTERVAL = 20 * 60 * 1000;
+
+    /**
+     * For periodic background checks. Shorter than the least time the
+     * scheduler leaves between two of them, so that a check is skipped only
+     * if something else fetched the course since the previous check.
+     */
+    public static final long BACKGROUND = BackgroundScheduler.shortestDelay(BACKGROUND_INTERVAL);
+
+    public interface Fetcher {
+        Callable<Course> getCourseDetails(ProgressObserver observer, Course course);
+    }
+
+    private static CourseDetailsCache instance;
+
+    public static synchronized CourseDetailsCache getInstance() {
+        if (instance == null) {
+            instance = new CourseDetailsCache(new Fetcher() {
+                @Override
+                public Callable<Course> getCourseDetails(ProgressObserver observer, Course course) {
+                    return TmcCore.get().getCourseDetails(observer, course);
+                }
+            });
+            instance.clearOnSettingsChange(TmcEventBus.getDefault());
+        }
+        return instance;
+    }
+
+    private static final class Entry {
+        private Course course; // Null until the first fetch completes
+        private long fetchedAt;
+        private FutureTask<Course> inFlight;
+    }
+
+    private final Fetcher fetcher;
+
+    // Guarded by this.
+    private final Map<String, Entry> entries;
+
+    /*package*/ CourseDetailsCache(Fetcher fetcher) {
+        this.fetcher = fetcher;
+        this.entries = new HashMap<String, Entry>();
+    }
+
+    private void clearOnSettingsChange(TmcEventBus eventBus) {
+        eventBus.subscribeDependent(new TmcEventListener() {
+            public void receive(TmcCoreSettingsImpl.SavedEvent event) {
+                clear(); // The server or user may have changed.
+            }
+        }, this);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns a task that gives the course's details, fetched no longer than
+     * {@code maxAgeMillis} ago.
+     */
+    public Callable<Course> getCourseDetails(final ProgressObserver observer, final Course course, final long maxAgeMillis) {
+        return new Callable<Course>() {
+            @Override
+            public Course call() throws Exception {
+                return get(observer, course, maxAgeMillis);
+            }
+        };
+    }
+
+    /**
+     * Starts fetching the course's details in the background unless a
+     * recent enough result or a fetch in progress exists.
+     */
+    public void prefetch(Course course, long maxAgeMillis) {
+        Callable<Course> task = getCourseDetails(ProgressObserver.NULL_OBSERVER, course, maxAgeMillis);
+        BgTask.start("Prefetching details of " + course.getName(), task, new BgTaskListener<Course>() {
+            @Override
+            public void bgTaskReady(Course result) {
+            }
+
+            @Override
+            public void bgTaskCancelled() {
+            }
+
+            @Override
+            public void bgTaskFailed(Throwable ex) {
+                log.log(Level.FINE, "Prefetching course details failed", ex);
+            }
+        });
+    }
+
+    private Course get(ProgressObserver observer, final Course course, long maxAgeMillis) throws Exception {
+        FutureTask<Course> task;
+        boolean ownTask = false;
+        synchronized (this) {
+            Entry entry = entries.get(course.getName());
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(course.getName(), entry);
+            }
+            if (entry.course != null && System.currentTimeMillis() - entry.fetchedAt < maxAgeMillis) {
+                return entry.course;
+            }
+            if (entry.inFlight == null) {
+                entry.inFlight = new FutureTask<Course>(fetcher.getCourseDetails(observer, course));
+                ownTask = true;
+            }
+            task = entry.inFlight;
+        }
+
+        if (ownTask) {
+            task.run();
+            synchronized (this) {
+                Entry entry = entries.get(course.getName());
+                if (entry != null && entry.inFlight == task) {
+                    entry.inFlight = null;
+                    try {
+                        entry.course = task.get();
+                        entry.fetchedAt = System.currentTimeMillis();
+                    } catch (ExecutionException ex) {
+                        // Thrown to the caller below.
+                    }
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.ExerciseKey;
+import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.core.events.TmcEventListener;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the current course's directory and keeps track of which exercise
+ * directories exist in it.
+ *
+ * <p>
+ * When an exercise directory is deleted, the exercise's downloaded checksum
+ * is forgotten. Whenever the set of directories changes, project lookups in
+ * the course directory are made to look at the disk again. Callers can skip
+ * looking for projects of exercises whose directories are known to be missing.
+ *
+ * <p>
+ * All the work happens in a background thread of its own, so that reacting to
+ * events never holds up whoever posted them.
+ */
+public class CourseDirMonitor {
+
+    private static final Logger log = Logger.getLogger(CourseDirMonitor.class.getName());
+
+    private static CourseDirMonitor instance;
+
+    public static synchronized CourseDirMonitor getInstance() {
+        if (instance == null) {
+            instance = new CourseDirMonitor(TmcEventBus.getDefault(), CourseDb.getInstance(), ProjectMediator.getInstance());
+        }
+        return instance;
+    }
+
+    public static synchronized void start() {
+        try {
+            getInstance().startWatching();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to start watching the course directory", ex);
+        }
+    }
+
+    /**
+     * Stops watching. A later {@link #start()} starts a new monitor.
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.stopWatching();
+            instance = null;
+        }
+    }
+
+    /**
+     * The exercise directories of one course at one point in time.
+     */
+    private static final class Listing {
+        private static final Listing EMPTY = new Listing(null, Collections.<String>emptySet());
+
+        private final String courseName;
+        private final Set<String> dirNames;
+
+        public Listing(String courseName, Set<String> dirNames) {
+            this.courseName = courseName;
+            this.dirNames = Collections.unmodifiableSet(dirNames);
+        }
+    }
+
+    private final TmcEventBus eventBus;
+    private final CourseDb courseDb;
+    private final ProjectMediator projectMediator;
+    private final ExecutorService worker;
+
+    private volatile WatchService watchService;
+
+    // Only used in the worker thread.
+    private Path courseDir; // Null if no course is selected
+    private WatchKey courseDirKey;
+    private WatchKey rootDirKey;
+
+    private volatile Listing listing;
+
+    /*package*/ CourseDirMonitor(TmcEventBus eventBus, CourseDb courseDb, ProjectMediator projectMediator) {
+        this.eventBus = eventBus;
+        this.courseDb = courseDb;
+        this.projectMediator = projectMediator;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Course directory monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.listing = Listing.EMPTY;
+    }
+
+    /**
+     * Returns the exercises whose directories may exist, leaving out those
+     * known to be missing from the watched course directory.
+     *
+     * <p>
+     * Exercises recorded as downloaded are always kept, since the event for
+     * a directory just created may not have been seen yet.
+     */
+    public List<Exercise> withoutMissing(Collection<Exercise> exercises) {
+        Listing current = listing;
+        List<Exercise> result = new ArrayList<Exercise>(exercises.size());
+        for (Exercise ex : exercises) {
+            if (!ex.getCourseName().equals(current.courseName)
+                    || current.dirNames.contains(ProjectMediator.projectDirNameForExercise(ex))
+                    || courseDb.getDownloadedExerciseChecksum(ex.getKey()) != null) {
+                result.add(ex);
+            }
+        }
+        return result;
+    }
+
+    /*package*/ synchronized void startWatching() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        final WatchService service = FileSystems.getDefault().newWatchService();
+        watchService = service;
+
+        eventBus.subscribeDependent(new TmcEventListener() {
+            public void receive(CourseDb.CurrentCourseChangedEvent event) {
+                rewatchLater();
+            }
+
+            public void receive(TmcCoreSettingsImpl.SavedEvent event) {
+                rewatchLater(); // The project root dir may have changed.
+            }
+        }, this);
+
+        Thread thread = new Thread("Course directory watcher") {
+            @Override
+            public void run() {
+                watchLoop(service);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        rewatchLater();
+    }
+
+    /*package*/ synchronized void stopWatching() {
+        worker.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                log.log(Level.FINE, "Failed to close watch service", ex);
+            }
+            watchService = null;
+        }
+        listing = Listing.EMPTY; // No longer kept up to date
+    }
+
+    private void rewatchLater() {
+        try {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rewatch();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Stopped.
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            final List<WatchEvent<?>> events = key.pollEvents();
+            final boolean valid = key.reset();
+            try {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleEvents(key, events, valid);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                return;
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key, List<WatchEvent<?>> events, boolean valid) {
+        if ((key == rootDirKey && mentionsCourseDir(events)) || (key == courseDirKey && !valid)) {
+            rewatch();
+        } else if (key == courseDirKey) {
+            rescan();
+        }
+    }
+
+    private boolean mentionsCourseDir(List<WatchEvent<?>> events) {
+        for (WatchEvent<?> event : events) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && courseDir != null && courseDir.getFileName().equals(context))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts watching the current course's directory, or its parent until it's created.
+     */
+    private void rewatch() {
+        String courseName = courseDb.getCurrentCourseName();
+        Path newCourseDir = null;
+        Path rootDir = null;
+        if (courseName != null) {
+            newCourseDir = projectMediator.getCourseRootDir(courseName).toPath();
+            rootDir = newCourseDir.getParent();
+            try {
+                newCourseDir = newCourseDir.toRealPath();
+            } catch (IOException ex) {
+                // Doesn't exist yet.
+            }
+        }
+
+        WatchService service = watchService;
+        if (service == null) {
+            return;
+        }
+        if (courseDirKey != null) {
+            courseDirKey.cancel();
+            courseDirKey = null;
+        }
+        if (rootDirKey != null) {
+            rootDirKey.cancel();
+            rootDirKey = null;
+        }
+        courseDir = newCourseDir;
+        try {
+            if (newCourseDir != null && Files.isDirectory(newCourseDir)) {
+                courseDirKey = newCourseDir.register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            } else if (rootDir != null && Files.isDirectory(rootDir)) {
+                rootDirKey = rootDir.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        } catch (IOException | ClosedWatchServiceException ex) {
+            log.log(Level.WARNING, "Failed to watch " + newCourseDir, ex);
+        }
+
+        rescan();
+        if (newCourseDir != null && Files.isDirectory(newCourseDir)) {
+            forgetMissingExercises();
+        }
+    }
+
+    /**
+     * Lists the course directory and reacts to the differences to the previous listing.
+     */
+    private void rescan() {
+        Path dir = courseDir;
+        String courseName = courseDb.getCurrentCourseName();
+
+        Set<String> dirNames = new HashSet<String>();
+        if (dir != null && Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child)) {
+                        dirNames.add(child.getFileName().toString());
+                    }
+                }
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Failed to list " + dir, ex);
+                return;
+            }
+        }
+
+        Listing old = listing;
+        Listing now = new Listing(courseName, dirNames);
+        listing = now;
+
+        boolean sameCourse = courseName != null && courseName.equals(old.courseName);
+        Set<String> added = new HashSet<String>(now.dirNames);
+        Set<String> removed = new HashSet<String>();
+        if (sameCourse) {
+            added.removeAll(old.dirNames);
+            removed.addAll(old.dirNames);
+            removed.removeAll(now.dirNames);
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        if (dir != null) {
+            projectMediator.forgetCourseDirContents(dir.toFile());
+        }
+        if (!removed.isEmpty()) {
+            forgetExercisesInDirs(removed);
+        }
+    }
+
+    /**
+     * Forgets checksums of exercises deleted while we weren't watching.
+     */
+    private void forgetMissingExercises() {
+        Set<String> present = listing.dirNames;
+        List<ExerciseKey> missing = new ArrayList<ExerciseKey>();
+        for (Exercise ex : courseDb.getCurrentCourseExercises()) {
+            if (courseDb.getDownloadedExerciseChecksum(ex.getKey()) != null
+                    && !present.contains(ProjectMediator.projectDirNameForExercise(ex))) {
+                missing.add(ex.getKey());
+            }
+        }
+        if (!missing.isEmpty()) {
+            courseDb.forgetDownloadedExercises(missing);
+        }
+    }
+
+    private void forgetExercisesInDirs(Set<String> dirNames) {
+        List<ExerciseKey> keys = new ArrayList<ExerciseKey>();
+        for (Exercise ex : courseDb.getCurrentCourseExercises()) {
+            if (dirNames.contains(ProjectMediator.projectDirNameForExercise(ex))) {
+                keys.add(ex.getKey());
+            }
+        }
+        if (!keys.isEmpty()) {
+            courseDb.forgetDownloadedExercises(keys);
+        }
+    }
+}
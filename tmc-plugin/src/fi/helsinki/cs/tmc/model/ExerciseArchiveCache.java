@@ -0,0 +1,317 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.utilities.zip.RecursiveZipper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Keeps pristine copies of downloaded exercises on disk, keyed by the
+ * exercise checksum the server reports.
+ *
+ * <p>
+ * Re-downloading a deleted exercise whose checksum hasn't changed then
+ * needs no network. Each archive has a SHA-256 digest next to it, checked
+ * before extracting. The least recently used archives are deleted when the
+ * cache grows past its size limit.
+ *
+ * <p>
+ * Different exercises can be stored and extracted at the same time.
+ * Only operations on the same checksum wait for each other.
+ */
+public class ExerciseArchiveCache {
+
+    private static final Logger log = Logger.getLogger(ExerciseArchiveCache.class.getName());
+
+    private static final String DIR_NAME = "ExerciseArchiveCache";
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern VALID_KEY = Pattern.compile("[A-Za-z0-9]+");
+    private static final String STAGING_DIR_NAME = ".tmc-extracting";
+    private static final int LOCK_STRIPES = 16;
+
+    // Exercises may bundle large resources, so their files are deflated
+    // in parallel. The pool is kept small to leave the IDE responsive.
+    private static final ForkJoinPool zippingPool = RecursiveZipper.newZippingPool("TMC exercise archiver",
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)));
+
+    private static ExerciseArchiveCache instance;
+
+    public static synchronized ExerciseArchiveCache getInstance() {
+        if (instance == null) {
+            Path dir = ((TmcCoreSettingsImpl) TmcSettingsHolder.get()).getConfigRoot().resolve(DIR_NAME);
+            instance = new ExerciseArchiveCache(dir, DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+
+    // Serialize work on one checksum. The monitor of this guards only
+    // adding archives and evicting them, not zipping or extracting.
+    private final Object[] locks;
+
+    public ExerciseArchiveCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(String checksum) {
+        return locks[(checksum.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private Path archiveFile(String checksum) {
+        return dir.resolve(checksum + ".zip");
+    }
+
+    private Path digestFile(String checksum) {
+        return dir.resolve(checksum + ".sha256");
+    }
+
+    private static boolean isValidKey(String checksum) {
+        return checksum != null && VALID_KEY.matcher(checksum).matches();
+    }
+
+    public boolean contains(String checksum) {
+        return isValidKey(checksum) && Files.isRegularFile(archiveFile(checksum));
+    }
+
+    /**
+     * Stores the contents of a freshly extracted exercise directory.
+     */
+    public void store(String checksum, File projectDir) throws IOException {
+        if (!isValidKey(checksum)) {
+            return;
+        }
+        synchronized (lockFor(checksum)) {
+            if (contains(checksum)) {
+                return;
+            }
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(checksum + ".zip.tmp");
+            MessageDigest digest = newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                RecursiveZipper zipper = new RecursiveZipper(projectDir, RecursiveZipper.ZIP_ALL_THE_THINGS);
+                zipper.setParallel(zippingPool);
+                zipper.zipTo(out);
+            } catch (IOException ex) {
+                Files.deleteIfExists(tmp);
+                throw ex;
+            }
+
+            synchronized (this) {
+                Files.write(digestFile(checksum), toHex(digest.digest()).getBytes(UTF8));
+                move(tmp, archiveFile(checksum));
+                evictIfNeeded();
+            }
+        }
+    }
+
+    /**
+     * Extracts a cached exercise into a directory that doesn't exist yet.
+     *
+     * <p>
+     * Returns false if the exercise isn't cached or its archive is damaged,
+     * in which case it must be downloaded.
+     */
+    public boolean extractTo(String checksum, File projectDir) {
+        if (!isValidKey(checksum)) {
+            return false;
+        }
+        synchronized (lockFor(checksum)) {
+            if (!contains(checksum) || projectDir.exists()) {
+                return false;
+            }
+            Path archive = archiveFile(checksum);
+            Path staging = stagingDirFor(projectDir);
+            try {
+                deleteRecursively(staging);
+                if (!extractVerified(checksum, archive, staging)) {
+                    log.log(Level.WARNING, "Cached archive {0} is damaged. Deleting it.", archive);
+                    deleteRecursively(staging);
+                    Files.deleteIfExists(archive);
+                    Files.deleteIfExists(digestFile(checksum));
+                    return false;
+                }
+                move(staging, projectDir.toPath());
+                Files.setLastModifiedTime(archive, FileTime.fromMillis(System.currentTimeMillis()));
+                return true;
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Failed to extract cached archive " + archive, ex);
+                try {
+                    deleteRecursively(staging);
+                } catch (IOException e) {
+                    // Never mind.
+                }
+                return false;
+            } finally {
+                deleteIfEmpty(staging.getParent());
+            }
+        }
+    }
+
+    /**
+     * Returns where to extract an exercise before moving it into place.
+     *
+     * <p>
+     * That is next to the course directory rather than in it, so that
+     * watchers of the course directory only see the finished project appear,
+     * and on the same file system, so that the move can be atomic.
+     */
+    private static Path stagingDirFor(File projectDir) {
+        Path courseDir = projectDir.toPath().toAbsolutePath().getParent();
+        return courseDir.resolveSibling(STAGING_DIR_NAME).resolve(courseDir.getFileName() + "-" + projectDir.getName());
+    }
+
+    /**
+     * Extracts the archive, dropping its top-level directory, and checks
+     * that its digest matches the stored one.
+     */
+    private boolean extractVerified(String checksum, Path archive, Path targetDir) throws IOException {
+        String expected = new String(Files.readAllBytes(digestFile(checksum)), UTF8).trim();
+        MessageDigest digest = newDigest();
+        Path root = targetDir.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+
+        try (InputStream in = new DigestInputStream(Files.newInputStream(archive), digest);
+                ZipInputStream zip = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                int slash = name.indexOf('/');
+                if (slash < 0 || slash == name.length() - 1) {
+                    continue; // The top-level directory itself.
+                }
+                Path target = root.resolve(name.substring(slash + 1)).normalize();
+                if (!target.startsWith(root)) {
+                    return false;
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(zip, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            // Read to the end so that the digest covers the whole file.
+            byte[] buf = new byte[8192];
+            while (in.read(buf) != -1) {
+            }
+        }
+        return expected.equals(toHex(digest.digest()));
+    }
+
+    private void evictIfNeeded() throws IOException {
+        List<Path> archives = new ArrayList<Path>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.zip")) {
+            for (Path file : files) {
+                archives.add(file);
+                total += Files.size(file);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        Collections.sort(archives, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(a.toFile().lastModified(), b.toFile().lastModified());
+            }
+        });
+        for (Path archive : archives) {
+            if (total <= maxBytes) {
+                break;
+            }
+            total -= Files.size(archive);
+            String name = archive.getFileName().toString();
+            Files.deleteIfExists(archive);
+            Files.deleteIfExists(digestFile(name.substring(0, name.length() - ".zip".length())));
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteIfEmpty(Path dir) {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (IOException ex) {
+            // Not empty, as another exercise is being extracted.
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
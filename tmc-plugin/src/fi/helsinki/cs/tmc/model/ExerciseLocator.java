@@ -0,0 +1,213 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.core.events.TmcEventListener;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.netbeans.api.project.ui.OpenProjects;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Finds the project and exercise a file belongs to, with caching.
+ *
+ * <p>
+ * Exercises are indexed by their real project directory, and recent
+ * file lookups are remembered, so event sources can afford to look up
+ * every event. The caches are cleared when the course database changes,
+ * settings are saved or projects are opened or closed.
+ *
+ * <p>
+ * Lookups ask the project mediator and the file system without holding
+ * the lock, so the listeners that invalidate the caches never wait for them.
+ */
+public class ExerciseLocator {
+
+    private static final int MAX_CACHED_FILES = 512;
+
+    private static ExerciseLocator instance;
+
+    public static synchronized ExerciseLocator getInstance() {
+        if (instance == null) {
+            instance = new ExerciseLocator(ProjectMediator.getInstance(), CourseDb.getInstance());
+            instance.startListening(TmcEventBus.getDefault(), OpenProjects.getDefault());
+        }
+        return instance;
+    }
+
+    private static final class Location {
+        private final TmcProjectInfo project; // Null if the file is in no project
+        private final Exercise exercise;
+
+        public Location(TmcProjectInfo project, Exercise exercise) {
+            this.project = project;
+            this.exercise = exercise;
+        }
+    }
+
+    private final ProjectMediator projectMediator;
+    private final CourseDb courseDb;
+
+    // All guarded by this.
+    private int generation; // Bumped on invalidation, so that lookups racing with it aren't cached
+    private Map<Path, Exercise> exercisesByDir; // Null when it needs to be rebuilt
+    private final Map<FileObject, Location> fileCache;
+    private final Map<Path, Path> realPathCache;
+
+    /*package*/ ExerciseLocator(ProjectMediator projectMediator, CourseDb courseDb) {
+        this.projectMediator = projectMediator;
+        this.courseDb = courseDb;
+        this.generation = 0;
+        this.exercisesByDir = null;
+        this.fileCache = new LruMap<FileObject, Location>(MAX_CACHED_FILES);
+        this.realPathCache = new LruMap<Path, Path>(MAX_CACHED_FILES);
+    }
+
+    private void startListening(TmcEventBus eventBus, OpenProjects openProjects) {
+        eventBus.subscribeDependent(new TmcEventListener() {
+            public void receive(CourseDb.ChangedEvent event) {
+                invalidate();
+            }
+
+            public void receive(TmcCoreSettingsImpl.SavedEvent event) {
+                invalidate(); // The project root dir may have changed.
+            }
+        }, this);
+
+        openProjects.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (OpenProjects.PROPERTY_OPEN_PROJECTS.equals(evt.getPropertyName())) {
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets everything. The index is rebuilt on the next lookup.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        exercisesByDir = null;
+        fileCache.clear();
+        realPathCache.clear();
+    }
+
+    /**
+     * Returns the project owning the file, or null if none.
+     */
+    public TmcProjectInfo findProjectOwningFile(FileObject fo) {
+        return locate(fo).project;
+    }
+
+    /**
+     * Returns the exercise of the current course owning the file, or null if none.
+     */
+    public Exercise findExerciseForFile(FileObject fo) {
+        return locate(fo).exercise;
+    }
+
+    /**
+     * Returns the exercise of the current course associated with the project, or null if none.
+     */
+    public Exercise findExerciseForProject(TmcProjectInfo project) {
+        File dir = project.getProjectDirAsFile();
+        if (dir == null) {
+            return null;
+        }
+        return getExercisesByDir().get(realPath(dir.toPath()));
+    }
+
+    private Location locate(FileObject fo) {
+        int gen;
+        synchronized (this) {
+            Location location = fileCache.get(fo);
+            if (location != null) {
+                return location;
+            }
+            gen = generation;
+        }
+
+        TmcProjectInfo project = projectMediator.tryGetProjectOwningFile(fo);
+        Exercise exercise = (project != null) ? findExerciseForProject(project) : null;
+        Location location = new Location(project, exercise);
+
+        synchronized (this) {
+            if (generation == gen) {
+                fileCache.put(fo, location);
+            }
+        }
+        return location;
+    }
+
+    private Map<Path, Exercise> getExercisesByDir() {
+        int gen;
+        synchronized (this) {
+            if (exercisesByDir != null) {
+                return exercisesByDir;
+            }
+            gen = generation;
+        }
+
+        Map<Path, Exercise> index = new HashMap<Path, Exercise>();
+        for (Exercise ex : courseDb.getCurrentCourseExercises()) {
+            // Already a real path.
+            index.put(projectMediator.getProjectDirForExercise(ex), ex);
+        }
+
+        synchronized (this) {
+            if (generation == gen) {
+                exercisesByDir = index;
+            }
+        }
+        return index;
+    }
+
+    private Path realPath(Path path) {
+        int gen;
+        synchronized (this) {
+            Path real = realPathCache.get(path);
+            if (real != null) {
+                return real;
+            }
+            gen = generation;
+        }
+
+        Path real;
+        try {
+            real = path.toRealPath();
+        } catch (IOException ex) {
+            real = path;
+        }
+
+        synchronized (this) {
+            if (generation == gen) {
+                realPathCache.put(path, real);
+            }
+        }
+        return real;
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+
+        public LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which open exercise projects to close to stay within an open
+ * project budget.
+ *
+ * <p>
+ * A project may be closed if its exercise is completed, its deadline has
+ * passed, or it hasn't been changed in a given number of days, depending on
+ * which rules are enabled. The least recently changed projects are closed
+ * first, and only as many as needed to get down to the budget. Projects
+ * changed within the last hour are never closed.
+ */
+public class HibernationPolicy {
+
+    public static final long DAY = 24 * 60 * 60 * 1000;
+    public static final long MIN_UNTOUCHED = 60 * 60 * 1000;
+
+    public static class Candidate<P> {
+        public final P project;
+        public final Exercise exercise;
+        public final long lastTouched;
+
+        public Candidate(P project, Exercise exercise, long lastTouched) {
+            this.project = project;
+            this.exercise = exercise;
+            this.lastTouched = lastTouched;
+        }
+    }
+
+    private final boolean closeCompleted;
+    private final boolean closeExpired;
+    private final int untouchedDays;
+    private final int openProjectBudget;
+
+    /**
+     * @param untouchedDays days without changes after which any project may
+     *                      be closed, or zero to disable the rule.
+     */
+    public HibernationPolicy(boolean closeCompleted, boolean closeExpired, int untouchedDays, int openProjectBudget) {
+        this.closeCompleted = closeCompleted;
+        this.closeExpired = closeExpired;
+        this.untouchedDays = untouchedDays;
+        this.openProjectBudget = openProjectBudget;
+    }
+
+    /**
+     * Returns the projects to close.
+     *
+     * @param openProjectCount the number of all open projects, including
+     *                         ones that aren't candidates.
+     */
+    public <P> List<P> selectProjectsToClose(int openProjectCount, List<Candidate<P>> candidates, long now) {
+        List<Candidate<P>> eligible = new ArrayList<Candidate<P>>();
+        for (Candidate<P> candidate : candidates) {
+            if (isEligible(candidate, now)) {
+                eligible.add(candidate);
+            }
+        }
+        Collections.sort(eligible, new Comparator<Candidate<P>>() {
+            @Override
+            public int compare(Candidate<P> a, Candidate<P> b) {
+                return Long.compare(a.lastTouched, b.lastTouched);
+            }
+        });
+
+        List<P> result = new ArrayList<P>();
+        for (Candidate<P> candidate : eligible) {
+            if (openProjectCount - result.size() <= openProjectBudget) {
+                break;
+            }
+            result.add(candidate.project);
+        }
+        return result;
+    }
+
+    private boolean isEligible(Candidate<?> candidate, long now) {
+        long untouchedFor = now - candidate.lastTouched;
+        if (untouchedFor < MIN_UNTOUCHED) {
+            return false;
+        }
+        Exercise ex = candidate.exercise;
+        return (closeCompleted && ex.isCompleted())
+                || (closeExpired && ex.hasDeadlinePassed())
+                || (untouchedDays > 0 && untouchedFor >= untouchedDays * DAY);
+    }
+}
@@ -4,7 +4,10 @@ package fi.helsinki.cs.tmc.model;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.ObjectUtils;
 
 /**
@@ -20,10 +23,10 @@ public class LocalExerciseStatus {
     public ArrayList<Exercise> unlockable;
 
     public static LocalExerciseStatus get(List<Exercise> allExercises) {
-        return new LocalExerciseStatus(CourseDb.getInstance(), ProjectMediator.getInstance(), allExercises);
+        return new LocalExerciseStatus(CourseDb.getInstance(), ProjectMediator.getInstance(), CourseDirMonitor.getInstance(), allExercises);
     }
 
-    private LocalExerciseStatus(CourseDb courseDb, ProjectMediator projectMediator, List<Exercise> allExercises) {
+    private LocalExerciseStatus(CourseDb courseDb, ProjectMediator projectMediator, CourseDirMonitor courseDirMonitor, List<Exercise> allExercises) {
         open = new ArrayList<>();
         closed = new ArrayList<>();
         downloadableUncompleted = new ArrayList<>();
@@ -31,28 +34,35 @@ public class LocalExerciseStatus {
         updateable = new ArrayList<>();
         unlockable = new ArrayList<>();
 
+        List<Exercise> activeExercises = new ArrayList<>();
         for (Exercise ex : allExercises) {
             if (!ex.hasDeadlinePassed()) {
-                TmcProjectInfo proj = projectMediator.tryGetProjectForExercise(ex);
-                boolean isDownloaded = proj != null;
-                if (courseDb.isUnlockable(ex)) {
-                    unlockable.add(ex);
-                } else if (!isDownloaded && !ex.isLocked()) {
-                    if (ex.isCompleted()) {
-                        downloadableCompleted.add(ex);
-                    } else {
-                        downloadableUncompleted.add(ex);
-                    }
-                } else if (isDownloaded && projectMediator.isProjectOpen(proj)) {
-                    open.add(ex);
+                activeExercises.add(ex);
+            }
+        }
+        Map<Exercise, TmcProjectInfo> projects = projectMediator.tryGetProjectsForExercises(courseDirMonitor.withoutMissing(activeExercises));
+        Set<TmcProjectInfo> openProjects = new HashSet<>(projectMediator.getOpenProjects());
+
+        for (Exercise ex : activeExercises) {
+            TmcProjectInfo proj = projects.get(ex);
+            boolean isDownloaded = proj != null;
+            if (courseDb.isUnlockable(ex)) {
+                unlockable.add(ex);
+            } else if (!isDownloaded && !ex.isLocked()) {
+                if (ex.isCompleted()) {
+                    downloadableCompleted.add(ex);
                 } else {
-                    closed.add(ex); // TODO: all projects may end up here if this is queried too early
+                    downloadableUncompleted.add(ex);
                 }
+            } else if (isDownloaded && openProjects.contains(proj)) {
+                open.add(ex);
+            } else {
+                closed.add(ex); // TODO: all projects may end up here if this is queried too early
+            }
 
-                String downloadedChecksum = courseDb.getDownloadedExerciseChecksum(ex.getKey());
-                if (isDownloaded && ObjectUtils.notEqual(downloadedChecksum, ex.getChecksum())) {
-                    updateable.add(ex);
-                }
+            String downloadedChecksum = courseDb.getDownloadedExerciseChecksum(ex.getKey());
+            if (isDownloaded && ObjectUtils.notEqual(downloadedChecksum, ex.getChecksum())) {
+                updateable.add(ex);
             }
         }
     }
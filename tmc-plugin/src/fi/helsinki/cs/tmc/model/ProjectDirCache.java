@@ -0,0 +1,185 @@
+package fi.helsinki.cs.tmc.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectManager;
+import org.openide.filesystems.FileChangeAdapter;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Remembers which exercise directories exist in course directories and which
+ * projects they hold.
+ *
+ * <p>
+ * A course directory is listed once and its projects are looked up together.
+ * The listing is trusted until a directory is created, deleted or renamed in
+ * the course directory, or the course directory is explicitly forgotten.
+ * Directories without a project are looked up again every time, since a
+ * project may still be being extracted into them.
+ *
+ * <p>
+ * The disk and the project manager are only accessed without holding the
+ * lock, since file system listeners take it too. Results are kept only if
+ * the course directory wasn't forgotten in the meantime.
+ */
+/*package*/ class ProjectDirCache {
+
+    private static final Logger logger = Logger.getLogger(ProjectDirCache.class.getName());
+
+    private final ProjectManager projectManager;
+
+    // Guarded by this.
+    private final Map<File, CourseDir> courseDirs;
+
+    public ProjectDirCache(ProjectManager projectManager) {
+        this.projectManager = projectManager;
+        this.courseDirs = new HashMap<File, CourseDir>();
+    }
+
+    private final class CourseDir extends FileChangeAdapter {
+        // Guarded by ProjectDirCache.this.
+        private Set<String> children; // Null when it needs to be listed again
+        private final Map<String, Project> projects;
+        private long generation; // Incremented whenever the above are forgotten
+
+        public CourseDir() {
+            this.children = null;
+            this.projects = new HashMap<String, Project>();
+            this.generation = 0;
+        }
+
+        @Override
+        public void fileFolderCreated(FileEvent fe) {
+            forget();
+        }
+
+        @Override
+        public void fileDeleted(FileEvent fe) {
+            forget();
+        }
+
+        @Override
+        public void fileRenamed(FileRenameEvent fe) {
+            forget();
+        }
+
+        private void forget() {
+            synchronized (ProjectDirCache.this) {
+                children = null;
+                projects.clear();
+                generation++;
+            }
+        }
+    }
+
+    /**
+     * Forgets what is known about the course directory.
+     */
+    public synchronized void forget(File courseDir) {
+        CourseDir cd = courseDirs.get(courseDir);
+        if (cd != null) {
+            cd.forget();
+        }
+    }
+
+    /**
+     * Returns the projects in the given subdirectories of a course directory,
+     * keyed by subdirectory name. Subdirectories without a project are left out.
+     */
+    public Map<String, Project> findProjects(File courseDir, Collection<String> dirNames) {
+        CourseDir cd;
+        boolean created = false;
+        synchronized (this) {
+            cd = courseDirs.get(courseDir);
+            if (cd == null) {
+                cd = new CourseDir();
+                courseDirs.put(courseDir, cd);
+                created = true;
+            }
+        }
+        if (created) {
+            FileUtil.addFileChangeListener(cd, courseDir);
+            cd.forget(); // In case something was listed before we started listening.
+        }
+
+        long generation;
+        Set<String> children;
+        Map<String, Project> cachedProjects = new HashMap<String, Project>();
+        synchronized (this) {
+            generation = cd.generation;
+            children = cd.children;
+            for (String name : dirNames) {
+                Project project = cd.projects.get(name);
+                if (project != null) {
+                    cachedProjects.put(name, project);
+                }
+            }
+        }
+
+        boolean listed = false;
+        if (children == null) {
+            String[] names = courseDir.list();
+            children = (names != null) ? new HashSet<String>(Arrays.asList(names)) : new HashSet<String>();
+            listed = true;
+        }
+
+        Map<String, Project> result = new HashMap<String, Project>();
+        Set<String> invalid = new HashSet<String>();
+        boolean nonProjectCacheCleared = false;
+        for (String name : dirNames) {
+            if (!children.contains(name)) {
+                continue;
+            }
+
+            Project project = cachedProjects.get(name);
+            if (project != null) {
+                if (project.getProjectDirectory().isValid()) {
+                    result.put(name, project);
+                    continue;
+                }
+                invalid.add(name);
+            }
+
+            FileObject fo = FileUtil.toFileObject(new File(courseDir, name));
+            if (fo == null) {
+                continue;
+            }
+            if (!nonProjectCacheCleared) {
+                projectManager.clearNonProjectCache(); // The project may have just been extracted.
+                nonProjectCacheCleared = true;
+            }
+            try {
+                project = projectManager.findProject(fo);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Finding project in " + fo.getPath() + " failed", ex);
+                continue;
+            }
+            if (project != null) {
+                result.put(name, project);
+            }
+        }
+
+        synchronized (this) {
+            if (cd.generation == generation) {
+                if (listed) {
+                    cd.children = children;
+                }
+                cd.projects.keySet().removeAll(invalid);
+                cd.projects.putAll(result);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,301 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Closes exercise projects chosen by a {@link HibernationPolicy} and
+ * remembers them so they can be reopened in one go.
+ *
+ * <p>
+ * A project counts as touched when its files last changed or when it was
+ * opened during this session, whichever is later. Projects restored at
+ * startup don't count as opened. Projects the user reopens are left alone
+ * for the rest of the session.
+ */
+public class ProjectHibernator {
+
+    private static final Logger log = Logger.getLogger(ProjectHibernator.class.getName());
+
+    private static final String RECORD_FILE_NAME = "HibernatedProjects.txt";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Set<String> UNINTERESTING_DIRS = new HashSet<String>(Arrays.asList(
+            "build", "dist", "target", "nbproject", ".git"));
+
+    private static ProjectHibernator instance;
+
+    public static synchronized ProjectHibernator getInstance() {
+        if (instance == null) {
+            TmcCoreSettingsImpl settings = (TmcCoreSettingsImpl) TmcSettingsHolder.get();
+            instance = new ProjectHibernator(
+                    ProjectMediator.getInstance(),
+                    CourseDb.getInstance(),
+                    settings,
+                    settings.getConfigRoot().resolve(RECORD_FILE_NAME));
+            final ProjectHibernator hibernator = instance;
+            hibernator.projects.callWhenProjectsCompletelyOpened(new Runnable() {
+                @Override
+                public void run() {
+                    hibernator.noteOpenProjects(System.currentTimeMillis());
+                }
+            });
+        }
+        return instance;
+    }
+
+    private final ProjectMediator projects;
+    private final CourseDb courseDb;
+    private final TmcCoreSettingsImpl settings;
+    private final Path recordFile;
+
+    private final Set<String> hibernated; // Exercise keys
+    private final Set<String> reopened; // Not hibernated again this session
+    private final Map<String, Long> openedAt; // When projects were opened this session
+    private Set<String> seenOpen; // Null until the projects open at startup are known
+
+    /*package*/ ProjectHibernator(ProjectMediator projects, CourseDb courseDb, TmcCoreSettingsImpl settings, Path recordFile) {
+        this.projects = projects;
+        this.courseDb = courseDb;
+        this.settings = settings;
+        this.recordFile = recordFile;
+        this.hibernated = new LinkedHashSet<String>(readRecord());
+        this.reopened = new HashSet<String>();
+        this.openedAt = new HashMap<String, Long>();
+        this.seenOpen = null;
+    }
+
+    public boolean isEnabled() {
+        return settings.isHibernatingProjects();
+    }
+
+    private HibernationPolicy getPolicy() {
+        return new HibernationPolicy(
+                settings.isHibernatingCompletedProjects(),
+                settings.isHibernatingExpiredProjects(),
+                settings.getHibernateUntouchedDays(),
+                settings.getOpenProjectBudget());
+    }
+
+    /**
+     * Closes projects if there are more open than the budget allows.
+     *
+     * @return the projects closed.
+     */
+    public synchronized List<TmcProjectInfo> hibernateNow() {
+        List<TmcProjectInfo> closed = new ArrayList<TmcProjectInfo>();
+        if (!isEnabled()) {
+            return closed;
+        }
+
+        long now = System.currentTimeMillis();
+        Collection<TmcProjectInfo> open = projects.getOpenProjects();
+        Map<TmcProjectInfo, Exercise> exercises = openExercises(open);
+        forgetReopened(exercises.values());
+        noteOpened(exercises.values(), now);
+
+        List<HibernationPolicy.Candidate<TmcProjectInfo>> candidates = new ArrayList<HibernationPolicy.Candidate<TmcProjectInfo>>();
+        for (Map.Entry<TmcProjectInfo, Exercise> entry : exercises.entrySet()) {
+            TmcProjectInfo project = entry.getKey();
+            if (reopened.contains(keyOf(entry.getValue())) || projects.hasUnsavedFiles(project)) {
+                continue;
+            }
+            long lastTouched = lastModified(project.getProjectDirAsFile().toPath());
+            Long opened = openedAt.get(keyOf(entry.getValue()));
+            if (opened != null) {
+                lastTouched = Math.max(lastTouched, opened);
+            }
+            candidates.add(new HibernationPolicy.Candidate<TmcProjectInfo>(project, entry.getValue(), lastTouched));
+        }
+
+        closed.addAll(getPolicy().selectProjectsToClose(open.size(), candidates, now));
+        if (closed.isEmpty()) {
+            return closed;
+        }
+
+        log.log(Level.INFO, "Hibernating {0} projects", closed.size());
+        projects.closeProjects(closed);
+        for (TmcProjectInfo project : closed) {
+            hibernated.add(keyOf(exercises.get(project)));
+        }
+        writeRecord();
+        return closed;
+    }
+
+    /**
+     * Returns the exercises of the current course whose projects were
+     * hibernated and haven't been reopened.
+     */
+    public synchronized List<Exercise> getHibernatedExercises() {
+        List<Exercise> result = new ArrayList<Exercise>();
+        for (Exercise ex : courseDb.getCurrentCourseExercises()) {
+            if (hibernated.contains(keyOf(ex))) {
+                result.add(ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reopens the hibernated projects of the current course.
+     */
+    public synchronized void reopenAll() {
+        List<Exercise> exercises = getHibernatedExercises();
+        Map<Exercise, TmcProjectInfo> found = projects.tryGetProjectsForExercises(exercises);
+        List<TmcProjectInfo> toOpen = new ArrayList<TmcProjectInfo>();
+        for (Exercise ex : exercises) {
+            String key = keyOf(ex);
+            hibernated.remove(key);
+            reopened.add(key);
+            TmcProjectInfo project = found.get(ex);
+            if (project != null && !projects.isProjectOpen(project)) {
+                toOpen.add(project);
+            }
+        }
+        writeRecord();
+        if (!toOpen.isEmpty()) {
+            projects.openProjects(toOpen);
+        }
+    }
+
+    private Map<TmcProjectInfo, Exercise> openExercises(Collection<TmcProjectInfo> open) {
+        Set<TmcProjectInfo> openSet = new HashSet<TmcProjectInfo>(open);
+        Map<TmcProjectInfo, Exercise> result = new HashMap<TmcProjectInfo, Exercise>();
+        Map<Exercise, TmcProjectInfo> found = projects.tryGetProjectsForExercises(courseDb.getCurrentCourseExercises());
+        for (Map.Entry<Exercise, TmcProjectInfo> entry : found.entrySet()) {
+            if (openSet.contains(entry.getValue())) {
+                result.put(entry.getValue(), entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hibernated projects that are open again were reopened by the user.
+     */
+    private void forgetReopened(Collection<Exercise> openExercises) {
+        boolean changed = false;
+        for (Exercise ex : openExercises) {
+            String key = keyOf(ex);
+            if (hibernated.remove(key)) {
+                reopened.add(key);
+                changed = true;
+            }
+        }
+        if (changed) {
+            writeRecord();
+        }
+    }
+
+    /**
+     * Records the projects open now without counting them as just opened.
+     * Called once the projects restored at startup are open.
+     */
+    /*package*/ synchronized void noteOpenProjects(long now) {
+        if (seenOpen == null) {
+            noteOpened(openExercises(projects.getOpenProjects()).values(), now);
+        }
+    }
+
+    /**
+     * Remembers when projects not open at the previous check were opened.
+     */
+    private void noteOpened(Collection<Exercise> openExercises, long now) {
+        Set<String> keys = new HashSet<String>();
+        for (Exercise ex : openExercises) {
+            keys.add(keyOf(ex));
+        }
+        if (seenOpen != null) {
+            for (String key : keys) {
+                if (!seenOpen.contains(key)) {
+                    openedAt.put(key, now);
+                }
+            }
+        }
+        seenOpen = keys;
+    }
+
+    private static String keyOf(Exercise ex) {
+        return ex.getCourseName() + "\t" + ex.getName();
+    }
+
+    /**
+     * Returns the last modification time of the project's own files,
+     * ignoring build output and IDE metadata.
+     */
+    private static long lastModified(Path projectDir) {
+        final long[] latest = { 0 };
+        try {
+            Files.walkFileTree(projectDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(projectDir) && UNINTERESTING_DIRS.contains(dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    latest[0] = Math.max(latest[0], attrs.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Failed to scan " + projectDir, ex);
+            return System.currentTimeMillis(); // Treat as recently touched.
+        }
+        return latest[0];
+    }
+
+    private List<String> readRecord() {
+        if (!Files.isRegularFile(recordFile)) {
+            return new ArrayList<String>();
+        }
+        try {
+            List<String> result = new ArrayList<String>();
+            for (String line : Files.readAllLines(recordFile, UTF8)) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+            return result;
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to read " + recordFile, ex);
+            return new ArrayList<String>();
+        }
+    }
+
+    private void writeRecord() {
+        try {
+            Files.createDirectories(recordFile.getParent());
+            Files.write(recordFile, hibernated, UTF8);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to write " + recordFile, ex);
+        }
+    }
+}
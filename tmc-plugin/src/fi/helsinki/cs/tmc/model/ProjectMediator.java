@@ -3,7 +3,9 @@ package fi.helsinki.cs.tmc.model;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 import fi.helsinki.cs.tmc.utilities.ExceptionUtils;
+import fi.helsinki.cs.tmc.utilities.HardLinkDeduplicator;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,8 +14,15 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.SwingUtilities;
@@ -25,6 +34,7 @@ import org.openide.LifecycleManager;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileSystem;
 import org.openide.filesystems.FileUtil;
+import org.openide.loaders.DataObject;
 
 /**
  * The sole interface to query and update the NetBeans project list from TMC.
@@ -35,6 +45,8 @@ public class ProjectMediator {
     
     private static final Logger logger = Logger.getLogger(ProjectMediator.class.getName());
     
+    private static final String SHARED_JARS_DIR_NAME = ".tmc-shared-jars";
+
     private static ProjectMediator instance;
 
     public static ProjectMediator getInstance() {
@@ -46,10 +58,39 @@ public class ProjectMediator {
     
     private OpenProjects openProjects;
     private ProjectManager projectManager;
+    private ProjectDirCache projectDirCache;
+    private StagedProjectOpener<Project> stagedOpener;
     
     public ProjectMediator() {
         this.openProjects = OpenProjects.getDefault();
         this.projectManager = ProjectManager.getDefault();
+        this.projectDirCache = new ProjectDirCache(projectManager);
+        this.stagedOpener = createStagedOpener();
+    }
+
+    private StagedProjectOpener<Project> createStagedOpener() {
+        StagedProjectOpener.Opener<Project> opener = new StagedProjectOpener.Opener<Project>() {
+            @Override
+            public void open(List<Project> projects) throws Exception {
+                openProjects.open(projects.toArray(new Project[projects.size()]), true, true);
+                openProjects.openProjects().get();
+            }
+        };
+        StagedProjectOpener.IdleClock idleClock = new StagedProjectOpener.IdleClock() {
+            @Override
+            public long millisSinceUserActivity() {
+                return BackgroundScheduler.getDefault().getMillisSinceUserActivity();
+            }
+        };
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Project opener");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        return new StagedProjectOpener<Project>(opener, idleClock, executor);
     }
     
     public TmcProjectInfo wrapProject(Project p) {
@@ -96,6 +137,14 @@ public class ProjectMediator {
         }
     }
     
+    /**
+     * Returns the deduplicator that links identical jars of the projects
+     * under the project root directory.
+     */
+    public HardLinkDeduplicator getJarDeduplicator() {
+        return HardLinkDeduplicator.forStore(Paths.get(getProjectRootDir(), SHARED_JARS_DIR_NAME));
+    }
+
     /**
      * Saves all unsaved files.
      */
@@ -120,10 +169,21 @@ public class ProjectMediator {
         Path path = Paths.get(
                 getProjectRootDir(),
                 ex.getCourseName(),
-                ex.getName().replaceAll("/", "-"));
+                projectDirNameForExercise(ex));
         return tryGetRealPath(path);
     }
+
+    /*package*/ static String projectDirNameForExercise(Exercise ex) {
+        return ex.getName().replaceAll("/", "-");
+    }
     
+    /**
+     * Makes the next project lookups in the course directory look at the disk again.
+     */
+    /*package*/ void forgetCourseDirContents(File courseDir) {
+        projectDirCache.forget(courseDir);
+    }
+
     /**
      * Returns the exercise associated with the given project, or null if none.
      */
@@ -164,48 +224,92 @@ public class ProjectMediator {
      * The exercise must have a course name set.
      */
     public TmcProjectInfo tryGetProjectForExercise(Exercise exercise) {
-        projectManager.clearNonProjectCache(); // Just to be sure.
-        
-        File path = getProjectDirForExercise(exercise).toFile();
-        FileObject fo = FileUtil.toFileObject(path);
-        if (fo != null) {
-            try {
-                Project project = projectManager.findProject(fo);
+        return tryGetProjectsForExercises(Collections.singletonList(exercise)).get(exercise);
+    }
+
+    /**
+     * Returns the projects of those of the given exercises that have been created.
+     *
+     * <p>
+     * Each course directory is scanned once, so this is much faster than
+     * calling {@link #tryGetProjectForExercise(Exercise)} for each exercise.
+     * The exercises must have a course name set.
+     */
+    public Map<Exercise, TmcProjectInfo> tryGetProjectsForExercises(Collection<Exercise> exercises) {
+        Map<String, List<Exercise>> byCourse = new HashMap<String, List<Exercise>>();
+        for (Exercise ex : exercises) {
+            List<Exercise> list = byCourse.get(ex.getCourseName());
+            if (list == null) {
+                list = new ArrayList<Exercise>();
+                byCourse.put(ex.getCourseName(), list);
+            }
+            list.add(ex);
+        }
+
+        Map<Exercise, TmcProjectInfo> result = new HashMap<Exercise, TmcProjectInfo>();
+        for (Map.Entry<String, List<Exercise>> entry : byCourse.entrySet()) {
+            File courseDir = tryGetRealPath(getCourseRootDir(entry.getKey()).toPath()).toFile();
+            List<String> dirNames = new ArrayList<String>();
+            for (Exercise ex : entry.getValue()) {
+                dirNames.add(projectDirNameForExercise(ex));
+            }
+
+            Map<String, Project> projects = projectDirCache.findProjects(courseDir, dirNames);
+            for (Exercise ex : entry.getValue()) {
+                Project project = projects.get(projectDirNameForExercise(ex));
                 if (project != null) {
-                    return wrapProject(project);
-                } else {
-                    return null;
+                    result.put(ex, wrapProject(project));
                 }
-            } catch (IOException ioe) {
-                logger.log(
-                        Level.WARNING,
-                        "Finding project for exercise {0} failed",
-                        new Object[] { exercise.toString(), ioe }
-                        );
-                return null;
             }
-        } else {
-            return null;
         }
+        return result;
     }
     
     public void openProject(TmcProjectInfo project) {
         openProjects.open(new Project[] { project.getProject() }, true, true);
     }
     
+    /**
+     * Opens projects the user asked for, a few at a time.
+     *
+     * <p>
+     * Unfinished exercises are opened first, nearest deadline first, then
+     * completed and expired ones.
+     */
     public void openProjects(Collection<TmcProjectInfo> projects) {
+        stagedOpener.open(withExercises(projects), false);
+    }
+
+    /**
+     * Like {@link #openProjects(Collection)}, but completed and expired
+     * exercises wait until the user is idle. For bulk opens the user didn't
+     * directly ask for.
+     */
+    public void openProjectsInBackground(Collection<TmcProjectInfo> projects) {
+        stagedOpener.open(withExercises(projects), true);
+    }
+
+    private Map<Project, Exercise> withExercises(Collection<TmcProjectInfo> projects) {
+        Map<Path, Exercise> exercisesByDir = new HashMap<Path, Exercise>();
+        for (Exercise ex : CourseDb.getInstance().getCurrentCourseExercises()) {
+            exercisesByDir.put(getProjectDirForExercise(ex), ex);
+        }
+
+        Map<Project, Exercise> result = new LinkedHashMap<Project, Exercise>();
+        for (TmcProjectInfo projectInfo : projects) {
+            Path projectDir = tryGetRealPath(FileUtil.toFile(projectInfo.getProjectDir()).toPath());
+            result.put(projectInfo.getProject(), exercisesByDir.get(projectDir));
+        }
+        return result;
+    }
+    
+    public void closeProjects(Collection<TmcProjectInfo> projects) {
         final Project[] nbProjects = new Project[projects.size()];
         int i = 0;
         for (TmcProjectInfo projectInfo : projects) {
             nbProjects[i++] = projectInfo.getProject();
         }
-        
-        new Thread("Project opener") {
-            @Override
-            public void run() {
-                openProjects.open(nbProjects, true, true);
-            }
-        }.start();
+        openProjects.close(nbProjects);
     }
     
     public Collection<TmcProjectInfo> getOpenProjects() {
@@ -236,6 +340,19 @@ public class ProjectMediator {
         return openProjects.isProjectOpen(project.getProject());
     }
 
+    /**
+     * Tells whether any file in the project is modified and not yet saved.
+     */
+    public boolean hasUnsavedFiles(TmcProjectInfo project) {
+        FileObject projectDir = project.getProjectDir();
+        for (DataObject dataObject : DataObject.getRegistry().getModifiedSet()) {
+            if (FileUtil.isParentOf(projectDir, dataObject.getPrimaryFile())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Refreshes NB's file cache like "Source -> Scan for External Changes".
      */
@@ -6,12 +6,12 @@ import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
 import fi.helsinki.cs.tmc.core.events.TmcEvent;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
 import fi.helsinki.cs.tmc.core.events.TmcEventListener;
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler;
 
 import com.google.common.base.Optional;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.cometd.bayeux.Channel;
@@ -51,6 +51,7 @@ public class PushEventListener {
     private TmcCoreSettingsImpl settings;
     private CourseDb courseDb;
     private TmcEventBus eventBus;
+    private BackgroundScheduler scheduler;
     private BayeuxClient client;
     private boolean shouldReconnect;
 
@@ -58,6 +59,7 @@ public class PushEventListener {
         this.settings = (TmcCoreSettingsImpl)TmcSettingsHolder.get();
         this.courseDb = CourseDb.getInstance();
         this.eventBus = TmcEventBus.getDefault();
+        this.scheduler = BackgroundScheduler.getDefault();
         this.shouldReconnect = false;
         
         this.eventBus.subscribeDependent(new TmcEventListener() {
@@ -65,18 +67,18 @@ public class PushEventListener {
                 reconnectSoon();
             }
             
-            public void receive(CourseDb.ChangedEvent e) {
-                reconnectSoon();
+            public void receive(CourseDb.CurrentCourseChangedEvent e) {
+                reconnectSoon(); // The comet URL is per course.
             }
         }, this);
         
-        java.util.Timer timer = new java.util.Timer("PushEventListener reconnect", true);
-        timer.schedule(new TimerTask() {
+        scheduler.schedulePeriodically("Comet connection check", 0, CONNECTION_CHECK_INTERVAL, false, new BackgroundScheduler.Job() {
             @Override
-            public void run() {
+            public void run(BackgroundScheduler.Outcome outcome) {
                 ensureConnected();
+                outcome.succeeded();
             }
-        }, 0, CONNECTION_CHECK_INTERVAL);
+        });
     }
     
     private synchronized void ensureConnected() {
@@ -86,14 +88,12 @@ public class PushEventListener {
     }
 
     private void reconnectSoon() {
-        Thread t = new Thread() {
+        scheduler.runSoon("Comet reconnect", new Runnable() {
             @Override
             public void run() {
                 reconnect();
             }
-        };
-        t.setDaemon(true);
-        t.start();
+        });
     }
     
     private synchronized void reconnect() {
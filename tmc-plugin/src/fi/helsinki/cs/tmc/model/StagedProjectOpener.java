@@ -0,0 +1,200 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens projects a few at a time so that NetBeans isn't scanning all of
+ * them at once.
+ *
+ * <p>
+ * Projects of exercises still to be done are opened first, nearest
+ * deadline first. Projects of completed or expired exercises come after
+ * them. In background opens they wait until the user has been idle for a
+ * while.
+ */
+/*package*/ class StagedProjectOpener<P> {
+
+    private static final Logger log = Logger.getLogger(StagedProjectOpener.class.getName());
+
+    public static final int BATCH_SIZE = 5;
+    public static final long BATCH_DELAY = 2000;
+    public static final long IDLE_BEFORE_DEFERRED = 60 * 1000;
+    public static final long IDLE_POLL_INTERVAL = 15 * 1000;
+
+    public interface Opener<P> {
+        /**
+         * Opens the projects and returns once they are open.
+         */
+        void open(List<P> projects) throws Exception;
+    }
+
+    public interface IdleClock {
+        long millisSinceUserActivity();
+    }
+
+    private static final class Item<P> {
+        private final P project;
+        private final boolean finished;
+        private final Date deadline; // Null if none
+
+        public Item(P project, boolean finished, Date deadline) {
+            this.project = project;
+            this.finished = finished;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final Comparator<Item<?>> NEAREST_DEADLINE_FIRST = new Comparator<Item<?>>() {
+        @Override
+        public int compare(Item<?> a, Item<?> b) {
+            if (a.finished != b.finished) {
+                return a.finished ? 1 : -1;
+            }
+            if (a.deadline == null) {
+                return (b.deadline == null) ? 0 : 1;
+            } else if (b.deadline == null) {
+                return -1;
+            }
+            return a.deadline.compareTo(b.deadline);
+        }
+    };
+
+    private final Opener<P> opener;
+    private final IdleClock idleClock;
+    private final ScheduledExecutorService executor;
+    private long batchDelay = BATCH_DELAY;
+    private long idlePollInterval = IDLE_POLL_INTERVAL;
+
+    // Guarded by this.
+    private final List<Item<P>> urgent;
+    private final LinkedList<P> deferred;
+    private final Set<P> queued;
+    private boolean busy; // A step is scheduled or running
+    private ScheduledFuture<?> idleWait; // Set while waiting for the user to go idle
+
+    public StagedProjectOpener(Opener<P> opener, IdleClock idleClock, ScheduledExecutorService executor) {
+        this.opener = opener;
+        this.idleClock = idleClock;
+        this.executor = executor;
+        this.urgent = new ArrayList<Item<P>>();
+        this.deferred = new LinkedList<P>();
+        this.queued = new HashSet<P>();
+    }
+
+    /*package*/ void setDelays(long batchDelay, long idlePollInterval) {
+        this.batchDelay = batchDelay;
+        this.idlePollInterval = idlePollInterval;
+    }
+
+    /**
+     * Queues projects for opening.
+     *
+     * @param projects projects and their exercises. The exercise may be null
+     *                 if unknown, in which case the project is opened early.
+     * @param deferFinished whether projects of completed and expired
+     *                      exercises wait until the user is idle. Should be
+     *                      false when the user asked for the projects.
+     */
+    public synchronized void open(Map<P, Exercise> projects, boolean deferFinished) {
+        for (Map.Entry<P, Exercise> entry : projects.entrySet()) {
+            P project = entry.getKey();
+            Exercise ex = entry.getValue();
+            boolean finished = ex != null && (ex.isCompleted() || ex.hasDeadlinePassed());
+            if (!queued.add(project)) {
+                // Already waiting. Stop deferring it if the user wants it now.
+                if (deferFinished || !deferred.remove(project)) {
+                    continue;
+                }
+            }
+            if (finished && deferFinished) {
+                deferred.add(project);
+            } else {
+                urgent.add(new Item<P>(project, finished, (ex != null) ? ex.getDeadlineDate() : null));
+            }
+        }
+        Collections.sort(urgent, NEAREST_DEADLINE_FIRST);
+        if (!busy && !queued.isEmpty()) {
+            scheduleStep(0);
+        } else if (idleWait != null && !urgent.isEmpty() && idleWait.cancel(false)) {
+            idleWait = null;
+            scheduleStep(0);
+        }
+    }
+
+    /**
+     * Returns the number of projects not opened yet.
+     */
+    public synchronized int getPendingCount() {
+        return queued.size();
+    }
+
+    private ScheduledFuture<?> scheduleStep(long delay) {
+        try {
+            ScheduledFuture<?> future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    step();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            busy = true;
+            return future;
+        } catch (RejectedExecutionException ex) {
+            busy = false;
+            return null;
+        }
+    }
+
+    private void step() {
+        List<P> batch = new ArrayList<P>();
+        synchronized (this) {
+            idleWait = null;
+            if (!urgent.isEmpty()) {
+                while (!urgent.isEmpty() && batch.size() < BATCH_SIZE) {
+                    batch.add(urgent.remove(0).project);
+                }
+            } else if (!deferred.isEmpty()) {
+                if (idleClock.millisSinceUserActivity() < IDLE_BEFORE_DEFERRED) {
+                    idleWait = scheduleStep(idlePollInterval);
+                    return;
+                }
+                while (!deferred.isEmpty() && batch.size() < BATCH_SIZE) {
+                    batch.add(deferred.removeFirst());
+                }
+            } else {
+                busy = false;
+                return;
+            }
+        }
+
+        try {
+            opener.open(batch);
+        } catch (Exception ex) {
+            log.log(Level.WARNING, "Failed to open projects", ex);
+        }
+
+        synchronized (this) {
+            queued.removeAll(batch);
+            if (!queued.isEmpty()) {
+                scheduleStep(batchDelay);
+            } else {
+                busy = false;
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package fi.helsinki.cs.tmc.model;
 
+import fi.helsinki.cs.tmc.utilities.PathGlobSet;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -10,6 +11,7 @@ import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -18,32 +20,91 @@ import org.yaml.snakeyaml.Yaml;
 
 /**
  * Represents the contents of a {@code .tmcproject.yml} file.
+ *
+ * <p>
+ * Instances are immutable, so the cached ones can be shared freely.
  */
 public class TmcProjectFile {
     private static final Logger log = Logger.getLogger(TmcProjectFile.class.getName());
+
+    private static final int MAX_CACHED_FILES = 256;
     
-    private List<String> extraStudentFiles;
+    private static class CacheEntry {
+        private final long lastModified;
+        private final long size;
+        private final TmcProjectFile projectFile;
+
+        private CacheEntry(long lastModified, long size, TmcProjectFile projectFile) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.projectFile = projectFile;
+        }
+    }
+
+    // Keyed by the path of the .tmcproject.yml. Reparsed when its mtime or size changes.
+    // The least recently used projects are forgotten.
+    private static final Map<String, CacheEntry> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > MAX_CACHED_FILES;
+                }
+            });
+
+    private final List<String> extraStudentFiles;
+    private final PathGlobSet extraStudentFileGlobs;
     
     private TmcProjectFile() {
         this.extraStudentFiles = Collections.emptyList();
+        this.extraStudentFileGlobs = PathGlobSet.empty();
+    }
+
+    private TmcProjectFile(List<String> extraStudentFiles) {
+        this.extraStudentFiles = Collections.unmodifiableList(new ArrayList<String>(extraStudentFiles));
+        this.extraStudentFileGlobs = new PathGlobSet(this.extraStudentFiles);
     }
     
     public List<String> getExtraStudentFiles() {
         return extraStudentFiles;
     }
-    
-    public void setExtraStudentFiles(List<String> extraStudentFiles) {
-        this.extraStudentFiles = Collections.unmodifiableList(extraStudentFiles);
+
+    /**
+     * The extra student files compiled into globs.
+     * Paths are relative to the project directory and may contain {@code *}, {@code ?} and {@code **}.
+     */
+    public PathGlobSet getExtraStudentFileGlobs() {
+        return extraStudentFileGlobs;
     }
     
     
+    /**
+     * Returns the project file of the given project, or the default if there is none.
+     *
+     * <p>
+     * The parsed file is cached until the file's modification time or size changes.
+     */
     public static TmcProjectFile forProject(File projectDir) {
+        File file = new File(projectDir.getPath() + File.separator + ".tmcproject.yml");
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            cache.remove(file.getPath());
+            return getDefault();
+        }
+        long size = file.length();
+
+        CacheEntry cached = cache.get(file.getPath());
+        if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+            return cached.projectFile;
+        }
+
+        TmcProjectFile result;
         try {
-            File file = new File(projectDir.getPath() + File.separator + ".tmcproject.yml");
-            return load(file);
+            result = load(file);
         } catch (Exception e) {
-            return getDefault();
+            result = getDefault();
         }
+        cache.put(file.getPath(), new CacheEntry(lastModified, size, result));
+        return result;
     }
     
     public static TmcProjectFile load(File file) throws IOException {
@@ -54,9 +115,7 @@ public class TmcProjectFile {
             Reader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(file)), Charset.forName("UTF-8"));
             try {
                 Object root = new Yaml().load(reader);
-                TmcProjectFile result = new TmcProjectFile();
-                assignParsed(root, result);
-                return result;
+                return parse(root);
             } finally {
                 reader.close();
             }
@@ -66,13 +125,13 @@ public class TmcProjectFile {
         }
     }
     
-        private static TmcProjectFile getDefault() {
+    private static TmcProjectFile getDefault() {
         return new TmcProjectFile();
     }
     
-    private static void assignParsed(Object root, TmcProjectFile result) {
+    private static TmcProjectFile parse(Object root) {
         if (!(root instanceof Map)) {
-            return;
+            return getDefault();
         }
         Map<?, ?> rootMap = (Map<?, ?>)root;
         Object files = rootMap.get("extra_student_files");
@@ -83,7 +142,8 @@ public class TmcProjectFile {
                     extraStudentFiles.add((String)value);
                 }
             }
-            result.setExtraStudentFiles(extraStudentFiles);
+            return new TmcProjectFile(extraStudentFiles);
         }
+        return getDefault();
     }
 }
@@ -1,7 +1,10 @@
 package fi.helsinki.cs.tmc.model;
 
+import fi.helsinki.cs.tmc.utilities.PathGlobSet;
 import fi.helsinki.cs.tmc.utilities.zip.RecursiveZipper;
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.regex.Pattern;
 import org.netbeans.api.project.Project;
 import org.netbeans.api.project.ProjectUtils;
@@ -81,11 +84,19 @@ public class TmcProjectInfo {
     private abstract static class AbstractZippingDecider implements RecursiveZipper.ZippingDecider {
 
         protected TmcProjectInfo projectInfo;
+        private PathGlobSet extraStudentFiles; // Loaded once per decider, i.e. once per zip run
 
         public AbstractZippingDecider(TmcProjectInfo projectInfo) {
             this.projectInfo = projectInfo;
         }
 
+        private PathGlobSet getExtraStudentFiles() {
+            if (extraStudentFiles == null) {
+                extraStudentFiles = projectInfo.getTmcProjectFile().getExtraStudentFileGlobs();
+            }
+            return extraStudentFiles;
+        }
+
         protected String withoutRootDir(String zipPath) {
             int i = zipPath.indexOf('/');
             if (i != -1) {
@@ -96,8 +107,11 @@ public class TmcProjectInfo {
         }
 
         protected boolean isExplicitlyStudentFile(String zipPath) {
-            // TODO: make glob patterns like 'foo/bar/*/baz/**/xoox.*' possible
-            return projectInfo.getTmcProjectFile().getExtraStudentFiles().contains(withoutRootDir(zipPath));
+            return getExtraStudentFiles().matches(withoutRootDir(zipPath));
+        }
+
+        protected boolean mayContainExplicitlyStudentFiles(String dirZipPath) {
+            return getExtraStudentFiles().mayMatchBelow(withoutRootDir(dirZipPath));
         }
 
         protected boolean hasNoSubmitFile(File dir) {
@@ -108,19 +122,43 @@ public class TmcProjectInfo {
 
         @Override
         public boolean shouldZip(String zipPath) {
-            File file = new File(projectInfo.getProjectDirAsFile().getParentFile(), zipPath);
+            File file = fileOf(zipPath);
+            return shouldZip(zipPath, file.isDirectory(), file);
+        }
+
+        @Override
+        public boolean shouldZip(String zipPath, Path file, BasicFileAttributes attrs) {
+            return shouldZip(zipPath, attrs.isDirectory(), file.toFile());
+        }
+
+        private boolean shouldZip(String zipPath, boolean isDirectory, File file) {
             if (isExplicitlyStudentFile(zipPath)) {
                 return true;
             }
-
-            if (file.isDirectory()) {
-                if (hasNoSubmitFile(file)) {
-                    return false;
-                }
+            if (isDirectory && hasNoSubmitFile(file)) {
+                return false;
             }
-
             return isProbablySourceFile(zipPath);
         }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath) {
+            return shouldLookInside(dirZipPath, fileOf(dirZipPath));
+        }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath, Path dir, BasicFileAttributes attrs) {
+            return shouldLookInside(dirZipPath, dir.toFile());
+        }
+
+        // Otherwise we'd never get to see the extra student files in e.g. test/
+        private boolean shouldLookInside(String dirZipPath, File dir) {
+            return !hasNoSubmitFile(dir) && mayContainExplicitlyStudentFiles(dirZipPath);
+        }
+
+        private File fileOf(String zipPath) {
+            return new File(projectInfo.getProjectDirAsFile().getParentFile(), zipPath);
+        }
     }
 
     private static class DefaultZippingDecider extends AbstractZippingDecider {
@@ -4,7 +4,7 @@ import fi.helsinki.cs.tmc.core.domain.Exercise;
 
 import com.google.gson.Gson;
 
-import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.model.ProjectMediator;
 import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
@@ -20,19 +20,19 @@ public class ProjectActionEventSource implements ProjectActionCaptor.Listener {
     private static final Logger log = Logger.getLogger(ProjectActionEventSource.class.getName());
 
     private final ProjectMediator projects;
-    private final CourseDb courseDb;
+    private final ExerciseLocator exerciseLocator;
     private EventReceiver receiver;
 
     public ProjectActionEventSource(EventReceiver receiver) {
         this.projects = ProjectMediator.getInstance();
-        this.courseDb = CourseDb.getInstance();
+        this.exerciseLocator = ExerciseLocator.getInstance();
         this.receiver = receiver;
     }
 
     @Override
     public void actionInvoked(Project project, String command) {
         TmcProjectInfo projectInfo = projects.wrapProject(project);
-        Exercise ex = projects.tryGetExerciseForProject(projectInfo, courseDb);
+        Exercise ex = exerciseLocator.findExerciseForProject(projectInfo);
         if (ex != null) {
             Object data = Collections.singletonMap("command", command);
             String jsonData = new Gson().toJson(data);
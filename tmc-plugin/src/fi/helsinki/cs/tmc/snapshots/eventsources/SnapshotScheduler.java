@@ -0,0 +1,219 @@
+package fi.helsinki.cs.tmc.snapshots.eventsources;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.model.TmcProjectInfo;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Runs source snapshots on a bounded pool of worker threads.
+ *
+ * <p>
+ * There is at most one pending snapshot per project. Events that arrive while
+ * a snapshot is still waiting for its debounce window to pass are absorbed
+ * into it, so a burst of file changes (e.g. a build touching hundreds of files)
+ * costs one zip instead of one per file.
+ */
+public class SnapshotScheduler {
+
+    public interface SnapshotTask {
+        /**
+         * Takes the snapshot. Called in a worker thread.
+         *
+         * @param metadata the metadata of the latest absorbed event, with
+         * the number of coalesced events and the files changed by all of
+         * them added.
+         */
+        void run(Exercise exercise, TmcProjectInfo projectInfo, JsonMaker metadata);
+    }
+
+    /**
+     * A file change that caused a snapshot.
+     */
+    public static final class Change {
+        private final String cause;
+        private final String file;
+
+        public Change(String cause, String file) {
+            this.cause = cause;
+            this.file = file;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Change)) {
+                return false;
+            }
+            Change other = (Change) obj;
+            return cause.equals(other.cause) && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cause.hashCode() + file.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return cause + " " + file;
+        }
+    }
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    public static final int DEFAULT_MAX_PENDING = 64;
+
+    private static final Logger log = Logger.getLogger(SnapshotScheduler.class.getName());
+
+    private final SnapshotTask task;
+    private final long debounceMillis;
+    private final int maxPending;
+    private final ScheduledThreadPoolExecutor executor;
+
+    // Guarded by itself.
+    private final Map<TmcProjectInfo, PendingSnapshot> pending;
+    private boolean closed;
+
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong eventsDropped = new AtomicLong();
+
+    public SnapshotScheduler(SnapshotTask task, long debounceMillis) {
+        this(task, debounceMillis, DEFAULT_THREAD_COUNT, DEFAULT_MAX_PENDING);
+    }
+
+    public SnapshotScheduler(SnapshotTask task, long debounceMillis, int threadCount, int maxPending) {
+        this.task = task;
+        this.debounceMillis = debounceMillis;
+        this.maxPending = maxPending;
+        this.executor = new ScheduledThreadPoolExecutor(threadCount, new SnapshotThreadFactory());
+        this.pending = new HashMap<TmcProjectInfo, PendingSnapshot>();
+        this.closed = false;
+    }
+
+    /**
+     * Schedules a snapshot of the project unless one is already pending,
+     * in which case the event is absorbed into the pending one.
+     */
+    public void schedule(Exercise exercise, TmcProjectInfo projectInfo, Change change, JsonMaker metadata) {
+        eventsReceived.incrementAndGet();
+
+        synchronized (pending) {
+            if (closed) {
+                eventsDropped.incrementAndGet();
+                return;
+            }
+
+            PendingSnapshot existing = pending.get(projectInfo);
+            if (existing != null) {
+                existing.absorb(exercise, change, metadata);
+                eventsCoalesced.incrementAndGet();
+                return;
+            }
+
+            if (pending.size() >= maxPending) {
+                log.log(Level.INFO, "Too many pending snapshots, dropping event for {0}", projectInfo.getProjectDirAbsPath());
+                eventsDropped.incrementAndGet();
+                return;
+            }
+
+            PendingSnapshot snapshot = new PendingSnapshot(exercise, projectInfo, change, metadata);
+            pending.put(projectInfo, snapshot);
+            executor.schedule(snapshot, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    public long getEventsCoalesced() {
+        return eventsCoalesced.get();
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.get();
+    }
+
+    /**
+     * Stops accepting new events and waits for pending snapshots to finish.
+     */
+    public void close() throws InterruptedException {
+        synchronized (pending) {
+            closed = true;
+        }
+        // Delayed tasks still run after shutdown() by default.
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        log.log(Level.INFO, "Source snapshots: {0} events received, {1} coalesced, {2} dropped",
+                new Object[] { getEventsReceived(), getEventsCoalesced(), getEventsDropped() });
+    }
+
+    private class PendingSnapshot implements Runnable {
+        private final TmcProjectInfo projectInfo;
+        private Exercise exercise;
+        private JsonMaker metadata;
+        private int eventCount;
+        private final Set<Change> changes; // In the order they first happened
+
+        public PendingSnapshot(Exercise exercise, TmcProjectInfo projectInfo, Change change, JsonMaker metadata) {
+            this.exercise = exercise;
+            this.projectInfo = projectInfo;
+            this.metadata = metadata;
+            this.eventCount = 1;
+            this.changes = new LinkedHashSet<Change>();
+            this.changes.add(change);
+        }
+
+        // Called while holding the lock on 'pending'.
+        private void absorb(Exercise exercise, Change change, JsonMaker metadata) {
+            this.exercise = exercise;
+            this.metadata = metadata;
+            this.eventCount++;
+            this.changes.add(change);
+        }
+
+        @Override
+        public void run() {
+            Exercise exercise;
+            JsonMaker metadata;
+            synchronized (pending) {
+                // Events arriving after this point get a snapshot of their own.
+                pending.remove(projectInfo);
+                exercise = this.exercise;
+                metadata = this.metadata
+                        .add("coalesced_events", eventCount)
+                        .add("changed_files", StringUtils.join(changes, "\n"));
+            }
+
+            try {
+                task.run(exercise, projectInfo, metadata);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Source snapshot failed", e);
+            }
+        }
+    }
+
+    private static class SnapshotThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Source snapshot " + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,23 +1,27 @@
 package fi.helsinki.cs.tmc.snapshots.eventsources;
 
 import fi.helsinki.cs.tmc.core.domain.Exercise;
-import fi.helsinki.cs.tmc.model.CourseDb;
-import fi.helsinki.cs.tmc.model.ProjectMediator;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
-import fi.helsinki.cs.tmc.utilities.ActiveThreadSet;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
 import fi.helsinki.cs.tmc.utilities.TmcFileUtils;
 import fi.helsinki.cs.tmc.utilities.TmcSwingUtilities;
+import fi.helsinki.cs.tmc.utilities.zip.IncrementalZipper;
 import fi.helsinki.cs.tmc.utilities.zip.RecursiveZipper;
+import fi.helsinki.cs.tmc.utilities.zip.SnapshotManifest;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.SwingUtilities;
+import org.apache.commons.lang3.StringUtils;
 import org.openide.filesystems.FileAttributeEvent;
 import org.openide.filesystems.FileChangeListener;
 import org.openide.filesystems.FileEvent;
@@ -32,14 +36,24 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
 
     private static final Logger log = Logger.getLogger(SourceSnapshotEventSource.class.getName());
 
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 1000;
+
     private EventReceiver receiver;
-    private ActiveThreadSet snapshotterThreads;
+    private SnapshotScheduler scheduler;
     private boolean closed;
 
     public SourceSnapshotEventSource(EventReceiver receiver) {
+        this(receiver, DEFAULT_DEBOUNCE_MILLIS, false);
+    }
+
+    /**
+     * @param incremental whether to send deltas against the previous snapshot
+     * (with a periodic full baseline) instead of zipping the whole project every time.
+     */
+    public SourceSnapshotEventSource(EventReceiver receiver, long debounceMillis, boolean incremental) {
         this.receiver = receiver;
 
-        this.snapshotterThreads = new ActiveThreadSet();
+        this.scheduler = new SnapshotScheduler(new SnapshotTask(receiver, incremental), debounceMillis);
     }
 
     public void startListeningToFileChanges() {
@@ -57,7 +71,7 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
                 try {
                     closed = true;
                     FileUtil.removeFileChangeListener(SourceSnapshotEventSource.this);
-                    snapshotterThreads.joinAll();
+                    scheduler.close();
                 } catch (InterruptedException ex) {
                 }
             }
@@ -99,10 +113,11 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
             return;
         }
 
+        String cause = changeType.name().toLowerCase();
         JsonMaker metadata = JsonMaker.create()
-                .add("cause", changeType.name().toLowerCase())
+                .add("cause", cause)
                 .add("file", filePath);
-        invokeSnapshotThreadViaEdt(fileObject, metadata);
+        scheduleSnapshotViaEdt(fileObject, new SnapshotScheduler.Change(cause, filePath), metadata);
     }
 
     private void reactToRename(final ChangeType changeType, final FileRenameEvent renameEvent) {
@@ -111,16 +126,17 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
             return;
         }
 
+        String cause = changeType.name().toLowerCase();
         JsonMaker metadata = JsonMaker.create()
-                .add("cause", changeType.name().toLowerCase())
+                .add("cause", cause)
                 .add("file", filePath)
                 .add("previous_name", renameEvent.getName() + "." + renameEvent.getExt());
-        invokeSnapshotThreadViaEdt(renameEvent.getFile(), metadata);
+        scheduleSnapshotViaEdt(renameEvent.getFile(), new SnapshotScheduler.Change(cause, filePath), metadata);
     }
 
     // I have no idea what thread FileUtil callbacks are made in,
     // so I'll go to the EDT to safely read the global state.
-    private void invokeSnapshotThreadViaEdt(final FileObject fileObject, final JsonMaker metadata) {
+    private void scheduleSnapshotViaEdt(final FileObject fileObject, final SnapshotScheduler.Change change, final JsonMaker metadata) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -129,62 +145,60 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
                 }
 
                 try {
-                    startSnapshotThread(fileObject, metadata);
+                    scheduleSnapshot(fileObject, change, metadata);
                 } catch (Exception e) {
-                    log.log(Level.WARNING, "Failed to start snapshot thread", e);
+                    log.log(Level.WARNING, "Failed to schedule snapshot", e);
                 }
             }
         });
     }
 
-    private void startSnapshotThread(FileObject changedFile, JsonMaker metadata) {
+    private void scheduleSnapshot(FileObject changedFile, SnapshotScheduler.Change change, JsonMaker metadata) {
         log.log(Level.FINE, "Changed file: {0}", changedFile);
 
-        ProjectMediator pm = ProjectMediator.getInstance();
-        TmcProjectInfo project = pm.tryGetProjectOwningFile(changedFile);
+        ExerciseLocator locator = ExerciseLocator.getInstance();
+        TmcProjectInfo project = locator.findProjectOwningFile(changedFile);
         log.log(Level.FINE, "Project: {0}", project);
         // only log TMC-projects
         if (project != null) {
-            CourseDb courseDb = CourseDb.getInstance();
-            Exercise exercise = pm.tryGetExerciseForProject(project, courseDb);
+            Exercise exercise = locator.findExerciseForFile(changedFile);
 
             if (exercise != null) {
                 log.log(Level.FINER, "Exercise: {0}", exercise);
 
-                SnapshotThread thread = new SnapshotThread(receiver, exercise, project, metadata);
-                snapshotterThreads.addThread(thread);
-                thread.setDaemon(true);
-                thread.start();
+                scheduler.schedule(exercise, project, change, metadata);
             }
         }
     }
 
-    private static class SnapshotThread extends Thread {
+    private static class SnapshotTask implements SnapshotScheduler.SnapshotTask {
         private final EventReceiver receiver;
-        private final Exercise exercise;
-        private final TmcProjectInfo projectInfo;
-        private final JsonMaker metadata;
+        private final boolean incremental;
+        // Kept only in memory, so the first snapshot of each project after startup is a full baseline.
+        private final ConcurrentHashMap<TmcProjectInfo, SnapshotManifest> manifests;
 
-        private SnapshotThread(EventReceiver receiver, Exercise exercise, TmcProjectInfo projectInfo, JsonMaker metadata) {
-            super("Source snapshot");
+        private SnapshotTask(EventReceiver receiver, boolean incremental) {
             this.receiver = receiver;
-            this.exercise = exercise;
-            this.projectInfo = projectInfo;
-            this.metadata = metadata;
+            this.incremental = incremental;
+            this.manifests = new ConcurrentHashMap<TmcProjectInfo, SnapshotManifest>();
         }
 
         @Override
-        public void run() {
+        public void run(Exercise exercise, TmcProjectInfo projectInfo, JsonMaker metadata) {
             // Note that, being in a thread, this is inherently prone to races that modify the project.
             // For now we just accept that. Not sure if the FileObject API would allow some sort of
             // global locking of the project.
             File projectDir = projectInfo.getProjectDirAsFile();
             RecursiveZipper.ZippingDecider zippingDecider = new ZippingDeciderWrapper(projectInfo, projectInfo.getZippingDecider());
-            RecursiveZipper zipper = new RecursiveZipper(projectDir, zippingDecider);
             try {
-                byte[] data = zipper.zipProjectSources();
-                LoggableEvent event = new LoggableEvent(exercise, "code_snapshot", data, metadata);
-                receiver.receiveEvent(event);
+                if (incremental) {
+                    snapshotIncrementally(exercise, projectInfo, projectDir, zippingDecider, metadata);
+                } else {
+                    RecursiveZipper zipper = new RecursiveZipper(projectDir, zippingDecider);
+                    byte[] data = zipper.zipProjectSources();
+                    LoggableEvent event = new LoggableEvent(exercise, "code_snapshot", data, metadata);
+                    receiver.receiveEvent(event);
+                }
             } catch (IOException ex) {
                 // Warning might be also appropriate, but this often races with project closing
                 // during integration tests, and there warning would cause a dialog to appear,
@@ -192,6 +206,41 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
                 log.log(Level.INFO, "Error zipping project sources in: " + projectDir, ex);
             }
         }
+
+        /**
+         * Sends the delta (or periodic full) snapshot, if anything has changed.
+         *
+         * <p>
+         * The manifest is advanced only after the receiver has taken the event,
+         * so the next delta is always against a snapshot that was delivered.
+         */
+        private void snapshotIncrementally(Exercise exercise, TmcProjectInfo projectInfo, File projectDir, RecursiveZipper.ZippingDecider zippingDecider, JsonMaker metadata) throws IOException {
+            SnapshotManifest manifest = manifests.get(projectInfo);
+            if (manifest == null) {
+                manifests.putIfAbsent(projectInfo, new SnapshotManifest());
+                manifest = manifests.get(projectInfo);
+            }
+
+            synchronized (manifest) {
+                IncrementalZipper.Result result = new IncrementalZipper(projectDir, zippingDecider).zipChanges(manifest);
+                if (result.isEmpty()) {
+                    return;
+                }
+
+                metadata.add("snapshot_type", result.isFull() ? "full" : "delta");
+                if (!result.isFull()) {
+                    metadata.add("deleted_files", StringUtils.join(result.getDeletedPaths(), "\n"));
+                }
+                LoggableEvent event = new LoggableEvent(exercise, "code_snapshot", result.getData(), metadata);
+                try {
+                    receiver.receiveEvent(event);
+                } catch (RuntimeException ex) {
+                    manifest.reset(); // The event may or may not have got through.
+                    throw ex;
+                }
+                result.commit();
+            }
+        }
     }
 
     private static class ZippingDeciderWrapper implements RecursiveZipper.ZippingDecider {
@@ -230,8 +279,8 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
             return false;
         }
 
-        protected boolean isTooBig(File file) {
-            return file.length() > MAX_FILE_SIZE;
+        protected boolean isTooBig(long size) {
+            return size > MAX_FILE_SIZE;
         }
 
         protected boolean hasNoSnapshotFile(File dir) {
@@ -241,20 +290,37 @@ public class SourceSnapshotEventSource implements FileChangeListener, Closeable
         @Override
         public boolean shouldZip(String zipPath) {
             File file = new File(projectInfo.getProjectDirAsFile().getParentFile(), zipPath);
-            if (file.isDirectory()) {
-                if (hasNoSnapshotFile(file)) {
-                    return false;
-                }
-            } else {
-                if (isProbablyBundledBinary(zipPath)) {
-                    return false;
-                }
-                if (isTooBig(file)) {
-                    return false;
-                }
+            if (!shouldZip(zipPath, file.isDirectory(), file.length(), file)) {
+                return false;
             }
-
             return subdecider.shouldZip(zipPath);
         }
+
+        @Override
+        public boolean shouldZip(String zipPath, Path file, BasicFileAttributes attrs) {
+            if (!shouldZip(zipPath, attrs.isDirectory(), attrs.size(), file.toFile())) {
+                return false;
+            }
+            return subdecider.shouldZip(zipPath, file, attrs);
+        }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath) {
+            File dir = new File(projectInfo.getProjectDirAsFile().getParentFile(), dirZipPath);
+            return !hasNoSnapshotFile(dir) && subdecider.shouldLookInside(dirZipPath);
+        }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath, Path dir, BasicFileAttributes attrs) {
+            return !hasNoSnapshotFile(dir.toFile()) && subdecider.shouldLookInside(dirZipPath, dir, attrs);
+        }
+
+        private boolean shouldZip(String zipPath, boolean isDirectory, long size, File file) {
+            if (isDirectory) {
+                return !hasNoSnapshotFile(file);
+            } else {
+                return !isProbablyBundledBinary(zipPath) && !isTooBig(size);
+            }
+        }
     }
 }
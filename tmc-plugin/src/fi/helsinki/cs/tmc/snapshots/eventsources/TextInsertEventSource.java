@@ -1,23 +1,29 @@
 package fi.helsinki.cs.tmc.snapshots.eventsources;
 
 import fi.helsinki.cs.tmc.core.domain.Exercise;
-import fi.helsinki.cs.tmc.model.CourseDb;
-import fi.helsinki.cs.tmc.model.ProjectMediator;
-import fi.helsinki.cs.tmc.model.TmcProjectInfo;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
 import fi.helsinki.cs.tmc.utilities.TmcFileUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.awt.HeadlessException;
 import java.awt.datatransfer.DataFlavor;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.Closeable;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.event.DocumentEvent;
@@ -27,6 +33,8 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import name.fraser.neil.plaintext.DiffMatchPatch;
+import name.fraser.neil.plaintext.DiffMatchPatch.Diff;
+import name.fraser.neil.plaintext.DiffMatchPatch.Operation;
 import name.fraser.neil.plaintext.DiffMatchPatch.Patch;
 import org.netbeans.api.editor.EditorRegistry;
 import org.netbeans.modules.editor.NbEditorUtilities;
@@ -37,186 +45,379 @@ import org.openide.util.datatransfer.ExClipboard;
 /**
  * Records large inserts into documents. These are often, but not always,
  * pastes.
+ *
+ * <p>
+ * The document listener only records each edit in a queue. A background
+ * thread turns the edits into patches, combining consecutive inserts or
+ * removes in the same document into one event, so that typing doesn't
+ * wait for any of it.
  */
 public class TextInsertEventSource implements Closeable {
-    
+
     private static final Logger log = Logger.getLogger(TextInsertEventSource.class.getName());
     private static final DiffMatchPatch PATCH_GENERATOR = new DiffMatchPatch();
+    private static final int MAX_CACHED_DOCUMENTS = 32;
+
+    public static final long FLUSH_INTERVAL_MILLIS = 500;
+    public static final int MAX_EDITS_PER_FLUSH = 50;
+
+    /**
+     * What we know of a document's text.
+     */
+    private static class DocumentState {
+        // False if the document may have changed while we weren't listening to it.
+        // Also cleared by the worker if the mirror turns out to be wrong.
+        private volatile boolean inSync = false;
+        // Used in the EDT only.
+        private int length = -1;
+
+        // Used in the worker thread only. Null until the first edit is processed,
+        // and again after it turned out to be wrong, until an edit with the full text resets it.
+        private TextMirror mirror = null;
+    }
+
+    /**
+     * An edit as captured in the EDT.
+     */
+    private static final class Edit {
+        private final FileObject file;
+        private final DocumentState state;
+        private final boolean isInsert;
+        private final int offset;
+        private final int length;
+        private final String insertedText; // Null for removes
+        private final String fullText; // The whole text after the edit, if the mirror needs to be rebuilt
+
+        public Edit(FileObject file, DocumentState state, boolean isInsert, int offset, int length, String insertedText, String fullText) {
+            this.file = file;
+            this.state = state;
+            this.isInsert = isInsert;
+            this.offset = offset;
+            this.length = length;
+            this.insertedText = insertedText;
+            this.fullText = fullText;
+        }
+    }
+
+    /**
+     * Patches waiting to be sent as one event.
+     */
+    private static final class PendingEvent {
+        private final Exercise exercise;
+        private final FileObject file;
+        private final DocumentState state;
+        private final String eventType;
+        private final boolean fullDocument;
+        private final List<Patch> patches;
+
+        public PendingEvent(Exercise exercise, FileObject file, DocumentState state, String eventType, boolean fullDocument, List<Patch> patches) {
+            this.exercise = exercise;
+            this.file = file;
+            this.state = state;
+            this.eventType = eventType;
+            this.fullDocument = fullDocument;
+            this.patches = new LinkedList<Patch>(patches);
+        }
+
+        public boolean canAbsorb(PendingEvent other) {
+            return other.state == state
+                    && other.eventType.equals(eventType)
+                    && !eventType.equals("text_paste")
+                    && !fullDocument
+                    && !other.fullDocument;
+        }
+    }
+
     private EventReceiver receiver;
     private JTextComponent currentComponent;
-    private Map<Document, String> documentCache;
+    // Weak keys so that closed documents can be collected. Weak keys also compare by identity.
+    private Cache<Document, DocumentState> documentCache;
+
+    private final Queue<Edit> edits = new ConcurrentLinkedQueue<Edit>();
+    private final AtomicInteger queuedEditCount = new AtomicInteger();
+    private final ScheduledExecutorService worker;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
     private DocumentListener docListener = new DocumentListener() {
         @Override
         public void insertUpdate(DocumentEvent e) {
-            handleEvent(e);
+            captureEdit(e);
         }
 
         @Override
         public void removeUpdate(DocumentEvent e) {
-            handleEvent(e);
+            captureEdit(e);
         }
 
         @Override
         public void changedUpdate(DocumentEvent e) {
             // These are attribute changes and don't interest us.
         }
-        
-        private FileObject cachedFile = null;
-        private Exercise cachedExercise = null;
-
-        private Exercise exerciseContainingFile(FileObject fo) {
-            if (cachedFile == null || !cachedFile.equals(fo)) {
-                cachedFile = fo;
-                ProjectMediator pm = ProjectMediator.getInstance();
-                TmcProjectInfo project = pm.tryGetProjectOwningFile(fo);
-                if (project != null) {
-                    cachedExercise = pm.tryGetExerciseForProject(project, CourseDb.getInstance());
-                }
+    };
+
+    private PropertyChangeListener propListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            deregister();
+            register();
+        }
+    };
+
+    public TextInsertEventSource(EventReceiver receiver) {
+        this.receiver = receiver;
+        this.currentComponent = null;
+        this.documentCache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumSize(MAX_CACHED_DOCUMENTS)
+                .build();
+        this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Text insert events");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+        worker.scheduleWithFixedDelay(flushTask, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        EditorRegistry.addPropertyChangeListener(propListener);
+    }
+
+    // Called in the EDT with the document locked, so keep it cheap.
+    private void captureEdit(DocumentEvent e) {
+        Document doc = e.getDocument();
+
+        FileObject fo = NbEditorUtilities.getFileObject(doc);
+        if (fo == null) {
+            log.log(Level.FINER, "Document has no associated file object");
+            return;
+        }
 
-            return cachedExercise;
+        DocumentState state = documentCache.getIfPresent(doc);
+        if (state == null) {
+            state = new DocumentState();
+            documentCache.put(doc, state);
         }
 
-        private void handleEvent(DocumentEvent e) {
-            Document doc = e.getDocument();
+        boolean isInsert = e.getType() == EventType.INSERT;
+        int expectedLength = isInsert ? state.length + e.getLength() : state.length - e.getLength();
 
-            FileObject fo = NbEditorUtilities.getFileObject(doc);
-            if (fo == null) {
-                log.log(Level.FINER, "Document has no associated file object");
-                return;
+        String insertedText = null;
+        String fullText = null;
+        try {
+            if (isInsert) {
+                insertedText = doc.getText(e.getOffset(), e.getLength());
             }
-
-            Exercise ex = exerciseContainingFile(fo);
-            if (ex == null) {
-                log.log(Level.FINER, "Unable to determine exercise for document");
-                return;
+            if (!state.inSync || expectedLength != doc.getLength()) {
+                // New to us, or we've missed some edits. The worker will diff the whole document.
+                fullText = doc.getText(0, doc.getLength());
+                state.inSync = true;
             }
+        } catch (BadLocationException exp) {
+            log.log(Level.WARNING, "Document {0} event with bad location. ", e.getType());
+            state.inSync = false;
+            return;
+        }
+        state.length = doc.getLength();
 
-            createAndSendPatchEvent(e, fo, doc, ex);
+        edits.add(new Edit(fo, state, isInsert, e.getOffset(), e.getLength(), insertedText, fullText));
+        if (queuedEditCount.incrementAndGet() == MAX_EDITS_PER_FLUSH) {
+            worker.execute(flushTask);
         }
+    }
 
-        private void createAndSendPatchEvent(DocumentEvent e, FileObject fo, Document doc, Exercise ex) {
-            List<Patch> patches;
-            
-            // if the document is not in cache, the patch will
-            // contain the full document
-            boolean patchContainsFullDocument = !documentCache.containsKey(doc);
+    // Everything below runs in the worker thread.
 
-            try {
-                // generatePatches will cache the current version for future
-                // patches; if the document was not in the cache previously, the patch will
-                // contain the full document content
-                patches = generatePatches(doc);
-            } catch (BadLocationException exp) {
-                log.log(Level.WARNING, "Unable to generate patches from {0}.", fo.getName());
-                return;
+    private void flush() {
+        try {
+            queuedEditCount.set(0);
+            PendingEvent pending = null;
+            Edit edit;
+            while ((edit = edits.poll()) != null) {
+                PendingEvent next = processEdit(edit);
+                if (next == null) {
+                    continue;
+                }
+                if (pending != null && pending.canAbsorb(next)) {
+                    pending.patches.addAll(next.patches);
+                } else {
+                    sendEvent(pending);
+                    pending = next;
+                }
             }
+            sendEvent(pending);
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, "Failed to process text edits.", ex);
+        }
+    }
 
-            // Remove event is handled here as the getText-method can cause
-            // an error as the document state is the state after the event. As 
-            // the offsets are from the actual event, they may reference content 
-            // that is no longer in the current document.
-            if (e.getType().equals(EventType.REMOVE)) {
-                sendEvent(ex, "text_remove", generatePatchDescription(fo, patches, patchContainsFullDocument));
-                return;
-            }
+    private PendingEvent processEdit(Edit edit) {
+        if (edit.state.mirror == null && edit.fullText == null) {
+            // The mirror is broken. Edits to it would make no sense until the EDT resends the full text.
+            return null;
+        }
 
-            String text;
-            try {
-                text = doc.getText(e.getOffset(), e.getLength());
-            } catch (BadLocationException exp) {
-                log.log(Level.WARNING, "Document {0} event with bad location. ", e.getType());
-                return;
-            }
-            
-            if (isPasteEvent(text)) {
-                sendEvent(ex, "text_paste", generatePatchDescription(fo, patches, patchContainsFullDocument));
-            } else if (e.getType() == EventType.INSERT) {
-                sendEvent(ex, "text_insert", generatePatchDescription(fo, patches, patchContainsFullDocument));
-            }
+        // if the document is not in cache, the patch will
+        // contain the full document
+        boolean patchContainsFullDocument = edit.state.mirror == null;
+
+        // The mirror must follow every edit, even ones we don't send.
+        List<Patch> patches;
+        try {
+            patches = generatePatches(edit);
+        } catch (IndexOutOfBoundsException exp) {
+            log.log(Level.WARNING, "Lost track of document text. Resynchronizing.", exp);
+            edit.state.mirror = null;
+            edit.state.inSync = false;
+            return null;
         }
 
-        private void sendEvent(Exercise ex, String eventType, String text) {
-            LoggableEvent event = new LoggableEvent(ex, eventType, text.getBytes(Charset.forName("UTF-8")));
-            receiver.receiveEvent(event);
-        }
-        
-        private String generatePatchDescription(FileObject fo, List<Patch> patches, boolean patchContainsFullDocument) {
-            String filePath = TmcFileUtils.tryGetPathRelativeToProject(fo);
-            if (filePath != null) {
-                return JsonMaker.create()
-                    .add("file", filePath)
-                    .add("patches", PATCH_GENERATOR.patch_toText(patches))
-                    .add("full_document", patchContainsFullDocument)
-                    .toString();
-            } else {
-                return "{}";
-            }
+        Exercise ex = ExerciseLocator.getInstance().findExerciseForFile(edit.file);
+        if (ex == null) {
+            log.log(Level.FINER, "Unable to determine exercise for document");
+            return null;
         }
 
-        private boolean isPasteEvent(String text) throws HeadlessException {
-            if (text.length() <= 2 || isWhiteSpace(text)) {
-                // if a short text or whitespace is inserted,
-                // we skip checking for paste
-                return false;
-            }
+        String eventType;
+        if (!edit.isInsert) {
+            eventType = "text_remove";
+        } else if (isPasteEvent(edit.insertedText)) {
+            eventType = "text_paste";
+        } else {
+            eventType = "text_insert";
+        }
+        return new PendingEvent(ex, edit.file, edit.state, eventType, patchContainsFullDocument, patches);
+    }
 
-            try {
-                String clipboardData = (String) Lookup.getDefault().
-                        lookup(ExClipboard.class).getData(DataFlavor.stringFlavor);
-                return text.equals(clipboardData);
-            } catch (Exception exp) {
-            }
+    private void sendEvent(PendingEvent pending) {
+        if (pending == null) {
+            return;
+        }
+        String text = generatePatchDescription(pending.file, pending.patches, pending.fullDocument);
+        LoggableEvent event = new LoggableEvent(pending.exercise, pending.eventType, text.getBytes(Charset.forName("UTF-8")));
+        receiver.receiveEvent(event);
+    }
+
+    private String generatePatchDescription(FileObject fo, List<Patch> patches, boolean patchContainsFullDocument) {
+        String filePath = TmcFileUtils.tryGetPathRelativeToProject(fo);
+        if (filePath != null) {
+            return JsonMaker.create()
+                .add("file", filePath)
+                .add("patches", PATCH_GENERATOR.patch_toText(patches))
+                .add("full_document", patchContainsFullDocument)
+                .toString();
+        } else {
+            return "{}";
+        }
+    }
 
+    private boolean isPasteEvent(String text) throws HeadlessException {
+        if (text.length() <= 2 || isWhiteSpace(text)) {
+            // if a short text or whitespace is inserted,
+            // we skip checking for paste
             return false;
         }
 
-        private boolean isWhiteSpace(String text) {
-            // If an insert is just whitespace, it's probably an autoindent
+        try {
+            String clipboardData = (String) Lookup.getDefault().
+                    lookup(ExClipboard.class).getData(DataFlavor.stringFlavor);
+            return text.equals(clipboardData);
+        } catch (Exception exp) {
+        }
 
-            for (int i = 0; i < text.length(); ++i) {
-                if (!Character.isWhitespace(text.charAt(i))) {
-                    return false;
-                }
-            }
+        return false;
+    }
 
-            return true;
-        }
+    private boolean isWhiteSpace(String text) {
+        // If an insert is just whitespace, it's probably an autoindent
 
-        // currently, if a document is not existing, the patch will
-        // contain the full file
-        private List<Patch> generatePatches(Document doc) throws BadLocationException {
-            String previous = "";
-            if (documentCache.containsKey(doc)) {
-                previous = documentCache.get(doc);
+        for (int i = 0; i < text.length(); ++i) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
             }
+        }
 
-            documentCache.put(doc, doc.getText(0, doc.getLength()));
-            String current = documentCache.get(doc);
+        return true;
+    }
 
-            return PATCH_GENERATOR.patch_make(previous, current);
+    // currently, if a document is not existing, the patch will
+    // contain the full file
+    private List<Patch> generatePatches(Edit edit) {
+        DocumentState state = edit.state;
+        if (edit.fullText != null) {
+            String previous = state.mirror != null ? state.mirror.toString() : "";
+            state.mirror = new TextMirror(edit.fullText);
+            return PATCH_GENERATOR.patch_make(previous, edit.fullText);
         }
-    };
-    
-    private PropertyChangeListener propListener = new PropertyChangeListener() {
-        @Override
-        public void propertyChange(PropertyChangeEvent evt) {
-            deregister();
-            register();
+
+        // Build the patch from the edit alone, before applying it to the mirror.
+        String removed = edit.isInsert ? "" : state.mirror.substring(edit.offset, edit.offset + edit.length);
+        String inserted = edit.isInsert ? edit.insertedText : "";
+        Patch patch = makePatch(state.mirror, edit.offset, removed, inserted);
+
+        if (edit.isInsert) {
+            state.mirror.insert(edit.offset, inserted);
+        } else {
+            state.mirror.remove(edit.offset, edit.length);
         }
-    };
 
-    public TextInsertEventSource(EventReceiver receiver) {
-        this.receiver = receiver;
-        this.currentComponent = null;
-        this.documentCache = new HashMap<Document, String>();
-        EditorRegistry.addPropertyChangeListener(propListener);
+        LinkedList<Patch> patches = new LinkedList<Patch>();
+        patches.add(patch);
+        return patches;
+    }
+
+    /**
+     * Makes a patch that replaces {@code removed} at {@code offset} with {@code inserted}.
+     *
+     * <p>
+     * Unlike {@link DiffMatchPatch#patch_make}, this gives a fixed
+     * {@code Patch_Margin} characters of context on each side rather than
+     * widening it until it is unique in the text, which would mean searching
+     * the whole document. The patch's position is exact, and
+     * {@link DiffMatchPatch#patch_apply} tries that position first.
+     */
+    /*package*/ static Patch makePatch(TextMirror before, int offset, String removed, String inserted) {
+        int margin = PATCH_GENERATOR.Patch_Margin;
+        int prefixStart = Math.max(0, offset - margin);
+        String prefix = before.substring(prefixStart, offset);
+        int suffixStart = offset + removed.length();
+        String suffix = before.substring(suffixStart, Math.min(before.length(), suffixStart + margin));
+
+        Patch patch = new Patch();
+        if (!prefix.isEmpty()) {
+            patch.diffs.add(new Diff(Operation.EQUAL, prefix));
+        }
+        if (!removed.isEmpty()) {
+            patch.diffs.add(new Diff(Operation.DELETE, removed));
+        }
+        if (!inserted.isEmpty()) {
+            patch.diffs.add(new Diff(Operation.INSERT, inserted));
+        }
+        if (!suffix.isEmpty()) {
+            patch.diffs.add(new Diff(Operation.EQUAL, suffix));
+        }
+        // Each patch applies to the text as left by the previous one, so start1 == start2.
+        patch.start1 = prefixStart;
+        patch.start2 = prefixStart;
+        patch.length1 = prefix.length() + removed.length() + suffix.length();
+        patch.length2 = prefix.length() + inserted.length() + suffix.length();
+        return patch;
     }
 
     private void register() {
         currentComponent = EditorRegistry.lastFocusedComponent();
         if (currentComponent != null) {
-            currentComponent.getDocument().addDocumentListener(docListener);
+            Document doc = currentComponent.getDocument();
+            DocumentState state = documentCache.getIfPresent(doc);
+            if (state != null) {
+                // It may have been edited while we weren't listening, e.g. by a refactoring.
+                state.inSync = false;
+            }
+            doc.addDocumentListener(docListener);
         }
     }
 
@@ -227,9 +428,26 @@ public class TextInsertEventSource implements Closeable {
         }
     }
 
+    /**
+     * Stops listening and sends the edits recorded so far in the background.
+     *
+     * <p>
+     * Doesn't wait for them, as this is called in the EDT.
+     * See {@link #awaitTermination(long, TimeUnit)}.
+     */
     @Override
     public void close() {
         deregister();
         EditorRegistry.removePropertyChangeListener(propListener);
+        worker.execute(flushTask);
+        worker.shutdown();
+    }
+
+    /**
+     * Waits for the edits recorded before {@link #close()} to be sent.
+     * Returns false if that took longer than the timeout.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return worker.awaitTermination(timeout, unit);
     }
 }
@@ -0,0 +1,103 @@
+package fi.helsinki.cs.tmc.snapshots.eventsources;
+
+/**
+ * A copy of a document's text kept in a gap buffer.
+ *
+ * <p>
+ * Edits cost time proportional to the edit plus the distance from the
+ * previous edit. Since typing edits one place at a time, following a
+ * document keystroke by keystroke is cheap even for large documents.
+ * Not thread-safe.
+ */
+/*package*/ class TextMirror {
+
+    private static final int MIN_GAP = 256;
+
+    private char[] buf;
+    private int gapStart;
+    private int gapEnd;
+
+    public TextMirror(String text) {
+        this.buf = new char[text.length() + MIN_GAP];
+        text.getChars(0, text.length(), buf, 0);
+        this.gapStart = text.length();
+        this.gapEnd = buf.length;
+    }
+
+    public int length() {
+        return buf.length - (gapEnd - gapStart);
+    }
+
+    public void insert(int offset, String text) {
+        checkRange(offset, offset);
+        moveGapTo(offset);
+        ensureGap(text.length());
+        text.getChars(0, text.length(), buf, gapStart);
+        gapStart += text.length();
+    }
+
+    /**
+     * Removes and returns the text in the given range.
+     */
+    public String remove(int offset, int length) {
+        checkRange(offset, offset + length);
+        moveGapTo(offset);
+        String removed = new String(buf, gapEnd, length);
+        gapEnd += length;
+        return removed;
+    }
+
+    public String substring(int start, int end) {
+        checkRange(start, end);
+        if (end <= gapStart) {
+            return new String(buf, start, end - start);
+        } else if (start >= gapStart) {
+            int gap = gapEnd - gapStart;
+            return new String(buf, start + gap, end - start);
+        } else {
+            StringBuilder sb = new StringBuilder(end - start);
+            sb.append(buf, start, gapStart - start);
+            sb.append(buf, gapEnd, end - gapStart);
+            return sb.toString();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    private void moveGapTo(int offset) {
+        if (offset < gapStart) {
+            int n = gapStart - offset;
+            System.arraycopy(buf, offset, buf, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (offset > gapStart) {
+            int n = offset - gapStart;
+            System.arraycopy(buf, gapEnd, buf, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+
+    private void ensureGap(int needed) {
+        int gap = gapEnd - gapStart;
+        if (gap >= needed) {
+            return;
+        }
+        int tail = buf.length - gapEnd;
+        int newLength = Math.max(buf.length * 2, length() + needed + MIN_GAP);
+        char[] newBuf = new char[newLength];
+        System.arraycopy(buf, 0, newBuf, 0, gapStart);
+        System.arraycopy(buf, gapEnd, newBuf, newLength - tail, tail);
+        buf = newBuf;
+        gapEnd = newLength - tail;
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " of " + length());
+        }
+    }
+}
@@ -13,8 +13,7 @@ import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.events.TmcEventListener;
 import fi.helsinki.cs.tmc.exerciseSubmitter.ExerciseSubmitter;
-import fi.helsinki.cs.tmc.model.CourseDb;
-import fi.helsinki.cs.tmc.model.ProjectMediator;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
@@ -29,13 +28,11 @@ import java.util.Collections;
  */
 public class TmcEventBusEventSource extends TmcEventListener {
 
-    private ProjectMediator projects;
-    private CourseDb courseDb;
+    private ExerciseLocator exerciseLocator;
     private EventReceiver receiver;
 
     public TmcEventBusEventSource(EventReceiver receiver) {
-        this.projects = ProjectMediator.getInstance();
-        this.courseDb = CourseDb.getInstance();
+        this.exerciseLocator = ExerciseLocator.getInstance();
         this.receiver = receiver;
     }
 
@@ -96,7 +93,7 @@ public class TmcEventBusEventSource extends TmcEventListener {
     }
 
     private void sendProjectActionEvent(TmcProjectInfo project, String command) {
-        Exercise ex = projects.tryGetExerciseForProject(project, courseDb);
+        Exercise ex = exerciseLocator.findExerciseForProject(project);
         sendProjectActionEvent(ex, command);
     }
 
@@ -6,8 +6,7 @@ import fi.helsinki.cs.tmc.core.domain.Exercise;
 import com.google.common.base.CaseFormat;
 
 import fi.helsinki.cs.tmc.model.CourseDb;
-import fi.helsinki.cs.tmc.model.ProjectMediator;
-import fi.helsinki.cs.tmc.model.TmcProjectInfo;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.snapshots.EventReceiver;
 import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
@@ -37,12 +36,12 @@ public final class WindowStatechangesEventSource implements PropertyChangeListen
 
     private static final Logger log = Logger.getLogger(WindowStatechangesEventSource.class.getName());
 
-    private final ProjectMediator projects;
+    private final ExerciseLocator exerciseLocator;
     private final CourseDb courseDb;
     private final EventReceiver receiver;
 
     public WindowStatechangesEventSource(EventReceiver receiver) {
-        this.projects = ProjectMediator.getInstance();
+        this.exerciseLocator = ExerciseLocator.getInstance();
         this.courseDb = CourseDb.getInstance();
         this.receiver = receiver;
         startListening();
@@ -158,12 +157,7 @@ public final class WindowStatechangesEventSource implements PropertyChangeListen
         if (obj == null) {
             return null;
         }
-        ProjectMediator pm = ProjectMediator.getInstance();
-        TmcProjectInfo project = pm.tryGetProjectOwningFile(obj);
-        if (project == null) {
-            return null;
-        }
-        return pm.tryGetExerciseForProject(project, courseDb);
+        return exerciseLocator.findExerciseForFile(obj);
     }
 
     private String toStringWithObjects(Object object) {
@@ -0,0 +1,440 @@
+package fi.helsinki.cs.tmc.snapshotsLocal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of byte records split into segment files.
+ *
+ * <p>
+ * Each record is written as its length, its CRC-32 and its bytes.
+ * A reader cursor, persisted next to the segments, remembers how far
+ * the log has been consumed. Segments are rotated when they grow too big
+ * or too old, and deleted once fully consumed. If the log grows beyond its
+ * size limit, the oldest segments are dropped.
+ *
+ * <p>
+ * After a crash, a partially written record at the end of the last segment
+ * is truncated away and everything before it is kept.
+ *
+ * <p>
+ * Segments are written through a {@link FileChannel} rather than memory-mapped:
+ * mapped buffers can't be unmapped on demand, which would keep rotated segments
+ * from being deleted on Windows.
+ */
+public class SegmentLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(SegmentLog.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int HEADER_SIZE = 8;
+
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_SEGMENT_AGE_MILLIS = 10 * 60 * 1000;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 256 * 1024 * 1024;
+
+    /**
+     * Records read from the log, to be {@link #acknowledge acknowledged} once processed.
+     */
+    public static final class Batch {
+        private final List<byte[]> records;
+        private final long endSegment;
+        private final long endOffset;
+
+        private Batch(List<byte[]> records, long endSegment, long endOffset) {
+            this.records = Collections.unmodifiableList(records);
+            this.endSegment = endSegment;
+            this.endOffset = endOffset;
+        }
+
+        public List<byte[]> getRecords() {
+            return records;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+    }
+
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMillis;
+    private final long maxTotalBytes;
+
+    private final List<Long> segments; // Ids in ascending order. The last one is being written.
+    private FileChannel writeChannel;
+    private long writeSize;
+    private long writeStartedAt;
+    private long totalBytes;
+
+    private long readSegment;
+    private long readOffset;
+
+    private long recordsDropped;
+    private boolean closed;
+
+    public SegmentLog(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_MAX_SEGMENT_AGE_MILLIS, DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    public SegmentLog(File dir, long maxSegmentBytes, long maxSegmentAgeMillis, long maxTotalBytes) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMillis = maxSegmentAgeMillis;
+        this.maxTotalBytes = maxTotalBytes;
+        this.segments = new ArrayList<Long>();
+
+        Files.createDirectories(dir.toPath());
+        recover();
+        startSegment(segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1);
+        if (!segments.contains(readSegment)) {
+            readSegment = segments.get(0);
+            readOffset = 0;
+        }
+        deleteSegmentsBefore(readSegment);
+    }
+
+    /**
+     * Appends a record and rotates or trims segments as needed.
+     */
+    public synchronized void append(byte[] record) throws IOException {
+        checkOpen();
+        if (writeSize > 0 && (writeSize + HEADER_SIZE + record.length > maxSegmentBytes || isWriteSegmentOld())) {
+            rotate();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(record.length);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        writeFully(writeChannel, header);
+        writeFully(writeChannel, ByteBuffer.wrap(record));
+
+        writeSize += HEADER_SIZE + record.length;
+        totalBytes += HEADER_SIZE + record.length;
+        dropOldestIfTooBig();
+    }
+
+    /**
+     * Starts a new segment if the current one has been written to for too long,
+     * so that consumed data doesn't linger in a half-empty segment.
+     */
+    public synchronized void rotateIfOld() throws IOException {
+        checkOpen();
+        if (writeSize > 0 && isWriteSegmentOld()) {
+            rotate();
+        }
+    }
+
+    /**
+     * Reads records after the cursor without moving it.
+     * At least one record is returned if there are any, even if it is bigger than {@code maxBytes}.
+     */
+    public synchronized Batch read(long maxBytes) throws IOException {
+        checkOpen();
+        List<byte[]> records = new ArrayList<byte[]>();
+        long segment = readSegment;
+        long offset = readOffset;
+        long bytes = 0;
+
+        while (true) {
+            long segmentSize = sizeOf(segment);
+            if (offset >= segmentSize) {
+                Long next = nextSegment(segment);
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                offset = 0;
+                continue;
+            }
+            if (!records.isEmpty() && bytes >= maxBytes) {
+                break;
+            }
+
+            FileChannel ch = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+            try {
+                ch.position(offset);
+                while (offset < segmentSize && (records.isEmpty() || bytes < maxBytes)) {
+                    byte[] record = readRecord(ch, segmentSize - offset);
+                    if (record == null) {
+                        log.log(Level.WARNING, "Corrupt record in {0} at {1}. Skipping rest of segment.",
+                                new Object[] {segmentFile(segment), offset});
+                        offset = segmentSize;
+                        break;
+                    }
+                    records.add(record);
+                    offset += HEADER_SIZE + record.length;
+                    bytes += record.length;
+                }
+            } finally {
+                ch.close();
+            }
+        }
+
+        return new Batch(records, segment, offset);
+    }
+
+    /**
+     * Moves the cursor past the given batch and deletes segments that have been fully consumed.
+     */
+    public synchronized void acknowledge(Batch batch) throws IOException {
+        checkOpen();
+        if (batch.endSegment < readSegment || (batch.endSegment == readSegment && batch.endOffset <= readOffset)) {
+            return; // Already acknowledged, or dropped in the meantime.
+        }
+        readSegment = batch.endSegment;
+        readOffset = batch.endOffset;
+        writeCursor();
+        deleteSegmentsBefore(readSegment);
+    }
+
+    public synchronized boolean isEmpty() throws IOException {
+        checkOpen();
+        return readSegment == currentSegment() && readOffset >= writeSize;
+    }
+
+    public synchronized long getRecordsDropped() {
+        return recordsDropped;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeChannel.force(false);
+        writeChannel.close();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Segment log closed: " + dir);
+        }
+    }
+
+    private boolean isWriteSegmentOld() {
+        return System.currentTimeMillis() - writeStartedAt >= maxSegmentAgeMillis;
+    }
+
+    private long currentSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Long nextSegment(long segment) {
+        int i = segments.indexOf(segment);
+        if (i != -1 && i + 1 < segments.size()) {
+            return segments.get(i + 1);
+        }
+        return null;
+    }
+
+    private long sizeOf(long segment) {
+        if (segment == currentSegment()) {
+            return writeSize;
+        }
+        return segmentFile(segment).length();
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, String.format("%019d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private void rotate() throws IOException {
+        writeChannel.force(false);
+        writeChannel.close();
+        startSegment(currentSegment() + 1);
+    }
+
+    private void startSegment(long segment) throws IOException {
+        writeChannel = FileChannel.open(
+                segmentFile(segment).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writeSize = writeChannel.size();
+        writeStartedAt = System.currentTimeMillis();
+        segments.add(segment);
+    }
+
+    private void dropOldestIfTooBig() throws IOException {
+        while (totalBytes > maxTotalBytes && segments.size() > 1) {
+            long oldest = segments.get(0);
+            long dropped = oldest < readSegment ? 0 : countRecords(oldest, oldest == readSegment ? readOffset : 0);
+            recordsDropped += dropped;
+            log.log(Level.WARNING, "Segment log {0} is over {1} bytes. Dropping {2} unsent records.",
+                    new Object[] {dir, maxTotalBytes, dropped});
+            if (oldest >= readSegment) {
+                readSegment = segments.get(1);
+                readOffset = 0;
+                writeCursor();
+            }
+            deleteSegment(oldest);
+        }
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        while (segments.size() > 1 && segments.get(0) < segment) {
+            deleteSegment(segments.get(0));
+        }
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segmentFile(segment);
+        totalBytes -= file.length();
+        segments.remove(Long.valueOf(segment));
+        if (!file.delete() && file.exists()) {
+            log.log(Level.WARNING, "Failed to delete {0}", file);
+        }
+    }
+
+    private long countRecords(long segment, long fromOffset) throws IOException {
+        long count = 0;
+        long size = sizeOf(segment);
+        FileChannel ch = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+        try {
+            ch.position(fromOffset);
+            long offset = fromOffset;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (offset + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(ch, header);
+                header.flip();
+                offset += HEADER_SIZE + header.getInt();
+                ch.position(offset);
+                count++;
+            }
+        } finally {
+            ch.close();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the next record, or null if it's corrupt or incomplete.
+     */
+    private static byte[] readRecord(FileChannel ch, long available) throws IOException {
+        if (available < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ch, header);
+        header.flip();
+        int length = header.getInt();
+        int expectedCrc = header.getInt();
+        if (length < 0 || length > available - HEADER_SIZE) {
+            return null;
+        }
+
+        byte[] record = new byte[length];
+        readFully(ch, ByteBuffer.wrap(record));
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        return record;
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        log.log(Level.WARNING, "Ignoring unexpected file in segment log: {0}", file);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        if (!segments.isEmpty()) {
+            truncateIncompleteTail(segmentFile(segments.get(segments.size() - 1)));
+        }
+        for (long segment : segments) {
+            totalBytes += segmentFile(segment).length();
+        }
+
+        readCursor();
+    }
+
+    private void truncateIncompleteTail(File file) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = ch.size();
+            long offset = 0;
+            while (offset < size) {
+                byte[] record = readRecord(ch, size - offset);
+                if (record == null) {
+                    break;
+                }
+                offset += HEADER_SIZE + record.length;
+            }
+            if (offset < size) {
+                log.log(Level.WARNING, "Truncating incomplete record at the end of {0}", file);
+                ch.truncate(offset);
+            }
+        } finally {
+            ch.close();
+        }
+    }
+
+    private void readCursor() {
+        File file = new File(dir, CURSOR_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            String[] parts = new String(Files.readAllBytes(file.toPath()), UTF8).trim().split(" ");
+            readSegment = Long.parseLong(parts[0]);
+            readOffset = Long.parseLong(parts[1]);
+        } catch (Exception ex) {
+            log.log(Level.WARNING, "Failed to read segment log cursor. Rereading from the start.", ex);
+            readSegment = 0;
+            readOffset = 0;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        File tmp = new File(dir, CURSOR_FILE + ".tmp");
+        Files.write(tmp.toPath(), (readSegment + " " + readOffset).getBytes(UTF8));
+        Files.move(tmp.toPath(), new File(dir, CURSOR_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) == -1) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package fi.helsinki.cs.tmc.snapshotsLocal;
 
+import fi.helsinki.cs.tmc.core.TmcCore;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.model.CourseDb;
 import fi.helsinki.cs.tmc.snapshots.eventsources.WindowStatechangesEventSource;
 import fi.helsinki.cs.tmc.core.events.TmcEvent;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
@@ -18,13 +22,20 @@ import fi.helsinki.cs.tmc.snapshots.eventsources.SourceSnapshotEventSource;
 import fi.helsinki.cs.tmc.snapshots.eventsources.TmcEventBusEventSource;
 import fi.helsinki.cs.tmc.utilities.TmcSwingUtilities;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class SnapshotsFacade {
 
     private static final Logger log = Logger.getLogger(SnapshotsFacade.class.getName());
 
+    private static final String SPOOL_DIR_NAME = "snapshot-spool";
+    private static final long TEXT_INSERT_CLOSE_TIMEOUT_MILLIS = 1000;
+
     private static SnapshotsFacade instance;
 
     public static void start() {
@@ -52,18 +63,31 @@ public class SnapshotsFacade {
      * We don't want to delay closing NetBeans by then sending snapshots...
      */
     public static void sendNow() {
-        TmcSwingUtilities.ensureEdt(new Runnable() {
+        final SnapshotsFacade facade = instance;
+        final Runnable send = new Runnable() {
             @Override
             public void run() {
-                instance.sender.sendNow();
+                facade.sender.sendNow();
             }
-        });
+        };
+        if (facade.spool != null) {
+            facade.spool.drainAllThen(new Runnable() {
+                @Override
+                public void run() {
+                    TmcSwingUtilities.ensureEdt(send);
+                }
+            });
+        } else {
+            TmcSwingUtilities.ensureEdt(send);
+        }
     }
 
     private TmcCoreSettingsImpl settings;
 
     private EventSendBuffer sender;
     private EventReceiver taggingSender;
+    private SpoolingEventReceiver spool;
+    private EventReceiver spoolingSender;
 
     private EventDeduplicater sourceSnapshotDedup;
 
@@ -96,6 +120,30 @@ public class SnapshotsFacade {
     }
 
 
+    /**
+     * Sends spooled events to the server, blocking until it has accepted them.
+     */
+    private static final class DirectBatchSender implements SpoolingEventReceiver.BatchSender {
+
+        private final String hostId;
+
+        public DirectBatchSender(String hostId) {
+            this.hostId = hostId;
+        }
+
+        @Override
+        public void send(List<LoggableEvent> events) throws Exception {
+            Course course = CourseDb.getInstance().getCurrentCourse();
+            if (course == null) {
+                throw new IllegalStateException("No course selected");
+            }
+            for (LoggableEvent event : events) {
+                event.addMetadata("host_id", hostId);
+            }
+            TmcCore.get().sendSpywareEvents(ProgressObserver.NULL_OBSERVER, course, events).call();
+        }
+    }
+
     public SnapshotsFacade() {
         settings = (TmcCoreSettingsImpl)TmcSettingsHolder.get();
 
@@ -104,8 +152,24 @@ public class SnapshotsFacade {
 
         String hostId = new HostInformationGenerator().updateHostInformation(sender);
         taggingSender = new TaggingEventReceiver(sender, hostId);
-        sourceSnapshotDedup = new EventDeduplicater(taggingSender);
-        sourceSnapshotSource = new SourceSnapshotEventSource(sourceSnapshotDedup);
+
+        // Snapshots and text inserts are bulky, so they wait on disk instead of the heap,
+        // and are sent straight from there so nothing is dropped before the server has it.
+        try {
+            File spoolDir = settings.getConfigRoot().resolve(SPOOL_DIR_NAME).toFile();
+            spool = new SpoolingEventReceiver(new SegmentLog(spoolDir), new DirectBatchSender(hostId), taggingSender);
+            spoolingSender = spool;
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to open snapshot spool. Keeping events in memory.", ex);
+            spool = null;
+            spoolingSender = taggingSender;
+        }
+
+        sourceSnapshotDedup = new EventDeduplicater(spoolingSender);
+        sourceSnapshotSource = new SourceSnapshotEventSource(
+                sourceSnapshotDedup,
+                settings.getSnapshotDebounceMillis(),
+                settings.isSendingIncrementalSnapshots());
         sourceSnapshotSource.startListeningToFileChanges();
 
         projectActionSource = new ProjectActionEventSource(taggingSender);
@@ -117,7 +181,7 @@ public class SnapshotsFacade {
             public void run() {
                 ProjectActionCaptor.addListener(projectActionSource);
                 TmcEventBus.getDefault().subscribeStrongly(tmcEventBusSource);
-                textInsertEventSource = new TextInsertEventSource(taggingSender);
+                textInsertEventSource = new TextInsertEventSource(spoolingSender);
             }
         });
     }
@@ -137,7 +201,25 @@ public class SnapshotsFacade {
 
         sourceSnapshotSource.close();
 
+        // The last text inserts should reach the spool before it's closed,
+        // but they must not hold up shutting down for long.
+        try {
+            if (!textInsertEventSource.awaitTermination(TEXT_INSERT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.log(Level.INFO, "Gave up waiting for the last text inserts.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
         sourceSnapshotDedup.close();
+        // The spool doesn't close the sender, so it's closed exactly once below.
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "Failed to close snapshot spool.", ex);
+            }
+        }
         sender.close();
     }
 
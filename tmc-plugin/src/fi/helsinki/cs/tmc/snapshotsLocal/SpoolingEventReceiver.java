@@ -0,0 +1,192 @@
+package fi.helsinki.cs.tmc.snapshotsLocal;
+
+import fi.helsinki.cs.tmc.snapshots.EventReceiver;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.utilities.ByteArrayGsonSerializer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spills events to a {@link SegmentLog} on disk and sends them in batches
+ * from a background thread.
+ *
+ * <p>
+ * This keeps bulky events such as source snapshots off the heap while
+ * they wait to be sent, and keeps them safe over a crash. A batch is
+ * removed from the log only once the server has accepted it, so events
+ * wait on disk while offline. Events still in the log when NetBeans
+ * closes are sent after the next start.
+ */
+public class SpoolingEventReceiver implements EventReceiver {
+
+    private static final Logger log = Logger.getLogger(SpoolingEventReceiver.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 5 * 1000;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    public static final long MAX_RETRY_DELAY_MILLIS = 10 * 60 * 1000;
+
+    public interface BatchSender {
+        /**
+         * Sends the events and returns once the server has accepted them.
+         */
+        void send(List<LoggableEvent> events) throws Exception;
+    }
+
+    private final SegmentLog segmentLog;
+    private final BatchSender batchSender;
+    private final EventReceiver fallbackReceiver;
+    private final long drainIntervalMillis;
+    private final long maxBatchBytes;
+    private final Gson gson;
+    private final ScheduledExecutorService drainer;
+
+    // Only touched in the drainer thread.
+    private long retryDelay;
+    private long nextAttemptAt;
+
+    /**
+     * @param fallbackReceiver gets events that can't be written to the log.
+     *                         Not closed by {@link #close()}.
+     */
+    public SpoolingEventReceiver(SegmentLog segmentLog, BatchSender batchSender, EventReceiver fallbackReceiver) {
+        this(segmentLog, batchSender, fallbackReceiver, DEFAULT_DRAIN_INTERVAL_MILLIS, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * @param drainIntervalMillis how often a batch is sent.
+     * @param maxBatchBytes roughly how much event data is sent at a time.
+     */
+    public SpoolingEventReceiver(SegmentLog segmentLog, BatchSender batchSender, EventReceiver fallbackReceiver, long drainIntervalMillis, long maxBatchBytes) {
+        this.segmentLog = segmentLog;
+        this.batchSender = batchSender;
+        this.fallbackReceiver = fallbackReceiver;
+        this.drainIntervalMillis = drainIntervalMillis;
+        this.maxBatchBytes = maxBatchBytes;
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
+                .create();
+        this.drainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Snapshot spool drainer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        drainer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drainBatch();
+            }
+        }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void receiveEvent(LoggableEvent event) {
+        try {
+            segmentLog.append(gson.toJson(event).getBytes(UTF8));
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to spool event. Passing it on directly.", ex);
+            fallbackReceiver.receiveEvent(event);
+        }
+    }
+
+    /**
+     * Sends everything in the log in the background, then runs the given
+     * task in the background thread. Stops early if sending fails.
+     */
+    public void drainAllThen(final Runnable then) {
+        drainer.execute(new Runnable() {
+            @Override
+            public void run() {
+                nextAttemptAt = 0;
+                while (drainBatch()) {
+                }
+                then.run();
+            }
+        });
+    }
+
+    /**
+     * Sends one batch and removes it from the log if the server accepted it.
+     * Returns whether a non-empty batch was sent.
+     */
+    private boolean drainBatch() {
+        if (System.currentTimeMillis() < nextAttemptAt) {
+            return false;
+        }
+        SegmentLog.Batch batch;
+        List<LoggableEvent> events = new ArrayList<LoggableEvent>();
+        try {
+            segmentLog.rotateIfOld();
+            batch = segmentLog.read(maxBatchBytes);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to read snapshot spool.", ex);
+            return false;
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        for (byte[] record : batch.getRecords()) {
+            try {
+                events.add(gson.fromJson(new String(record, UTF8), LoggableEvent.class));
+            } catch (RuntimeException ex) {
+                log.log(Level.WARNING, "Dropping unreadable spooled event.", ex);
+            }
+        }
+
+        try {
+            if (!events.isEmpty()) {
+                batchSender.send(events);
+            }
+        } catch (Exception ex) {
+            retryDelay = Math.min(Math.max(retryDelay * 2, drainIntervalMillis), MAX_RETRY_DELAY_MILLIS);
+            nextAttemptAt = System.currentTimeMillis() + retryDelay;
+            log.log(Level.INFO, "Failed to send spooled events. Retrying in {0} ms.", retryDelay);
+            log.log(Level.FINE, "Send failure", ex);
+            return false;
+        }
+        retryDelay = 0;
+
+        try {
+            segmentLog.acknowledge(batch);
+        } catch (IOException ex) {
+            // The batch may be sent again. Duplicates are better than losses.
+            log.log(Level.WARNING, "Failed to acknowledge sent events.", ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops draining and closes the log. Unsent events stay in the log.
+     */
+    @Override
+    public void close() throws IOException {
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        long dropped = segmentLog.getRecordsDropped();
+        if (dropped > 0) {
+            log.log(Level.INFO, "Snapshot spool dropped {0} events because it was full.", dropped);
+        }
+        segmentLog.close();
+    }
+}
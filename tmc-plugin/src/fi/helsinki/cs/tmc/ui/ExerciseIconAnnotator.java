@@ -1,9 +1,11 @@
 package fi.helsinki.cs.tmc.ui;
 
 import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.ExerciseKey;
 import fi.helsinki.cs.tmc.core.events.TmcEventBus;
 import fi.helsinki.cs.tmc.core.events.TmcEventListener;
 import fi.helsinki.cs.tmc.model.CourseDb;
+import fi.helsinki.cs.tmc.model.ExerciseLocator;
 import fi.helsinki.cs.tmc.model.ProjectMediator;
 import fi.helsinki.cs.tmc.model.TmcProjectInfo;
 
@@ -13,6 +15,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -25,6 +31,14 @@ import org.openide.util.ChangeSupport;
 import org.openide.util.ImageUtilities;
 import org.openide.util.lookup.ServiceProvider;
 
+/**
+ * Adds a status dot and a tooltip to the icons of exercise projects.
+ *
+ * <p>
+ * Icons are repainted often, so the status of each exercise and the final
+ * annotated images are cached. Listeners are told to repaint only when
+ * the status of an already shown exercise actually changes.
+ */
 @ServiceProvider(service = ProjectIconAnnotator.class)
 public class ExerciseIconAnnotator implements ProjectIconAnnotator {
 
@@ -36,6 +50,10 @@ public class ExerciseIconAnnotator implements ProjectIconAnnotator {
     private ProjectMediator projectMediator;
     private HashMap<String, Image> iconCache;
 
+    // Guarded by this.
+    private final Map<ExerciseKey, Decoration> decorations;
+    private final Map<Image, Map<Decoration, Image>> annotatedImages;
+
     @SuppressWarnings("LeakingThisInConstructor")
     public ExerciseIconAnnotator() {
         this.eventBus = TmcEventBus.getDefault();
@@ -43,23 +61,101 @@ public class ExerciseIconAnnotator implements ProjectIconAnnotator {
         this.courses = CourseDb.getInstance();
         this.projectMediator = ProjectMediator.getInstance();
         this.iconCache = new HashMap<String, Image>();
+        this.decorations = new HashMap<ExerciseKey, Decoration>();
+        this.annotatedImages = new WeakHashMap<Image, Map<Decoration, Image>>();
 
         eventBus.subscribeDependent(new TmcEventListener() {
-            public void receive(CourseDb.ChangedEvent event) {
+            public void receive(CourseDb.CurrentCourseChangedEvent event) {
+                forgetAllAndUpdateLater();
+            }
+
+            public void receive(CourseDb.ExercisesAddedEvent event) {
+                forgetAllAndUpdateLater();
+            }
+
+            public void receive(CourseDb.ExercisesRemovedEvent event) {
+                forgetAllAndUpdateLater();
+            }
+
+            public void receive(final CourseDb.ExercisesChangedEvent event) {
                 SwingUtilities.invokeLater(new Runnable() {
                     @Override
                     public void run() {
-                        updateAllIcons();
+                        if (refreshDecorations(event.keys)) {
+                            updateAllIcons();
+                        }
                     }
                 });
             }
         }, this);
     }
 
+    /**
+     * What is drawn on an exercise's icon.
+     */
+    private static final class Decoration {
+        private final String iconName; // Null for no dot
+        private final String tooltip;
+        private final long expiresAt; // When a deadline passes and this must be recomputed
+
+        public Decoration(String iconName, String tooltip, long expiresAt) {
+            this.iconName = iconName;
+            this.tooltip = tooltip;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Decoration)) {
+                return false;
+            }
+            Decoration that = (Decoration) obj;
+            return Objects.equals(this.iconName, that.iconName) && this.tooltip.equals(that.tooltip);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(iconName, tooltip);
+        }
+    }
+
+    private void forgetAllAndUpdateLater() {
+        synchronized (this) {
+            decorations.clear();
+            annotatedImages.clear();
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                updateAllIcons();
+            }
+        });
+    }
+
+    /**
+     * Recomputes the decorations of the given exercises that have been shown.
+     * Returns whether any of them changed.
+     */
+    private synchronized boolean refreshDecorations(Set<ExerciseKey> keys) {
+        boolean changed = false;
+        for (ExerciseKey key : keys) {
+            Decoration old = decorations.remove(key);
+            Exercise exercise = courses.getExerciseByKey(key);
+            if (old != null && exercise != null) {
+                Decoration current = decorationForExercise(exercise);
+                decorations.put(key, current);
+                changed |= !current.equals(old);
+            } else if (old != null) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
     @Override
     public Image annotateIcon(Project nbProject, Image origImg, boolean openedNode) {
         TmcProjectInfo project = projectMediator.wrapProject(nbProject);
-        Exercise exercise = projectMediator.tryGetExerciseForProject(project, courses);
+        Exercise exercise = ExerciseLocator.getInstance().findExerciseForProject(project);
         if (exercise == null || !exercise.getCourseName().equals(courses.getCurrentCourseName())) {
             return origImg;
         }
@@ -67,12 +163,56 @@ public class ExerciseIconAnnotator implements ProjectIconAnnotator {
         //TODO: use ImageUtilities.createDisabledImage for expired exercises.
         //Had some very weird problems with that. Try again some day.
 
+        Decoration decoration = getDecoration(exercise);
+        synchronized (this) {
+            Map<Decoration, Image> byDecoration = annotatedImages.get(origImg);
+            if (byDecoration == null) {
+                byDecoration = new HashMap<Decoration, Image>();
+                annotatedImages.put(origImg, byDecoration);
+            }
+            Image img = byDecoration.get(decoration);
+            if (img == null) {
+                img = annotate(origImg, decoration);
+                byDecoration.put(decoration, img);
+            }
+            return img;
+        }
+    }
+
+    private synchronized Decoration getDecoration(Exercise exercise) {
+        Decoration decoration = decorations.get(exercise.getKey());
+        if (decoration == null || decoration.expiresAt <= System.currentTimeMillis()) {
+            decoration = decorationForExercise(exercise);
+            decorations.put(exercise.getKey(), decoration);
+        }
+        return decoration;
+    }
+
+    private Decoration decorationForExercise(Exercise exercise) {
+        return new Decoration(
+                annotationIconNameForExercise(exercise),
+                tooltipForExercise(exercise),
+                nextDeadlineAfterNow(exercise));
+    }
+
+    private long nextDeadlineAfterNow(Exercise exercise) {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Date deadline : new Date[] { exercise.getSoftDeadlineDate(), exercise.getDeadlineDate() }) {
+            if (deadline != null && deadline.getTime() > now) {
+                next = Math.min(next, deadline.getTime());
+            }
+        }
+        return next;
+    }
+
+    private Image annotate(Image origImg, Decoration decoration) {
         Image img = origImg;
         // if (exercise.hasDeadlinePassed()) {
         //      img = ImageUtilities.createDisabledImage(origImg);
         // }
         try {
-            Image annotation = annotationIconForExericse(exercise);
+            Image annotation = annotationIcon(decoration.iconName);
             if (annotation != null) {
                 img = ImageUtilities.mergeImages(img, annotation, 0, 0);
             }
@@ -80,14 +220,10 @@ public class ExerciseIconAnnotator implements ProjectIconAnnotator {
             log.log(Level.WARNING, "Failed to load exercise icon annotation", e);
         }
 
-        String tooltip = tooltipForExercise(exercise);
-        img = ImageUtilities.assignToolTipToImage(img, tooltip);
-
-        return img;
+        return ImageUtilities.assignToolTipToImage(img, decoration.tooltip);
     }
 
-    private Image annotationIconForExericse(Exercise exercise) throws IOException {
-        String name = annotationIconNameForExercise(exercise);
+    private Image annotationIcon(String name) throws IOException {
         if (name != null) {
             if (!iconCache.containsKey(name)) {
                 Image img = ImageIO.read(getClass().getClassLoader().getResource("fi/helsinki/cs/tmc/ui/" + name));
@@ -45,6 +45,7 @@ import javax.swing.SwingUtilities;
     /*package*/ PreferencesPanel() {
         initComponents();
         setUpErrorMsgLocaleSelection();
+        updateHibernationFieldsEnabled();
         updateFields();
     }
     
@@ -165,6 +166,66 @@ import javax.swing.SwingUtilities;
     public void setSendDiagnosticsEnabled(boolean value) {
         sendDiagnostics.setSelected(value);
     }
+
+    @Override
+    public boolean getHibernateProjects() {
+        return hibernateProjectsCheckbox.isSelected();
+    }
+
+    @Override
+    public void setHibernateProjects(boolean value) {
+        hibernateProjectsCheckbox.setSelected(value);
+        updateHibernationFieldsEnabled();
+    }
+
+    @Override
+    public boolean getHibernateCompletedProjects() {
+        return hibernateCompletedCheckbox.isSelected();
+    }
+
+    @Override
+    public void setHibernateCompletedProjects(boolean value) {
+        hibernateCompletedCheckbox.setSelected(value);
+    }
+
+    @Override
+    public boolean getHibernateExpiredProjects() {
+        return hibernateExpiredCheckbox.isSelected();
+    }
+
+    @Override
+    public void setHibernateExpiredProjects(boolean value) {
+        hibernateExpiredCheckbox.setSelected(value);
+    }
+
+    @Override
+    public int getHibernateUntouchedDays() {
+        return (Integer) hibernateUntouchedDaysSpinner.getValue();
+    }
+
+    @Override
+    public void setHibernateUntouchedDays(int days) {
+        hibernateUntouchedDaysSpinner.setValue(days);
+    }
+
+    @Override
+    public int getOpenProjectBudget() {
+        return (Integer) openProjectBudgetSpinner.getValue();
+    }
+
+    @Override
+    public void setOpenProjectBudget(int count) {
+        openProjectBudgetSpinner.setValue(count);
+    }
+
+    private void updateHibernationFieldsEnabled() {
+        boolean enabled = hibernateProjectsCheckbox.isSelected();
+        openProjectBudgetSpinner.setEnabled(enabled);
+        hibernateCompletedCheckbox.setEnabled(enabled);
+        hibernateExpiredCheckbox.setEnabled(enabled);
+        hibernateUntouchedLabel.setEnabled(enabled);
+        hibernateUntouchedDaysSpinner.setEnabled(enabled);
+    }
     
     public void setOrganization(Organization organization) {
         Optional<Organization> oldOrganization = this.settings.getOrganization();
@@ -281,6 +342,12 @@ import javax.swing.SwingUtilities;
         logoutButton = new javax.swing.JButton();
         jSeparator4 = new javax.swing.JSeparator();
         selectedOrganizationLabel = new javax.swing.JLabel();
+        hibernateProjectsCheckbox = new javax.swing.JCheckBox();
+        openProjectBudgetSpinner = new javax.swing.JSpinner();
+        hibernateCompletedCheckbox = new javax.swing.JCheckBox();
+        hibernateExpiredCheckbox = new javax.swing.JCheckBox();
+        hibernateUntouchedLabel = new javax.swing.JLabel();
+        hibernateUntouchedDaysSpinner = new javax.swing.JSpinner();
 
         projectFolderLabel.setLabelFor(projectFolderTextField);
         projectFolderLabel.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.projectFolderLabel.text")); // NOI18N
@@ -361,6 +428,27 @@ import javax.swing.SwingUtilities;
 
         selectedOrganizationLabel.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.selectedOrganizationLabel.text")); // NOI18N
 
+        hibernateProjectsCheckbox.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.hibernateProjectsCheckbox.text")); // NOI18N
+        hibernateProjectsCheckbox.setToolTipText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.hibernateProjectsCheckbox.toolTipText")); // NOI18N
+        hibernateProjectsCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                hibernateProjectsCheckboxActionPerformed(evt);
+            }
+        });
+
+        openProjectBudgetSpinner.setModel(new javax.swing.SpinnerNumberModel(15, 1, 999, 1));
+
+        hibernateCompletedCheckbox.setSelected(true);
+        hibernateCompletedCheckbox.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.hibernateCompletedCheckbox.text")); // NOI18N
+
+        hibernateExpiredCheckbox.setSelected(true);
+        hibernateExpiredCheckbox.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.hibernateExpiredCheckbox.text")); // NOI18N
+
+        hibernateUntouchedLabel.setLabelFor(hibernateUntouchedDaysSpinner);
+        hibernateUntouchedLabel.setText(org.openide.util.NbBundle.getMessage(PreferencesPanel.class, "PreferencesPanel.hibernateUntouchedLabel.text")); // NOI18N
+
+        hibernateUntouchedDaysSpinner.setModel(new javax.swing.SpinnerNumberModel(14, 0, 365, 1));
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -375,7 +463,20 @@ import javax.swing.SwingUtilities;
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addComponent(fixUnoptimalSettings)
-                            .addComponent(sendDiagnostics))
+                            .addComponent(sendDiagnostics)
+                            .addGroup(layout.createSequentialGroup()
+                                .addComponent(hibernateProjectsCheckbox)
+                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(openProjectBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE))
+                            .addGroup(layout.createSequentialGroup()
+                                .addGap(24, 24, 24)
+                                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                                    .addComponent(hibernateCompletedCheckbox)
+                                    .addComponent(hibernateExpiredCheckbox)
+                                    .addGroup(layout.createSequentialGroup()
+                                        .addComponent(hibernateUntouchedLabel)
+                                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                        .addComponent(hibernateUntouchedDaysSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE)))))
                         .addGap(0, 216, Short.MAX_VALUE))
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
@@ -454,6 +555,18 @@ import javax.swing.SwingUtilities;
                 .addComponent(fixUnoptimalSettings)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(sendDiagnostics)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(hibernateProjectsCheckbox)
+                    .addComponent(openProjectBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(hibernateCompletedCheckbox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(hibernateExpiredCheckbox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(hibernateUntouchedLabel)
+                    .addComponent(hibernateUntouchedDaysSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addGap(18, 18, 18)
                 .addComponent(jSeparator3, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addGap(18, 18, 18)
@@ -507,6 +620,10 @@ import javax.swing.SwingUtilities;
         tmcSettings.setSendDiagnostics(getSendDiagnosticsEnabled());
     }//GEN-LAST:event_sendDiagnosticsActionPerformed
 
+    private void hibernateProjectsCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_hibernateProjectsCheckboxActionPerformed
+        updateHibernationFieldsEnabled();
+    }//GEN-LAST:event_hibernateProjectsCheckboxActionPerformed
+
     private void changeOrganizationButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_changeOrganizationButtonActionPerformed
         this.selectedCourseLabel.setText("No course selected");
         
@@ -542,12 +659,18 @@ import javax.swing.SwingUtilities;
     private javax.swing.JLabel errorMsgLocaleLabel;
     private javax.swing.JCheckBox fixUnoptimalSettings;
     private javax.swing.JButton folderChooserBtn;
+    private javax.swing.JCheckBox hibernateCompletedCheckbox;
+    private javax.swing.JCheckBox hibernateExpiredCheckbox;
+    private javax.swing.JCheckBox hibernateProjectsCheckbox;
+    private javax.swing.JSpinner hibernateUntouchedDaysSpinner;
+    private javax.swing.JLabel hibernateUntouchedLabel;
     private javax.swing.JSeparator jSeparator1;
     private javax.swing.JSeparator jSeparator2;
     private javax.swing.JSeparator jSeparator3;
     private javax.swing.JSeparator jSeparator4;
     private javax.swing.JLabel loginLabel;
     private javax.swing.JButton logoutButton;
+    private javax.swing.JSpinner openProjectBudgetSpinner;
     private javax.swing.JLabel organizationLabel;
     private javax.swing.JLabel projectFolderLabel;
     private javax.swing.JTextField projectFolderTextField;
@@ -26,6 +26,26 @@ public interface PreferencesUI {
 
     void setSendDiagnosticsEnabled(boolean value);
 
+    boolean getHibernateProjects();
+
+    void setHibernateProjects(boolean value);
+
+    boolean getHibernateCompletedProjects();
+
+    void setHibernateCompletedProjects(boolean value);
+
+    boolean getHibernateExpiredProjects();
+
+    void setHibernateExpiredProjects(boolean value);
+
+    int getHibernateUntouchedDays();
+
+    void setHibernateUntouchedDays(int days);
+
+    int getOpenProjectBudget();
+
+    void setOpenProjectBudget(int count);
+
     Locale getErrorMsgLocale();
     
     void setProjectDir(String projectDir);
@@ -0,0 +1,420 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the plugin's periodic background jobs.
+ *
+ * <p>
+ * Jobs are started in a background thread of the scheduler's own, never in
+ * the EDT. A job that takes time should start a {@link BgTask} and report its
+ * {@link Outcome} when the task finishes.
+ *
+ * <p>
+ * Intervals get some random jitter so that clients don't hit the server in
+ * lockstep. After a failure, a job's interval is doubled, up to
+ * {@link #MAX_BACKOFF} or the interval itself if that's longer. Jobs that
+ * become due at about the same time are started together. Jobs may ask to
+ * be paused while the user hasn't touched the IDE for a while.
+ */
+public class BackgroundScheduler {
+
+    private static final Logger log = Logger.getLogger(BackgroundScheduler.class.getName());
+
+    /**
+     * Jobs due within this time of each other are started together.
+     */
+    public static final long COALESCE_WINDOW = 60 * 1000;
+
+    public static final long MAX_BACKOFF = 60 * 60 * 1000;
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 60 * 1000;
+
+    private static final double JITTER = 0.1;
+
+    public interface Job {
+        /**
+         * Starts the job. One of the outcome's methods must be called when
+         * the job finishes, possibly in another thread. Throwing counts as failure.
+         */
+        void run(Outcome outcome) throws Exception;
+    }
+
+    public interface Outcome {
+        void succeeded();
+
+        void failed(Throwable cause);
+    }
+
+    /**
+     * Information about a periodic job at one point in time.
+     */
+    public static final class JobStatus {
+        public final String name;
+        public final long intervalMillis;
+        public final long lastRunAt; // 0 if never
+        public final long nextRunAt;
+        public final int consecutiveFailures;
+        public final String lastFailure; // Null if the last run succeeded
+        public final boolean running;
+        public final boolean pausedForIdle;
+
+        private JobStatus(Entry entry) {
+            this.name = entry.name;
+            this.intervalMillis = entry.interval;
+            this.lastRunAt = entry.lastRunAt;
+            this.nextRunAt = entry.nextRunAt;
+            this.consecutiveFailures = entry.consecutiveFailures;
+            this.lastFailure = entry.lastFailure;
+            this.running = entry.running;
+            this.pausedForIdle = entry.pausedForIdle;
+        }
+    }
+
+    private static BackgroundScheduler defaultInstance;
+
+    public static synchronized BackgroundScheduler getDefault() {
+        if (defaultInstance == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "TMC background scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            defaultInstance = new BackgroundScheduler(executor, new Random());
+            defaultInstance.watchUserActivity();
+        }
+        return defaultInstance;
+    }
+
+    private final class Entry {
+        private final String name;
+        private final long interval;
+        private final boolean pauseWhenIdle;
+        private final Job job;
+
+        private long nextRunAt;
+        private long lastRunAt;
+        private int consecutiveFailures;
+        private String lastFailure;
+        private boolean running;
+        private boolean pausedForIdle;
+        private int runNumber; // Identifies the run an outcome belongs to
+
+        public Entry(String name, long interval, boolean pauseWhenIdle, Job job) {
+            this.name = name;
+            this.interval = interval;
+            this.pauseWhenIdle = pauseWhenIdle;
+            this.job = job;
+        }
+
+        private long nextDelay() {
+            long delay = interval;
+            for (int i = 0; i < consecutiveFailures && delay < MAX_BACKOFF; ++i) {
+                delay *= 2;
+            }
+            delay = Math.min(delay, Math.max(interval, MAX_BACKOFF));
+            return jitter(delay);
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Random random;
+
+    // Guarded by this.
+    private final Map<String, Entry> entries;
+    private final Set<String> pendingOneOffs;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+    private long idleTimeout;
+    private volatile boolean pausedJobsExist;
+
+    private volatile long lastUserActivity;
+
+    /*package*/ BackgroundScheduler(ScheduledExecutorService executor, Random random) {
+        this.executor = executor;
+        this.random = random;
+        this.entries = new LinkedHashMap<String, Entry>();
+        this.pendingOneOffs = new HashSet<String>();
+        this.idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        this.lastUserActivity = System.currentTimeMillis();
+    }
+
+    private void watchUserActivity() {
+        try {
+            Toolkit.getDefaultToolkit().addAWTEventListener(new AWTEventListener() {
+                @Override
+                public void eventDispatched(AWTEvent event) {
+                    userActive();
+                }
+            }, AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK);
+        } catch (Exception ex) {
+            log.log(Level.INFO, "Can't watch user activity. Jobs won't be paused when idle.", ex);
+        }
+    }
+
+    /**
+     * Records that the user did something, resuming jobs paused while idle.
+     * Called in the EDT for every key press and mouse click, so it must be cheap.
+     */
+    public void userActive() {
+        lastUserActivity = System.currentTimeMillis();
+        if (pausedJobsExist) {
+            resumePausedJobs();
+        }
+    }
+
+    public long getMillisSinceUserActivity() {
+        return System.currentTimeMillis() - lastUserActivity;
+    }
+
+    public synchronized void setIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeout = idleTimeoutMillis;
+    }
+
+    /**
+     * Schedules a job to run every {@code intervalMillis}, replacing any
+     * previous job with the same name.
+     *
+     * @param pauseWhenIdle whether to skip runs while the user is away.
+     */
+    public synchronized void schedulePeriodically(String name, long initialDelayMillis, long intervalMillis, boolean pauseWhenIdle, Job job) {
+        Entry entry = new Entry(name, intervalMillis, pauseWhenIdle, job);
+        entry.nextRunAt = System.currentTimeMillis() + initialDelayMillis;
+        entries.put(name, entry);
+        rescheduleWakeup();
+    }
+
+    /**
+     * Returns the least time between a successful run of a job with the
+     * given interval finishing and the job starting again, allowing for
+     * jitter and coalescing.
+     */
+    public static long shortestDelay(long intervalMillis) {
+        return Math.max(0, (long) (intervalMillis * (1.0 - JITTER)) - COALESCE_WINDOW);
+    }
+
+    public synchronized void cancel(String name) {
+        entries.remove(name);
+        rescheduleWakeup();
+    }
+
+    /**
+     * Runs a task once in the scheduler's thread, unless a task with the
+     * same name is already waiting to run.
+     */
+    public void runSoon(final String name, final Runnable task) {
+        synchronized (this) {
+            if (!pendingOneOffs.add(name)) {
+                return;
+            }
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (BackgroundScheduler.this) {
+                        pendingOneOffs.remove(name);
+                    }
+                    try {
+                        task.run();
+                    } catch (Exception ex) {
+                        log.log(Level.WARNING, "Background task '" + name + "' failed", ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            synchronized (this) {
+                pendingOneOffs.remove(name);
+            }
+        }
+    }
+
+    public synchronized List<JobStatus> getStatus() {
+        List<JobStatus> result = new ArrayList<JobStatus>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(new JobStatus(entry));
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void resumePausedJobs() {
+        if (!pausedJobsExist) {
+            return;
+        }
+        pausedJobsExist = false;
+        for (Entry entry : entries.values()) {
+            entry.pausedForIdle = false;
+        }
+        rescheduleWakeup();
+    }
+
+    private boolean isIdle(long now) {
+        return now - lastUserActivity >= idleTimeout;
+    }
+
+    /**
+     * Makes sure we wake up when the next job is due.
+     */
+    private void rescheduleWakeup() {
+        long next = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            if (entry.running) {
+                // Time out runs whose outcome got lost.
+                next = Math.min(next, entry.lastRunAt + Math.max(entry.interval, COALESCE_WINDOW));
+            } else if (!entry.pausedForIdle) {
+                next = Math.min(next, entry.nextRunAt);
+            }
+        }
+
+        if (wakeup != null && wakeupAt == next) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        if (next == Long.MAX_VALUE) {
+            return;
+        }
+        long delay = Math.max(0, next - System.currentTimeMillis());
+        try {
+            wakeup = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runDueJobs();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            wakeupAt = next;
+        } catch (RejectedExecutionException ex) {
+            // Shut down.
+        }
+    }
+
+    private void runDueJobs() {
+        List<Entry> toRun = new ArrayList<Entry>();
+        List<Integer> runNumbers = new ArrayList<Integer>();
+        synchronized (this) {
+            wakeup = null;
+            long now = System.currentTimeMillis();
+            boolean idle = isIdle(now);
+            for (Entry entry : entries.values()) {
+                if (entry.running) {
+                    if (now - entry.lastRunAt >= Math.max(entry.interval, COALESCE_WINDOW)) {
+                        log.log(Level.INFO, "Background job ''{0}'' did not report finishing", entry.name);
+                        finished(entry, "Timed out");
+                    }
+                    continue;
+                }
+                if (entry.pausedForIdle || entry.nextRunAt > now + COALESCE_WINDOW) {
+                    continue;
+                }
+                if (entry.pauseWhenIdle && idle) {
+                    entry.pausedForIdle = true;
+                    pausedJobsExist = true;
+                    continue;
+                }
+                entry.running = true;
+                entry.lastRunAt = now;
+                entry.runNumber++;
+                toRun.add(entry);
+                runNumbers.add(entry.runNumber);
+            }
+            rescheduleWakeup();
+        }
+
+        for (int i = 0; i < toRun.size(); ++i) {
+            start(toRun.get(i), runNumbers.get(i));
+        }
+    }
+
+    private void start(final Entry entry, final int runNumber) {
+        Outcome outcome = new Outcome() {
+            @Override
+            public void succeeded() {
+                report(entry, runNumber, null);
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                report(entry, runNumber, String.valueOf(cause));
+                log.log(Level.INFO, "Background job '" + entry.name + "' failed", cause);
+            }
+        };
+        try {
+            entry.job.run(outcome);
+        } catch (Exception ex) {
+            outcome.failed(ex);
+        }
+    }
+
+    private synchronized void report(Entry entry, int runNumber, String failure) {
+        if (entries.get(entry.name) != entry || !entry.running || entry.runNumber != runNumber) {
+            return; // Cancelled, replaced or timed out.
+        }
+        finished(entry, failure);
+        rescheduleWakeup();
+    }
+
+    private void finished(Entry entry, String failure) {
+        entry.running = false;
+        entry.lastFailure = failure;
+        if (failure == null) {
+            entry.consecutiveFailures = 0;
+        } else {
+            entry.consecutiveFailures++;
+        }
+        entry.nextRunAt = System.currentTimeMillis() + entry.nextDelay();
+    }
+
+    private long jitter(long delay) {
+        double factor = 1.0 + JITTER * (2 * random.nextDouble() - 1);
+        return (long) (delay * factor);
+    }
+
+    /**
+     * Reports a job's outcome when a {@link BgTask} finishes.
+     * A cancelled task counts as a success, so it causes no backoff.
+     */
+    public static <T> BgTaskListener<T> outcomeListener(final Outcome outcome) {
+        return new BgTaskListener<T>() {
+            @Override
+            public void bgTaskReady(T result) {
+                outcome.succeeded();
+            }
+
+            @Override
+            public void bgTaskCancelled() {
+                outcome.succeeded();
+            }
+
+            @Override
+            public void bgTaskFailed(Throwable ex) {
+                outcome.failed(ex);
+            }
+        };
+    }
+}
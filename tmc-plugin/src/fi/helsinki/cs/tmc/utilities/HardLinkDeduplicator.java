@@ -0,0 +1,211 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces identical large jar files in different directories with hard
+ * links to one shared copy.
+ *
+ * <p>
+ * The shared copies live in a store directory named by their SHA-256.
+ * The store should be on the same file system as the deduplicated
+ * directories. Where a hard link can't be made, the file is left as it is.
+ *
+ * <p>
+ * Only jars are linked. Writing to a linked file in place would change
+ * every copy, and jars are never edited. Anything that rewrites files in
+ * place, such as extracting an update over a project, must call
+ * {@link #breakLinks(Path)} first.
+ *
+ * <p>
+ * Use {@link #forStore(Path)} so that everything using a store shares one
+ * instance. Separate instances would race, e.g. one could collect a shared
+ * copy another is just linking to.
+ */
+public class HardLinkDeduplicator {
+
+    private static final Logger log = Logger.getLogger(HardLinkDeduplicator.class.getName());
+
+    public static final long DEFAULT_MIN_SIZE = 64 * 1024;
+
+    private static final Map<Path, HardLinkDeduplicator> instances = new HashMap<Path, HardLinkDeduplicator>();
+
+    /**
+     * Returns the shared instance for the store directory.
+     */
+    public static synchronized HardLinkDeduplicator forStore(Path storeDir) {
+        Path key = storeDir.toAbsolutePath().normalize();
+        HardLinkDeduplicator instance = instances.get(key);
+        if (instance == null) {
+            instance = new HardLinkDeduplicator(key, DEFAULT_MIN_SIZE);
+            instances.put(key, instance);
+        }
+        return instance;
+    }
+
+    private final Path storeDir;
+    private final long minSize;
+
+    /*package*/ HardLinkDeduplicator(Path storeDir, long minSize) {
+        this.storeDir = storeDir;
+        this.minSize = minSize;
+    }
+
+    /**
+     * Links the directory's large jars to the shared copies.
+     *
+     * @return the number of bytes saved.
+     */
+    public synchronized long deduplicate(Path dir) throws IOException {
+        long saved = 0;
+        for (Path file : findCandidates(dir)) {
+            try {
+                saved += deduplicateFile(file);
+            } catch (IOException ex) {
+                log.log(Level.FINE, "Failed to deduplicate " + file, ex);
+            }
+        }
+        return saved;
+    }
+
+    private long deduplicateFile(Path file) throws IOException {
+        Files.createDirectories(storeDir);
+        Path shared = storeDir.resolve(hash(file));
+        if (!Files.exists(shared)) {
+            // This file becomes the shared copy.
+            Files.createLink(shared, file);
+            return 0;
+        }
+        if (Files.isSameFile(shared, file) || Files.size(shared) != Files.size(file)) {
+            return 0;
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".link-tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createLink(tmp, shared);
+        } catch (IOException | UnsupportedOperationException ex) {
+            return 0; // E.g. a different file system. Keep the copy.
+        }
+        move(tmp, file);
+        return Files.size(shared);
+    }
+
+    /**
+     * Gives the directory's linked jars private copies again, so they can be
+     * rewritten safely.
+     */
+    public synchronized void breakLinks(Path dir) throws IOException {
+        for (Path file : findCandidates(dir)) {
+            if (!isLinked(file)) {
+                continue;
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".link-tmp");
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            move(tmp, file);
+        }
+    }
+
+    /**
+     * Deletes shared copies no longer linked from anywhere else.
+     * Does nothing on file systems that don't report link counts.
+     */
+    public synchronized void collectGarbage() throws IOException {
+        if (!Files.isDirectory(storeDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDir)) {
+            for (Path file : files) {
+                Integer links = linkCount(file);
+                if (links != null && links <= 1) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private boolean isLinked(Path file) throws IOException {
+        Integer links = linkCount(file);
+        if (links != null) {
+            return links > 1;
+        }
+        Path shared = storeDir.resolve(hash(file));
+        return Files.exists(shared) && Files.isSameFile(shared, file);
+    }
+
+    private static Integer linkCount(Path file) {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private List<Path> findCandidates(Path dir) throws IOException {
+        final List<Path> result = new ArrayList<Path>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && attrs.size() >= minSize && file.getFileName().toString().endsWith(".jar")) {
+                    result.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A set of slash-separated path globs compiled into a trie of path segments.
+ *
+ * <p>
+ * Supported wildcards are {@code *} and {@code ?} within a segment and
+ * {@code **} as a whole segment, matching zero or more segments.
+ * Segments without wildcards are looked up from a hash map, so matching a path
+ * takes time proportional to its length rather than to the number of globs.
+ */
+public class PathGlobSet {
+
+    private static final PathGlobSet EMPTY = new PathGlobSet(new ArrayList<String>());
+
+    private static class Node {
+        private final Map<String, Node> literals = new HashMap<String, Node>();
+        private final List<Pattern> wildcardPatterns = new ArrayList<Pattern>();
+        private final List<Node> wildcardNodes = new ArrayList<Node>();
+        private Node globstar; // Reached by a "**" segment
+        private boolean loops; // True for nodes reached by "**"
+        private boolean terminal;
+
+        private boolean hasOutgoing() {
+            return loops || globstar != null || !literals.isEmpty() || !wildcardNodes.isEmpty();
+        }
+    }
+
+    private final Node root;
+
+    public static PathGlobSet empty() {
+        return EMPTY;
+    }
+
+    public PathGlobSet(Collection<String> globs) {
+        this.root = new Node();
+        for (String glob : globs) {
+            add(glob);
+        }
+    }
+
+    private void add(String glob) {
+        Node node = root;
+        for (String segment : split(glob)) {
+            if (segment.equals("**")) {
+                if (node.globstar == null) {
+                    node.globstar = new Node();
+                    node.globstar.loops = true;
+                }
+                node = node.globstar;
+            } else if (segment.contains("*") || segment.contains("?")) {
+                String regex = segmentToRegex(segment);
+                int i = indexOfPattern(node, regex);
+                if (i == -1) {
+                    node.wildcardPatterns.add(Pattern.compile(regex));
+                    node.wildcardNodes.add(new Node());
+                    i = node.wildcardNodes.size() - 1;
+                }
+                node = node.wildcardNodes.get(i);
+            } else {
+                Node child = node.literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.literals.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Tells whether some glob matches the given path exactly.
+     */
+    public boolean matches(String path) {
+        for (Node node : walk(path)) {
+            if (node.terminal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether some glob could match a path below the given directory.
+     */
+    public boolean mayMatchBelow(String dirPath) {
+        for (Node node : walk(dirPath)) {
+            if (node.hasOutgoing()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return !root.terminal && !root.hasOutgoing();
+    }
+
+    private Set<Node> walk(String path) {
+        Set<Node> states = new HashSet<Node>();
+        addWithGlobstars(states, root);
+        for (String segment : split(path)) {
+            Set<Node> next = new HashSet<Node>();
+            for (Node node : states) {
+                if (node.loops) {
+                    addWithGlobstars(next, node);
+                }
+                Node child = node.literals.get(segment);
+                if (child != null) {
+                    addWithGlobstars(next, child);
+                }
+                for (int i = 0; i < node.wildcardPatterns.size(); ++i) {
+                    if (node.wildcardPatterns.get(i).matcher(segment).matches()) {
+                        addWithGlobstars(next, node.wildcardNodes.get(i));
+                    }
+                }
+            }
+            if (next.isEmpty()) {
+                return next;
+            }
+            states = next;
+        }
+        return states;
+    }
+
+    private static void addWithGlobstars(Set<Node> states, Node node) {
+        while (node != null && states.add(node)) {
+            node = node.globstar;
+        }
+    }
+
+    private static int indexOfPattern(Node node, String regex) {
+        for (int i = 0; i < node.wildcardPatterns.size(); ++i) {
+            if (node.wildcardPatterns.get(i).pattern().equals(regex)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> split(String path) {
+        List<String> result = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+
+    private static String segmentToRegex(String segment) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : segment.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                sb.append(c == '*' ? "[^/]*" : "[^/]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a file some time after it was last marked dirty, so that a burst
+ * of changes costs one write.
+ *
+ * <p>
+ * The content is asked for only when the file is actually written.
+ * Files are replaced atomically by writing a temporary file and renaming it,
+ * so a crash mid-write leaves the previous version intact.
+ */
+public class WriteBehindFile {
+
+    private static final Logger log = Logger.getLogger(WriteBehindFile.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public interface ContentSource {
+        /**
+         * Returns the current content. Called in a background thread
+         * or in the thread calling {@link #flush()}.
+         */
+        String getContent();
+    }
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Write-behind file writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Path file;
+    private final ContentSource source;
+    private final long delayMillis;
+
+    // Guarded by this.
+    private boolean dirty;
+    private ScheduledFuture<?> pendingWrite;
+
+    private final Object writeLock = new Object();
+
+    public WriteBehindFile(Path file, ContentSource source, long delayMillis) {
+        this.file = file;
+        this.source = source;
+        this.delayMillis = delayMillis;
+        this.dirty = false;
+        this.pendingWrite = null;
+    }
+
+    public Path getPath() {
+        return file;
+    }
+
+    /**
+     * Arranges for the file to be written after the delay unless a write is already pending.
+     */
+    public synchronized void markDirty() {
+        dirty = true;
+        if (pendingWrite == null) {
+            pendingWrite = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (WriteBehindFile.this) {
+                        pendingWrite = null;
+                    }
+                    flush();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the file now if it's dirty.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+            }
+
+            try {
+                writeAtomically(file, source.getContent());
+            } catch (Exception ex) {
+                log.log(Level.WARNING, "Failed to write " + file, ex);
+                synchronized (this) {
+                    dirty = true; // Try again on the next flush.
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops any pending write, waiting for one in progress to finish.
+     *
+     * <p>
+     * Used before another instance takes over the same file.
+     */
+    public void cancel() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                dirty = false;
+                if (pendingWrite != null) {
+                    pendingWrite.cancel(false);
+                    pendingWrite = null;
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Replaces the file's content via a synced temporary file and a rename.
+     */
+    public static void writeAtomically(Path file, String content) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(tmp.toFile());
+        try {
+            out.write(content.getBytes(UTF8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package fi.helsinki.cs.tmc.utilities.zip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zips only the files that have changed since the previous snapshot
+ * recorded in a {@link SnapshotManifest}.
+ *
+ * <p>
+ * Files whose size and modification time match the manifest are skipped
+ * without being read. Other files are hashed and included only if their
+ * content actually differs. Every so often a full baseline snapshot is taken
+ * so that the deltas remain recoverable.
+ *
+ * <p>
+ * The manifest only changes when a result is {@linkplain Result#commit() committed},
+ * which callers do once the snapshot has been delivered. A snapshot that is lost
+ * thus leaves its changes to the next one.
+ */
+public class IncrementalZipper {
+
+    public static final class Result {
+        private final SnapshotManifest manifest;
+        private final Map<String, SnapshotManifest.Entry> newEntries;
+        private final byte[] data;
+        private final boolean full;
+        private final List<String> changedPaths;
+        private final List<String> deletedPaths;
+
+        private Result(SnapshotManifest manifest, Map<String, SnapshotManifest.Entry> newEntries, byte[] data, boolean full, List<String> changedPaths, List<String> deletedPaths) {
+            this.manifest = manifest;
+            this.newEntries = newEntries;
+            this.data = data;
+            this.full = full;
+            this.changedPaths = Collections.unmodifiableList(changedPaths);
+            this.deletedPaths = Collections.unmodifiableList(deletedPaths);
+        }
+
+        /**
+         * The zip. For deltas this contains only the changed and added files.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+
+        public List<String> getChangedPaths() {
+            return changedPaths;
+        }
+
+        /**
+         * Zip paths of files that were in the previous snapshot but no longer exist.
+         */
+        public List<String> getDeletedPaths() {
+            return deletedPaths;
+        }
+
+        /**
+         * Tells whether this is a delta with nothing in it.
+         */
+        public boolean isEmpty() {
+            return !full && changedPaths.isEmpty() && deletedPaths.isEmpty();
+        }
+
+        /**
+         * Records this snapshot in the manifest, making it the base of the next delta.
+         *
+         * <p>
+         * Call this only once the snapshot has been delivered, while still
+         * synchronized on the manifest.
+         */
+        public void commit() {
+            manifest.update(newEntries, full);
+        }
+    }
+
+    private final File rootDir;
+    private final RecursiveZipper.ZippingDecider zippingDecider;
+
+    public IncrementalZipper(File rootDir, RecursiveZipper.ZippingDecider zippingDecider) {
+        this.rootDir = rootDir;
+        this.zippingDecider = zippingDecider;
+    }
+
+    /**
+     * Zips the changes since the snapshot described by the manifest.
+     *
+     * <p>
+     * The manifest is left untouched until the result is committed.
+     */
+    public Result zipChanges(SnapshotManifest manifest) throws IOException {
+        boolean full = manifest.isFullSnapshotDue();
+        ManifestDecider decider = new ManifestDecider(manifest, full);
+
+        byte[] data = new RecursiveZipper(rootDir, decider).zipProjectSources();
+
+        List<String> deleted = new ArrayList<String>();
+        for (String zipPath : manifest.getEntries().keySet()) {
+            if (!decider.newEntries.containsKey(zipPath)) {
+                deleted.add(zipPath);
+            }
+        }
+        Collections.sort(deleted);
+
+        return new Result(manifest, decider.newEntries, data, full, decider.changed, deleted);
+    }
+
+    private class ManifestDecider implements RecursiveZipper.ZippingDecider {
+        private final SnapshotManifest manifest;
+        private final boolean full;
+        private final Map<String, SnapshotManifest.Entry> newEntries;
+        private final List<String> changed;
+
+        public ManifestDecider(SnapshotManifest manifest, boolean full) {
+            this.manifest = manifest;
+            this.full = full;
+            this.newEntries = new HashMap<String, SnapshotManifest.Entry>();
+            this.changed = new ArrayList<String>();
+        }
+
+        @Override
+        public boolean shouldZip(String zipPath) {
+            Path file = new File(rootDir.getParentFile(), zipPath).toPath();
+            try {
+                return shouldZip(zipPath, file, Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean shouldZip(String zipPath, Path file, BasicFileAttributes attrs) {
+            if (!zippingDecider.shouldZip(zipPath, file, attrs)) {
+                return false;
+            }
+            if (attrs.isDirectory()) {
+                return true; // Must recurse into directories to find changed files.
+            }
+
+            long size = attrs.size();
+            long lastModified = attrs.lastModifiedTime().toMillis();
+
+            SnapshotManifest.Entry old = manifest.get(zipPath);
+            SnapshotManifest.Entry entry;
+            if (old != null && old.hasSameStatAs(size, lastModified)) {
+                entry = old;
+            } else {
+                entry = new SnapshotManifest.Entry(size, lastModified, hashFile(file.toFile()));
+            }
+            newEntries.put(zipPath, entry);
+
+            boolean isChanged = old == null || !old.hash.equals(entry.hash);
+            if (isChanged) {
+                changed.add(zipPath);
+            }
+            return full || isChanged;
+        }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath) {
+            return zippingDecider.shouldLookInside(dirZipPath);
+        }
+
+        @Override
+        public boolean shouldLookInside(String dirZipPath, Path dir, BasicFileAttributes attrs) {
+            return zippingDecider.shouldLookInside(dirZipPath, dir, attrs);
+        }
+    }
+
+    private static String hashFile(File file) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        byte[] buf = new byte[8192];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    digest.update(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            // Unreadable right now. Treat as changed so the zipper gets to deal with it.
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+}
@@ -5,13 +5,39 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.IOUtils;
 
 public class RecursiveZipper {
+    // Below this many bytes of files, handing work to the pool costs more than it saves.
+    private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+
     private File rootDir;
     private ZippingDecider zippingDecider;
+    private ForkJoinPool pool;
     
     public interface ZippingDecider {
         /**
@@ -21,6 +47,35 @@ public class RecursiveZipper {
          * Directory paths always end in a slash.
          */
         boolean shouldZip(String zipPath);
+
+        /**
+         * Like {@link #shouldZip(String)}, but also gets the file and the attributes
+         * the zipper already read for it while walking the tree.
+         *
+         * <p>
+         * Implementations should use the attributes instead of querying the file
+         * system again. The default implementation ignores them.
+         */
+        default boolean shouldZip(String zipPath, Path file, BasicFileAttributes attrs) {
+            return shouldZip(zipPath);
+        }
+
+        /**
+         * Tells whether to look for files to zip in a directory that
+         * {@link #shouldZip(String)} rejected. The directory itself is then
+         * zipped only if something in it is. The default implementation says no.
+         */
+        default boolean shouldLookInside(String dirZipPath) {
+            return false;
+        }
+
+        /**
+         * Like {@link #shouldLookInside(String)}, but also gets the directory
+         * and its attributes. The default implementation ignores them.
+         */
+        default boolean shouldLookInside(String dirZipPath, Path dir, BasicFileAttributes attrs) {
+            return shouldLookInside(dirZipPath);
+        }
     }
     
     public static final ZippingDecider ZIP_ALL_THE_THINGS = new ZippingDecider() {
@@ -33,66 +88,257 @@ public class RecursiveZipper {
     public RecursiveZipper(File rootDir, ZippingDecider zippingDecider) {
         this.rootDir = rootDir;
         this.zippingDecider = zippingDecider;
+        this.pool = null;
+    }
+
+    /**
+     * Makes the zipper read and deflate files concurrently in the given pool.
+     *
+     * <p>
+     * The pool is the caller's, e.g. one made with {@link #newZippingPool}.
+     * Projects with less than a megabyte of files are still zipped serially.
+     * Parallel output is deterministic but not byte-for-byte the same as
+     * serial output. Pass null to zip serially again.
+     */
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Makes a pool of daemon threads for {@link #setParallel}.
+     */
+    public static ForkJoinPool newZippingPool(final String name, int parallelism) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(1);
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(name + " " + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return new ForkJoinPool(parallelism, factory, null, false);
     }
     
     /**
      * Zip up a project directory, only including stuff decided by the {@link ZippingDecider}.
+     *
+     * <p>
+     * Prefer {@link #zipTo(OutputStream)} when the result needn't be in memory.
      */
     public byte[] zipProjectSources() throws IOException {
+        ByteArrayOutputStream zipBuffer = new ByteArrayOutputStream();
+        zipTo(zipBuffer);
+        return zipBuffer.toByteArray();
+    }
+
+    /**
+     * Zips the project directory into the given stream.
+     *
+     * <p>
+     * The stream is not closed. When zipping serially, heap use is constant
+     * regardless of project size.
+     */
+    public void zipTo(OutputStream out) throws IOException {
         if (!rootDir.exists() || !rootDir.isDirectory()) {
             throw new FileNotFoundException("Root directory " + rootDir + " not found for zipping!");
         }
-        
-        ByteArrayOutputStream zipBuffer = new ByteArrayOutputStream();
-        ZipOutputStream zos = new ZipOutputStream(zipBuffer);
-        
-        try {
-            zipRecursively(rootDir, zos, "");
-        } finally {
-            zos.close();
+
+        List<Entry> entries = collectEntries();
+
+        if (pool != null && totalSize(entries) >= PARALLEL_THRESHOLD) {
+            ZipStreamWriter writer = new ZipStreamWriter(out);
+            writeInParallel(entries, writer);
+            writer.finish();
+        } else {
+            ZipOutputStream zos = new ZipOutputStream(out);
+            writeSerially(entries, zos);
+            zos.finish();
+            zos.flush();
         }
+    }
 
-        return zipBuffer.toByteArray();
+    /**
+     * Zips the project directory into the given channel, e.g. a {@code FileChannel}.
+     *
+     * <p>
+     * The channel is not closed.
+     */
+    public void zipTo(WritableByteChannel channel) throws IOException {
+        zipTo(Channels.newOutputStream(channel));
     }
 
-    private void writeEntry(File file, ZipOutputStream zos, String zipPath) throws IOException {
-        zos.putNextEntry(new ZipEntry(zipPath + "/" + file.getName()));
+    private static class Entry {
+        private final String zipPath;
+        private final File file;
+        private final boolean isDir;
+        private final long lastModified;
+        private final long size;
+
+        public Entry(String zipPath, Path file, BasicFileAttributes attrs) {
+            this.zipPath = zipPath;
+            this.file = file.toFile();
+            this.isDir = attrs.isDirectory();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.isDirectory() ? 0 : attrs.size();
+        }
+    }
 
-        FileInputStream in = new FileInputStream(file);
-        IOUtils.copy(in, zos);
-        in.close();
-        zos.closeEntry();
+    private static long totalSize(List<Entry> entries) {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.size;
+        }
+        return total;
     }
 
     /**
-     * Zips a directory recursively.
+     * Lists the entries to zip in the order they will be zipped.
+     *
+     * <p>
+     * Each file is stat'ed once, by the walk, and the attributes are
+     * handed to the {@link ZippingDecider}.
      */
-    private void zipRecursively(File dir, ZipOutputStream zos, String parentZipPath) throws IOException {
-        String thisDirZipPath;
-        if (parentZipPath.isEmpty()) {
-            thisDirZipPath = dir.getName();
-        } else {
-            thisDirZipPath = parentZipPath + "/" + dir.getName();
+    private List<Entry> collectEntries() throws IOException {
+        final Path rootPath = rootDir.toPath();
+        final String rootZipPath = rootDir.getName();
+        final List<Entry> entries = new ArrayList<Entry>();
+        // Directories we only looked inside, to be added before the first entry found in them.
+        final Deque<Entry> pendingDirs = new ArrayDeque<Entry>();
+
+        EnumSet<FileVisitOption> options = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+        Files.walkFileTree(rootPath, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(rootPath)) {
+                    entries.add(new Entry(rootZipPath + "/", dir, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String zipPath = zipPathOf(dir) + "/";
+                if (zippingDecider.shouldZip(zipPath, dir, attrs)) {
+                    add(new Entry(zipPath, dir, attrs));
+                    return FileVisitResult.CONTINUE;
+                } else if (zippingDecider.shouldLookInside(zipPath, dir, attrs)) {
+                    pendingDirs.addLast(new Entry(zipPath, dir, attrs));
+                    return FileVisitResult.CONTINUE;
+                } else {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String zipPath = zipPathOf(file);
+                if (zippingDecider.shouldZip(zipPath, file, attrs)) {
+                    add(new Entry(zipPath, file, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (!pendingDirs.isEmpty() && pendingDirs.peekLast().file.equals(dir.toFile())) {
+                    pendingDirs.removeLast(); // Nothing in it was zipped.
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Deleted while we were zipping, unreadable or a symlink loop. Skip it.
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void add(Entry entry) {
+                entries.addAll(pendingDirs);
+                pendingDirs.clear();
+                entries.add(entry);
+            }
+
+            private String zipPathOf(Path path) {
+                StringBuilder sb = new StringBuilder(rootZipPath);
+                for (Path part : rootPath.relativize(path)) {
+                    sb.append('/').append(part.toString());
+                }
+                return sb.toString();
+            }
+        });
+
+        return entries;
+    }
+
+    // Timestamps come from the files rather than the clock,
+    // so that zipping an unchanged project always gives the same bytes.
+    private void writeSerially(List<Entry> entries, ZipOutputStream zos) throws IOException {
+        for (Entry entry : entries) {
+            ZipEntry zipEntry = new ZipEntry(entry.zipPath);
+            zipEntry.setTime(entry.lastModified);
+            zos.putNextEntry(zipEntry);
+            if (!entry.isDir) {
+                InputStream in = new FileInputStream(entry.file);
+                try {
+                    IOUtils.copy(in, zos);
+                } finally {
+                    in.close();
+                }
+            }
+            zos.closeEntry();
         }
+    }
 
-        // Create an entry for the directory
-        zos.putNextEntry(new ZipEntry(thisDirZipPath + "/"));
-        zos.closeEntry();
+    /**
+     * Deflates files in the pool a window at a time and writes them in order,
+     * so at most a window's worth of deflated data is held in memory.
+     */
+    private void writeInParallel(List<Entry> entries, ZipStreamWriter writer) throws IOException {
+        int windowSize = pool.getParallelism() * 4;
+        for (int start = 0; start < entries.size(); start += windowSize) {
+            List<Entry> window = entries.subList(start, Math.min(start + windowSize, entries.size()));
 
-        File[] files = dir.listFiles();
-        for (File file : files) {
-            boolean isDir = file.isDirectory();
-            String zipPath = thisDirZipPath + "/" + file.getName();
-            if (isDir) {
-                zipPath += "/";
+            List<ForkJoinTask<ZipStreamWriter.DeflatedData>> tasks = new ArrayList<ForkJoinTask<ZipStreamWriter.DeflatedData>>();
+            for (final Entry entry : window) {
+                if (entry.isDir) {
+                    tasks.add(null);
+                } else {
+                    tasks.add(pool.submit(new Callable<ZipStreamWriter.DeflatedData>() {
+                        @Override
+                        public ZipStreamWriter.DeflatedData call() throws IOException {
+                            InputStream in = new FileInputStream(entry.file);
+                            try {
+                                return ZipStreamWriter.deflateToMemory(in);
+                            } finally {
+                                in.close();
+                            }
+                        }
+                    }));
+                }
             }
-            if (zippingDecider.shouldZip(zipPath)) {
-                if (isDir) {
-                    zipRecursively(file, zos, thisDirZipPath);
+
+            for (int i = 0; i < window.size(); ++i) {
+                Entry entry = window.get(i);
+                if (entry.isDir) {
+                    writer.writeDirectory(entry.zipPath, entry.lastModified);
                 } else {
-                    writeEntry(file, zos, thisDirZipPath);
+                    writer.writeFile(entry.zipPath, entry.lastModified, join(tasks.get(i)));
                 }
             }
         }
     }
+
+    private static ZipStreamWriter.DeflatedData join(ForkJoinTask<ZipStreamWriter.DeflatedData> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package fi.helsinki.cs.tmc.utilities.zip;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the size, modification time and content hash of each file
+ * in the previous snapshot of a project.
+ *
+ * <p>
+ * Used by {@link IncrementalZipper} to decide which files have changed.
+ * Not thread-safe; callers must synchronize on the manifest.
+ */
+public class SnapshotManifest {
+
+    public static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 20;
+
+    public static final class Entry {
+        public final long size;
+        public final long lastModified;
+        public final String hash;
+
+        public Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public boolean hasSameStatAs(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    private final int fullSnapshotInterval;
+    private Map<String, Entry> entries;
+    private int deltasSinceFullSnapshot;
+    private boolean hasBaseline;
+
+    public SnapshotManifest() {
+        this(DEFAULT_FULL_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * @param fullSnapshotInterval how many delta snapshots may follow a full one
+     * before the next full baseline is taken.
+     */
+    public SnapshotManifest(int fullSnapshotInterval) {
+        this.fullSnapshotInterval = fullSnapshotInterval;
+        this.entries = Collections.emptyMap();
+        this.deltasSinceFullSnapshot = 0;
+        this.hasBaseline = false;
+    }
+
+    public Entry get(String zipPath) {
+        return entries.get(zipPath);
+    }
+
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Tells whether the next snapshot should be a full baseline instead of a delta.
+     */
+    public boolean isFullSnapshotDue() {
+        return !hasBaseline || deltasSinceFullSnapshot >= fullSnapshotInterval;
+    }
+
+    /**
+     * Replaces the manifest's contents after a snapshot has been delivered.
+     */
+    /*package*/ void update(Map<String, Entry> newEntries, boolean wasFull) {
+        this.entries = new HashMap<String, Entry>(newEntries);
+        if (wasFull) {
+            this.hasBaseline = true;
+            this.deltasSinceFullSnapshot = 0;
+        } else {
+            this.deltasSinceFullSnapshot++;
+        }
+    }
+
+    /**
+     * Forces the next snapshot to be a full one, e.g. when it's unknown
+     * whether the previous one was delivered.
+     */
+    public void reset() {
+        this.entries = Collections.emptyMap();
+        this.hasBaseline = false;
+        this.deltasSinceFullSnapshot = 0;
+    }
+}
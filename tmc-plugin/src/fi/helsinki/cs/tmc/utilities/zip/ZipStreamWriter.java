@@ -0,0 +1,328 @@
+package fi.helsinki.cs.tmc.utilities.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A minimal zip writer for file entries deflated ahead of time, possibly
+ * in other threads. Only used when zipping in parallel.
+ *
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} always deflates entries itself,
+ * so it can't be used for that. File entries are written with a data
+ * descriptor, as {@code ZipOutputStream} does. Zip64 records are written like {@code ZipOutputStream} writes them, only
+ * when there are too many entries or too much data for the plain format.
+ */
+/*package*/ class ZipStreamWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    // Counts and sizes at or above these are stored in Zip64 records.
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Zipping threads are few and long-lived, so per-thread buffers are enough of a pool.
+    // Deflaters hold native memory, so they are made per entry and ended right away instead.
+    private static final ThreadLocal<byte[]> inBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final ThreadLocal<byte[]> outBuffer = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * An entry's deflated data, computed by {@link #deflateToMemory}.
+     */
+    /*package*/ static final class DeflatedData {
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final byte[] data; // null when already streamed out
+
+        private DeflatedData(long crc, long size, long compressedSize, byte[] data) {
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+        }
+    }
+
+    private static final class CentralEntry {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long offset;
+
+        private CentralEntry(byte[] name, int flags, int method, int dosTime, long crc, long size, long compressedSize, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+
+    private final OutputStream out;
+    private final List<CentralEntry> entries;
+    private long written;
+
+    public ZipStreamWriter(OutputStream out) {
+        this.out = out;
+        this.entries = new ArrayList<CentralEntry>();
+        this.written = 0;
+    }
+
+    /**
+     * Deflates the input into memory. Thread-safe.
+     */
+    public static DeflatedData deflateToMemory(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DeflatedData stats = deflate(in, buffer);
+        return new DeflatedData(stats.crc, stats.size, stats.compressedSize, buffer.toByteArray());
+    }
+
+    public void writeDirectory(String name, long lastModified) throws IOException {
+        byte[] nameBytes = name.getBytes(UTF8);
+        int dosTime = toDosTime(lastModified);
+
+        entries.add(new CentralEntry(nameBytes, FLAG_UTF8, METHOD_STORED, dosTime, 0, 0, 0, written));
+        writeLocalHeader(nameBytes, FLAG_UTF8, METHOD_STORED, dosTime);
+    }
+
+    /**
+     * Writes a file entry whose data was deflated beforehand with {@link #deflateToMemory}.
+     */
+    public void writeFile(String name, long lastModified, DeflatedData deflated) throws IOException {
+        long offset = startFile(name, lastModified);
+        write(deflated.data, 0, deflated.data.length);
+        finishFile(name, lastModified, offset, deflated);
+    }
+
+    /**
+     * Writes the central directory. Does not close the underlying stream.
+     */
+    public void finish() throws IOException {
+        long centralStart = written;
+        for (CentralEntry e : entries) {
+            writeCentralHeader(e);
+        }
+        long centralSize = written - centralStart;
+
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralSize >= ZIP64_MAGIC || centralStart >= ZIP64_MAGIC) {
+            long zip64EndStart = written;
+            writeInt(ZIP64_END_SIG);
+            writeLong(44); // size of the rest of this record
+            writeShort(VERSION_ZIP64); // version made by
+            writeShort(VERSION_ZIP64); // version needed
+            writeInt(0); // this disk
+            writeInt(0); // central directory disk
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralStart);
+
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0); // disk of the Zip64 end record
+            writeLong(zip64EndStart);
+            writeInt(1); // total disks
+        }
+
+        writeInt(END_SIG);
+        writeShort(0); // this disk
+        writeShort(0); // central directory disk
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralSize, ZIP64_MAGIC));
+        writeInt(Math.min(centralStart, ZIP64_MAGIC));
+        writeShort(0); // comment length
+        out.flush();
+    }
+
+    /**
+     * Writes a central directory header. Sizes and offsets too large for it
+     * go into a Zip64 extra field instead.
+     */
+    private void writeCentralHeader(CentralEntry e) throws IOException {
+        boolean bigSize = e.size >= ZIP64_MAGIC;
+        boolean bigCompressedSize = e.compressedSize >= ZIP64_MAGIC;
+        boolean bigOffset = e.offset >= ZIP64_MAGIC;
+        int extraDataLength = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0) + (bigOffset ? 8 : 0);
+        int version = (extraDataLength > 0) ? VERSION_ZIP64 : VERSION;
+
+        writeInt(CENTRAL_HEADER_SIG);
+        writeShort(version); // version made by
+        writeShort(version); // version needed
+        writeShort(e.flags);
+        writeShort(e.method);
+        writeInt(e.dosTime);
+        writeInt(e.crc);
+        writeInt(bigCompressedSize ? ZIP64_MAGIC : e.compressedSize);
+        writeInt(bigSize ? ZIP64_MAGIC : e.size);
+        writeShort(e.name.length);
+        writeShort(extraDataLength > 0 ? 4 + extraDataLength : 0); // extra length
+        writeShort(0); // comment length
+        writeShort(0); // disk number
+        writeShort(0); // internal attributes
+        writeInt(0); // external attributes
+        writeInt(bigOffset ? ZIP64_MAGIC : e.offset);
+        write(e.name, 0, e.name.length);
+
+        if (extraDataLength > 0) {
+            // The spec fixes the order of these and includes only the ones that overflowed.
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(extraDataLength);
+            if (bigSize) {
+                writeLong(e.size);
+            }
+            if (bigCompressedSize) {
+                writeLong(e.compressedSize);
+            }
+            if (bigOffset) {
+                writeLong(e.offset);
+            }
+        }
+    }
+
+    private long startFile(String name, long lastModified) throws IOException {
+        long offset = written;
+        writeLocalHeader(name.getBytes(UTF8), FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, METHOD_DEFLATED, toDosTime(lastModified));
+        return offset;
+    }
+
+    private void finishFile(String name, long lastModified, long offset, DeflatedData stats) throws IOException {
+        writeInt(DATA_DESCRIPTOR_SIG);
+        writeInt(stats.crc);
+        if (stats.compressedSize >= ZIP64_MAGIC || stats.size >= ZIP64_MAGIC) {
+            // Readers tell this apart by the amount of data they inflated.
+            writeLong(stats.compressedSize);
+            writeLong(stats.size);
+        } else {
+            writeInt(stats.compressedSize);
+            writeInt(stats.size);
+        }
+
+        entries.add(new CentralEntry(
+                name.getBytes(UTF8),
+                FLAG_UTF8 | FLAG_DATA_DESCRIPTOR,
+                METHOD_DEFLATED,
+                toDosTime(lastModified),
+                stats.crc,
+                stats.size,
+                stats.compressedSize,
+                offset));
+    }
+
+    private void writeLocalHeader(byte[] name, int flags, int method, int dosTime) throws IOException {
+        writeInt(LOCAL_HEADER_SIG);
+        writeShort(VERSION);
+        writeShort(flags);
+        writeShort(method);
+        writeInt(dosTime);
+        writeInt(0); // crc, in data descriptor or zero for directories
+        writeInt(0); // compressed size
+        writeInt(0); // size
+        writeShort(name.length);
+        writeShort(0); // extra length
+        write(name, 0, name.length);
+    }
+
+    /**
+     * Deflates the input into the output, returning the entry's checksum and sizes.
+     */
+    private static DeflatedData deflate(InputStream in, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            CRC32 crc = new CRC32();
+            byte[] inBuf = inBuffer.get();
+            byte[] outBuf = outBuffer.get();
+            long size = 0;
+
+            int n;
+            while ((n = in.read(inBuf)) != -1) {
+                crc.update(inBuf, 0, n);
+                size += n;
+                deflater.setInput(inBuf, 0, n);
+                while (!deflater.needsInput()) {
+                    int c = deflater.deflate(outBuf);
+                    out.write(outBuf, 0, c);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int c = deflater.deflate(outBuf);
+                out.write(outBuf, 0, c);
+            }
+            return new DeflatedData(crc.getValue(), size, deflater.getBytesWritten(), null);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int toDosTime(long millis) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(millis);
+        int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00
+        }
+        return ((year - 1980) << 25)
+                | ((cal.get(Calendar.MONTH) + 1) << 21)
+                | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+                | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+                | (cal.get(Calendar.MINUTE) << 5)
+                | (cal.get(Calendar.SECOND) >> 1);
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        out.write((int) (v & 0xff));
+        out.write((int) ((v >>> 8) & 0xff));
+        out.write((int) ((v >>> 16) & 0xff));
+        out.write((int) ((v >>> 24) & 0xff));
+        written += 4;
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xffffffffL);
+        writeInt(v >>> 32);
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+}
@@ -0,0 +1,108 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BulkExerciseDownloaderTest {
+    private CourseDb courseDb;
+    private ProjectMediator projectMediator;
+    private List<Exercise> exercises;
+
+    private AtomicInteger running;
+    private AtomicInteger maxRunning;
+    private Map<Exercise, AtomicInteger> attempts;
+    private Map<Exercise, Integer> failuresBeforeSuccess;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        courseDb = mock(CourseDb.class);
+        projectMediator = mock(ProjectMediator.class);
+        when(projectMediator.tryGetProjectsForExercises(anyCollection())).thenAnswer(invocation -> {
+            Map<Exercise, TmcProjectInfo> result = new HashMap<Exercise, TmcProjectInfo>();
+            for (Exercise ex : (Collection<Exercise>) invocation.getArguments()[0]) {
+                result.put(ex, mock(TmcProjectInfo.class));
+            }
+            return result;
+        });
+
+        exercises = new ArrayList<Exercise>();
+        for (int i = 0; i < 20; ++i) {
+            Exercise ex = mock(Exercise.class);
+            when(ex.getName()).thenReturn("ex" + i);
+            exercises.add(ex);
+        }
+
+        running = new AtomicInteger();
+        maxRunning = new AtomicInteger();
+        attempts = new ConcurrentHashMap<Exercise, AtomicInteger>();
+        failuresBeforeSuccess = new HashMap<Exercise, Integer>();
+    }
+
+    private BulkExerciseDownloader downloader() {
+        BulkExerciseDownloader.Fetcher fetcher = new BulkExerciseDownloader.Fetcher() {
+            @Override
+            public void fetch(Exercise exercise) throws Exception {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try {
+                    Thread.sleep(5);
+                    attempts.putIfAbsent(exercise, new AtomicInteger());
+                    int attempt = attempts.get(exercise).incrementAndGet();
+                    Integer failures = failuresBeforeSuccess.get(exercise);
+                    if (failures != null && attempt <= failures) {
+                        throw new RuntimeException("connection reset");
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        return new BulkExerciseDownloader(exercises, ProgressObserver.NULL_OBSERVER, fetcher, courseDb, projectMediator)
+                .setConcurrency(3)
+                .setRetries(3, 1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void itDownloadsAllWithBoundedConcurrencyAndRecordsChecksumsOnce() throws Exception {
+        BulkExerciseDownloader.Result result = downloader().call();
+
+        assertEquals(exercises.size(), result.projects.size());
+        assertTrue(result.failures.isEmpty());
+        assertTrue(maxRunning.get() <= 3);
+        verify(courseDb, times(1)).exercisesDownloaded(anyCollection());
+    }
+
+    @Test
+    public void itRetriesFailedDownloads() throws Exception {
+        failuresBeforeSuccess.put(exercises.get(0), 2);
+
+        BulkExerciseDownloader.Result result = downloader().call();
+
+        assertTrue(result.failures.isEmpty());
+        assertEquals(3, attempts.get(exercises.get(0)).get());
+    }
+
+    @Test
+    public void itReportsDownloadsThatKeepFailing() throws Exception {
+        failuresBeforeSuccess.put(exercises.get(0), 10);
+
+        BulkExerciseDownloader.Result result = downloader().call();
+
+        assertEquals(1, result.failures.size());
+        assertTrue(result.failures.containsKey(exercises.get(0)));
+        assertEquals(exercises.size() - 1, result.projects.size());
+    }
+}
@@ -0,0 +1,155 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.events.TmcEvent;
+import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.core.persistance.ConfigFileIo;
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class CourseDbTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TempTestDir tempDir;
+    private Path dir;
+    private TmcEventBus eventBus;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        dir = tempDir.get().toPath().resolve("CourseDb");
+        eventBus = mock(TmcEventBus.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tempDir.destroy();
+    }
+
+    private Course course(String name, String... exerciseNames) {
+        Course course = new Course(name);
+        List<Exercise> exercises = new ArrayList<Exercise>();
+        for (String exerciseName : exerciseNames) {
+            exercises.add(new Exercise(exerciseName, name));
+        }
+        course.setExercises(exercises);
+        return course;
+    }
+
+    private Path courseFile(String name) {
+        return dir.resolve("courses").resolve(name + ".json");
+    }
+
+    @Test
+    public void itReadsBackWhatWasWritten() throws Exception {
+        CourseDb db = new CourseDb(eventBus, dir);
+        db.setAvailableCourses(Arrays.asList(course("one", "a", "b"), course("two", "c")));
+        db.setCurrentCourseName("one");
+        db.exerciseDownloaded(db.getCurrentCourseExercises().get(0));
+        db.flush();
+
+        CourseDb reloaded = new CourseDb(eventBus, dir);
+        assertEquals("one", reloaded.getCurrentCourseName());
+        assertEquals(2, reloaded.getCurrentCourseExercises().size());
+        assertEquals(1, reloaded.getCourseByName("two").getExercises().size());
+        assertTrue(Files.exists(courseFile("two")));
+    }
+
+    @Test
+    public void itReadsOtherCoursesOnlyWhenAskedFor() throws Exception {
+        CourseDb db = new CourseDb(eventBus, dir);
+        db.setAvailableCourses(Arrays.asList(course("one", "a"), course("two", "b")));
+        db.setCurrentCourseName("one");
+        db.flush();
+
+        CourseDb reloaded = new CourseDb(eventBus, dir);
+        Files.write(courseFile("two"), "{\"name\":\"two\",\"exercises\":[]}".getBytes(UTF8));
+        assertTrue(reloaded.getCourseByName("two").getExercises().isEmpty());
+    }
+
+    @Test
+    public void refreshingDoesNotRewriteUnchangedCourses() throws Exception {
+        CourseDb db = new CourseDb(eventBus, dir);
+        db.setAvailableCourses(Arrays.asList(course("one", "a"), course("two", "b")));
+        db.flush();
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60 * 1000);
+        Files.setLastModifiedTime(courseFile("one"), past);
+        Files.setLastModifiedTime(courseFile("two"), past);
+
+        CourseDb reloaded = new CourseDb(eventBus, dir);
+        reloaded.setAvailableCourses(Arrays.asList(course("one", "a"), course("two", "b", "c")));
+        reloaded.flush();
+
+        assertEquals(past, Files.getLastModifiedTime(courseFile("one")));
+        assertEquals(2, new CourseDb(eventBus, dir).getCourseByName("two").getExercises().size());
+    }
+
+    @Test
+    public void itDeletesFilesOfDroppedCoursesOnStartup() throws Exception {
+        CourseDb db = new CourseDb(eventBus, dir);
+        db.setAvailableCourses(Arrays.asList(course("one", "a"), course("two", "b")));
+        db.flush();
+        db.setAvailableCourses(Arrays.asList(course("one", "a")));
+        db.flush();
+        assertTrue(Files.exists(courseFile("two")));
+
+        new CourseDb(eventBus, dir);
+        assertTrue(Files.exists(courseFile("one")));
+        assertFalse(Files.exists(courseFile("two")));
+    }
+
+    @Test
+    public void itMigratesTheLegacyFile() throws Exception {
+        ConfigFileIo legacyFile = mock(ConfigFileIo.class);
+        when(legacyFile.exists()).thenReturn(true);
+        when(legacyFile.getReader()).thenReturn(new StringReader(
+                "{\"availableCourses\":[{\"name\":\"one\",\"exercises\":[{\"name\":\"a\",\"courseName\":\"one\"}]}],"
+                + "\"currentCourseName\":\"one\",\"downloadedExerciseChecksums\":{}}"));
+
+        CourseDb db = new CourseDb(eventBus, dir, legacyFile);
+        assertEquals("one", db.getCurrentCourseName());
+        assertEquals(1, db.getCurrentCourseExercises().size());
+        db.flush();
+
+        CourseDb reloaded = new CourseDb(eventBus, dir, legacyFile);
+        assertEquals(1, reloaded.getCurrentCourseExercises().size());
+        verify(legacyFile, times(1)).getReader();
+    }
+
+    @Test
+    public void itPostsEventsWithoutHoldingTheLock() throws Exception {
+        final CourseDb db = new CourseDb(eventBus, dir);
+        final AtomicInteger posted = new AtomicInteger();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                assertFalse(Thread.holdsLock(db));
+                posted.incrementAndGet();
+                return null;
+            }
+        }).when(eventBus).post(any(TmcEvent.class));
+
+        db.setAvailableCourses(Arrays.asList(course("one", "a")));
+        db.setCurrentCourseName("one");
+        db.exerciseDownloaded(db.getCurrentCourseExercises().get(0));
+        db.save();
+        assertTrue(posted.get() >= 4);
+    }
+}
@@ -0,0 +1,103 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CourseDetailsCacheTest {
+    private Course stub;
+    private AtomicInteger fetches;
+    private CountDownLatch release;
+    private CourseDetailsCache cache;
+
+    @Before
+    public void setUp() {
+        stub = mock(Course.class);
+        when(stub.getName()).thenReturn("course");
+        fetches = new AtomicInteger();
+        release = new CountDownLatch(0);
+        cache = new CourseDetailsCache(new CourseDetailsCache.Fetcher() {
+            @Override
+            public Callable<Course> getCourseDetails(ProgressObserver observer, Course course) {
+                return new Callable<Course>() {
+                    @Override
+                    public Course call() throws Exception {
+                        fetches.incrementAndGet();
+                        release.await();
+                        Course details = mock(Course.class);
+                        when(details.getName()).thenReturn("course");
+                        return details;
+                    }
+                };
+            }
+        });
+    }
+
+    private Course get(long maxAge) throws Exception {
+        return cache.getCourseDetails(ProgressObserver.NULL_OBSERVER, stub, maxAge).call();
+    }
+
+    @Test
+    public void itReusesRecentResults() throws Exception {
+        Course first = get(CourseDetailsCache.BACKGROUND);
+        Course second = get(CourseDetailsCache.BACKGROUND);
+        assertSame(first, second);
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void itFetchesAgainWhenNoCachingIsAccepted() throws Exception {
+        Course first = get(CourseDetailsCache.BACKGROUND);
+        Course second = get(CourseDetailsCache.NO_CACHE);
+        assertNotSame(first, second);
+        assertEquals(2, fetches.get());
+        assertSame(second, get(CourseDetailsCache.BACKGROUND));
+    }
+
+    @Test
+    public void itFetchesAgainAfterClear() throws Exception {
+        get(CourseDetailsCache.BACKGROUND);
+        cache.clear();
+        get(CourseDetailsCache.BACKGROUND);
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        release = new CountDownLatch(1);
+        final Course[] results = new Course[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = get(CourseDetailsCache.NO_CACHE);
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        while (fetches.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, fetches.get());
+        assertNotNull(results[0]);
+        assertSame(results[0], results[1]);
+    }
+}
@@ -0,0 +1,101 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.events.TmcEventBus;
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CourseDirMonitorTest {
+    private static final long TIMEOUT = 15 * 1000;
+
+    private TempTestDir tempDir;
+    private File courseDir;
+    private CourseDb courseDb;
+    private Exercise first;
+    private Exercise second;
+    private CourseDirMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        courseDir = new File(tempDir.get(), "course");
+        assertTrue(new File(courseDir, "first").mkdirs());
+
+        TmcEventBus eventBus = mock(TmcEventBus.class);
+        courseDb = new CourseDb(eventBus, tempDir.get().toPath().resolve("CourseDb"));
+        Course course = new Course("course");
+        first = new Exercise("first", "course");
+        second = new Exercise("second", "course");
+        first.setChecksum("abc");
+        second.setChecksum("def");
+        course.setExercises(Arrays.asList(first, second));
+        courseDb.setAvailableCourses(Arrays.asList(course));
+        courseDb.setCurrentCourseName("course");
+
+        ProjectMediator projectMediator = mock(ProjectMediator.class);
+        when(projectMediator.getCourseRootDir("course")).thenReturn(courseDir);
+        monitor = new CourseDirMonitor(eventBus, courseDb, projectMediator);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        monitor.stopWatching();
+        tempDir.destroy();
+    }
+
+    private void waitUntilPresent(Exercise... expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        List<Exercise> all = Arrays.asList(first, second);
+        while (!monitor.withoutMissing(all).equals(Arrays.asList(expected)) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(expected), monitor.withoutMissing(all));
+    }
+
+    @Test
+    public void itLeavesOutExercisesWhoseDirectoriesAreMissing() throws Exception {
+        assertEquals(Arrays.asList(first, second), monitor.withoutMissing(Arrays.asList(first, second)));
+
+        monitor.startWatching();
+        waitUntilPresent(first);
+
+        assertTrue(new File(courseDir, "second").mkdir());
+        waitUntilPresent(first, second);
+
+        monitor.stopWatching();
+        assertTrue(new File(courseDir, "second").delete());
+        assertEquals(Arrays.asList(first, second), monitor.withoutMissing(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void itKeepsDownloadedExercisesNotSeenYet() throws Exception {
+        monitor.startWatching();
+        waitUntilPresent(first);
+
+        courseDb.exerciseDownloaded(second);
+        assertEquals(Arrays.asList(first, second), monitor.withoutMissing(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void itForgetsChecksumsOfDeletedExercises() throws Exception {
+        courseDb.exerciseDownloaded(first);
+        monitor.startWatching();
+        waitUntilPresent(first);
+
+        Files.delete(new File(courseDir, "first").toPath());
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (courseDb.getDownloadedExerciseChecksum(first.getKey()) != null && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertNull(courseDb.getDownloadedExerciseChecksum(first.getKey()));
+    }
+}
@@ -0,0 +1,115 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExerciseArchiveCacheTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TempTestDir tempDir;
+    private Path cacheDir;
+    private File projectDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        cacheDir = tempDir.get().toPath().resolve("cache");
+        projectDir = new File(tempDir.get(), "course/ex1");
+        write(projectDir.toPath().resolve("src/Main.java"), "class Main {}");
+        write(projectDir.toPath().resolve("pom.xml"), "<project/>");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tempDir.destroy();
+    }
+
+    private void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(UTF8));
+    }
+
+    private String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+
+    @Test
+    public void itRestoresStoredExercises() throws Exception {
+        ExerciseArchiveCache cache = new ExerciseArchiveCache(cacheDir, 1024 * 1024);
+        cache.store("abc123", projectDir);
+        assertTrue(cache.contains("abc123"));
+
+        File target = new File(tempDir.get(), "other/ex1");
+        target.getParentFile().mkdirs();
+        assertTrue(cache.extractTo("abc123", target));
+
+        assertEquals("class Main {}", read(new File(target, "src/Main.java")));
+        assertEquals("<project/>", read(new File(target, "pom.xml")));
+    }
+
+    @Test
+    public void itLeavesNothingButTheProjectBehind() throws Exception {
+        ExerciseArchiveCache cache = new ExerciseArchiveCache(cacheDir, 1024 * 1024);
+        cache.store("abc123", projectDir);
+
+        File courseDir = new File(tempDir.get(), "other");
+        courseDir.mkdirs();
+        assertTrue(cache.extractTo("abc123", new File(courseDir, "ex1")));
+
+        assertArrayEquals(new String[] { "ex1" }, courseDir.list());
+        assertFalse(new File(tempDir.get(), ".tmc-extracting").exists());
+    }
+
+    @Test
+    public void itDoesNotExtractOverAnExistingDirectory() throws Exception {
+        ExerciseArchiveCache cache = new ExerciseArchiveCache(cacheDir, 1024 * 1024);
+        cache.store("abc123", projectDir);
+        assertFalse(cache.extractTo("abc123", projectDir));
+        assertFalse(cache.extractTo("unknown", new File(tempDir.get(), "nothing")));
+    }
+
+    @Test
+    public void itRejectsAndDeletesDamagedArchives() throws Exception {
+        ExerciseArchiveCache cache = new ExerciseArchiveCache(cacheDir, 1024 * 1024);
+        cache.store("abc123", projectDir);
+
+        try (RandomAccessFile f = new RandomAccessFile(cacheDir.resolve("abc123.zip").toFile(), "rw")) {
+            f.seek(f.length() - 1);
+            f.write(f.read() ^ 0xff);
+        }
+
+        File target = new File(tempDir.get(), "other/ex1");
+        target.getParentFile().mkdirs();
+        assertFalse(cache.extractTo("abc123", target));
+        assertFalse(target.exists());
+        assertFalse(cache.contains("abc123"));
+    }
+
+    @Test
+    public void itEvictsLeastRecentlyUsedArchives() throws Exception {
+        ExerciseArchiveCache probe = new ExerciseArchiveCache(tempDir.get().toPath().resolve("probe"), Long.MAX_VALUE);
+        probe.store("x", projectDir);
+        long archiveSize = Files.size(tempDir.get().toPath().resolve("probe/x.zip"));
+
+        ExerciseArchiveCache cache = new ExerciseArchiveCache(cacheDir, archiveSize * 2);
+        cache.store("first", projectDir);
+        Files.setLastModifiedTime(cacheDir.resolve("first.zip"), FileTime.fromMillis(1000));
+        cache.store("second", projectDir);
+        cache.store("third", projectDir);
+
+        assertFalse(cache.contains("first"));
+        assertTrue(cache.contains("second"));
+        assertTrue(cache.contains("third"));
+    }
+}
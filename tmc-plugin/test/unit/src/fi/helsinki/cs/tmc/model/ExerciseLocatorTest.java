@@ -0,0 +1,124 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openide.filesystems.FileObject;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ExerciseLocatorTest {
+    private TempTestDir tempDir;
+    private ProjectMediator projectMediator;
+    private CourseDb courseDb;
+    private Exercise ex1;
+    private Exercise ex2;
+    private TmcProjectInfo project1;
+    private FileObject file1;
+    private ExerciseLocator locator;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = new TempTestDir();
+        Path dir1 = createDir("ex1");
+        Path dir2 = createDir("ex2");
+
+        projectMediator = mock(ProjectMediator.class);
+        courseDb = mock(CourseDb.class);
+        ex1 = mock(Exercise.class);
+        ex2 = mock(Exercise.class);
+        when(courseDb.getCurrentCourseExercises()).thenReturn(Arrays.asList(ex1, ex2));
+        when(projectMediator.getProjectDirForExercise(ex1)).thenReturn(dir1);
+        when(projectMediator.getProjectDirForExercise(ex2)).thenReturn(dir2);
+
+        project1 = mock(TmcProjectInfo.class);
+        when(project1.getProjectDirAsFile()).thenReturn(dir1.toFile());
+        file1 = mock(FileObject.class);
+        when(projectMediator.tryGetProjectOwningFile(file1)).thenReturn(project1);
+
+        locator = new ExerciseLocator(projectMediator, courseDb);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tempDir.destroy();
+    }
+
+    @Test
+    public void itShouldFindTheExerciseOfAFile() {
+        assertSame(project1, locator.findProjectOwningFile(file1));
+        assertSame(ex1, locator.findExerciseForFile(file1));
+    }
+
+    @Test
+    public void itShouldGiveNullForFilesOutsideExercises() {
+        FileObject other = mock(FileObject.class);
+        assertNull(locator.findProjectOwningFile(other));
+        assertNull(locator.findExerciseForFile(other));
+    }
+
+    @Test
+    public void itShouldCacheLookups() {
+        for (int i = 0; i < 10; ++i) {
+            assertSame(ex1, locator.findExerciseForFile(file1));
+        }
+        verify(projectMediator, times(1)).tryGetProjectOwningFile(file1);
+        verify(projectMediator, times(1)).getProjectDirForExercise(ex2);
+    }
+
+    @Test
+    public void itShouldRebuildTheIndexWhenInvalidated() {
+        assertSame(ex1, locator.findExerciseForProject(project1));
+
+        Exercise newEx1 = mock(Exercise.class);
+        when(courseDb.getCurrentCourseExercises()).thenReturn(Arrays.asList(newEx1));
+        when(projectMediator.getProjectDirForExercise(newEx1)).thenReturn(project1.getProjectDirAsFile().toPath());
+        locator.invalidate();
+
+        assertSame(newEx1, locator.findExerciseForProject(project1));
+        assertSame(newEx1, locator.findExerciseForFile(file1));
+    }
+
+    @Test
+    public void itShouldNotHoldTheLockWhileAskingTheMediator() {
+        FileObject other = mock(FileObject.class);
+        when(projectMediator.tryGetProjectOwningFile(other)).thenAnswer(new Answer<TmcProjectInfo>() {
+            @Override
+            public TmcProjectInfo answer(InvocationOnMock invocation) {
+                assertFalse(Thread.holdsLock(locator));
+                return project1;
+            }
+        });
+
+        assertSame(ex1, locator.findExerciseForFile(other));
+    }
+
+    @Test
+    public void itShouldNotCacheLookupsRacingWithInvalidation() {
+        when(projectMediator.tryGetProjectOwningFile(file1)).thenAnswer(new Answer<TmcProjectInfo>() {
+            @Override
+            public TmcProjectInfo answer(InvocationOnMock invocation) {
+                locator.invalidate();
+                return project1;
+            }
+        });
+
+        assertSame(project1, locator.findProjectOwningFile(file1));
+        assertSame(project1, locator.findProjectOwningFile(file1));
+        verify(projectMediator, times(2)).tryGetProjectOwningFile(file1);
+    }
+
+    private Path createDir(String name) throws IOException {
+        File dir = new File(tempDir.get(), name);
+        dir.mkdirs();
+        return dir.toPath().toRealPath();
+    }
+}
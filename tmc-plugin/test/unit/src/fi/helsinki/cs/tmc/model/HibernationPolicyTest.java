@@ -0,0 +1,64 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static fi.helsinki.cs.tmc.model.HibernationPolicy.DAY;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class HibernationPolicyTest {
+    private long now;
+    private List<HibernationPolicy.Candidate<String>> candidates;
+
+    @Before
+    public void setUp() {
+        now = 100 * DAY;
+        candidates = new ArrayList<HibernationPolicy.Candidate<String>>();
+    }
+
+    private void add(String name, boolean completed, boolean expired, long untouchedFor) {
+        Exercise ex = mock(Exercise.class);
+        when(ex.isCompleted()).thenReturn(completed);
+        when(ex.hasDeadlinePassed()).thenReturn(expired);
+        candidates.add(new HibernationPolicy.Candidate<String>(name, ex, now - untouchedFor));
+    }
+
+    @Test
+    public void itClosesOnlyEnoughProjectsToMeetTheBudget() {
+        add("completed1", true, false, 3 * DAY);
+        add("completed2", true, false, 5 * DAY);
+        add("completed3", true, false, 4 * DAY);
+        HibernationPolicy policy = new HibernationPolicy(true, true, 0, 10);
+
+        assertEquals(Arrays.asList("completed2", "completed3"), policy.selectProjectsToClose(12, candidates, now));
+        assertEquals(Collections.emptyList(), policy.selectProjectsToClose(10, candidates, now));
+    }
+
+    @Test
+    public void itFollowsTheEnabledRules() {
+        add("completed", true, false, DAY);
+        add("expired", false, true, DAY);
+        add("stale", false, false, 30 * DAY);
+        add("active", false, false, DAY);
+
+        assertEquals(Arrays.asList("stale", "completed", "expired"),
+                new HibernationPolicy(true, true, 14, 0).selectProjectsToClose(4, candidates, now));
+        assertEquals(Arrays.asList("expired"),
+                new HibernationPolicy(false, true, 0, 0).selectProjectsToClose(4, candidates, now));
+        assertEquals(Arrays.asList("stale"),
+                new HibernationPolicy(false, false, 14, 0).selectProjectsToClose(4, candidates, now));
+    }
+
+    @Test
+    public void itNeverClosesRecentlyChangedProjects() {
+        add("justCompleted", true, false, HibernationPolicy.MIN_UNTOUCHED / 2);
+
+        assertEquals(Collections.emptyList(),
+                new HibernationPolicy(true, true, 14, 0).selectProjectsToClose(1, candidates, now));
+    }
+}
@@ -0,0 +1,84 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.coreimpl.TmcCoreSettingsImpl;
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.*;
+
+public class ProjectHibernatorTest {
+    private TempTestDir tempDir;
+    private ProjectMediator projects;
+    private TmcProjectInfo project;
+    private ProjectHibernator hibernator;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        File projectDir = new File(tempDir.get(), "done");
+        assertTrue(projectDir.mkdirs());
+        File source = new File(projectDir, "Main.java");
+        assertTrue(source.createNewFile());
+        Files.setLastModifiedTime(source.toPath(), FileTime.fromMillis(System.currentTimeMillis() - 30 * HibernationPolicy.DAY));
+
+        Exercise exercise = mock(Exercise.class);
+        when(exercise.getCourseName()).thenReturn("course");
+        when(exercise.getName()).thenReturn("done");
+        when(exercise.isCompleted()).thenReturn(true);
+        CourseDb courseDb = mock(CourseDb.class);
+        when(courseDb.getCurrentCourseExercises()).thenReturn(Arrays.asList(exercise));
+
+        project = mock(TmcProjectInfo.class);
+        when(project.getProjectDirAsFile()).thenReturn(projectDir);
+        projects = mock(ProjectMediator.class);
+        Map<Exercise, TmcProjectInfo> found = Collections.singletonMap(exercise, project);
+        when(projects.tryGetProjectsForExercises(anyCollectionOf(Exercise.class))).thenReturn(found);
+
+        TmcCoreSettingsImpl settings = mock(TmcCoreSettingsImpl.class);
+        when(settings.isHibernatingProjects()).thenReturn(true);
+        when(settings.isHibernatingCompletedProjects()).thenReturn(true);
+        when(settings.getOpenProjectBudget()).thenReturn(0);
+
+        hibernator = new ProjectHibernator(projects, courseDb, settings, tempDir.get().toPath().resolve("record.txt"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tempDir.destroy();
+    }
+
+    private void setOpen(TmcProjectInfo... open) {
+        when(projects.getOpenProjects()).thenReturn(Arrays.asList(open));
+    }
+
+    @Test
+    public void itClosesProjectsRestoredAtStartup() {
+        setOpen(project);
+        hibernator.noteOpenProjects(System.currentTimeMillis());
+
+        List<TmcProjectInfo> closed = hibernator.hibernateNow();
+        assertEquals(Arrays.asList(project), closed);
+        verify(projects).closeProjects(closed);
+    }
+
+    @Test
+    public void itCountsOpeningAProjectAsTouchingIt() {
+        setOpen();
+        hibernator.noteOpenProjects(System.currentTimeMillis());
+
+        setOpen(project);
+        assertTrue(hibernator.hibernateNow().isEmpty());
+        verify(projects, never()).closeProjects(anyCollectionOf(TmcProjectInfo.class));
+    }
+}
@@ -0,0 +1,131 @@
+package fi.helsinki.cs.tmc.model;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StagedProjectOpenerTest {
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private ScheduledExecutorService executor;
+    private List<List<String>> batches;
+    private volatile long idleMillis;
+    private StagedProjectOpener<String> opener;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        StagedProjectOpener.Opener<String> recorder = new StagedProjectOpener.Opener<String>() {
+            @Override
+            public void open(List<String> projects) {
+                batches.add(new ArrayList<String>(projects));
+            }
+        };
+        StagedProjectOpener.IdleClock idleClock = new StagedProjectOpener.IdleClock() {
+            @Override
+            public long millisSinceUserActivity() {
+                return idleMillis;
+            }
+        };
+        opener = new StagedProjectOpener<String>(recorder, idleClock, executor);
+        opener.setDelays(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Exercise exercise(boolean completed, Long deadlineFromNow) {
+        Exercise ex = mock(Exercise.class);
+        when(ex.isCompleted()).thenReturn(completed);
+        if (deadlineFromNow != null) {
+            when(ex.getDeadlineDate()).thenReturn(new Date(System.currentTimeMillis() + deadlineFromNow));
+            when(ex.hasDeadlinePassed()).thenReturn(deadlineFromNow < 0);
+        }
+        return ex;
+    }
+
+    private void waitUntilPending(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (opener.getPendingCount() != count && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, opener.getPendingCount());
+    }
+
+    private List<String> opened() {
+        List<String> result = new ArrayList<String>();
+        for (List<String> batch : batches) {
+            result.addAll(batch);
+        }
+        return result;
+    }
+
+    @Test
+    public void itOpensUnfinishedExercisesFirstByDeadline() throws Exception {
+        Map<String, Exercise> projects = new LinkedHashMap<String, Exercise>();
+        projects.put("completed", exercise(true, 2 * DAY));
+        projects.put("later", exercise(false, 3 * DAY));
+        projects.put("expired", exercise(false, -DAY));
+        projects.put("noDeadline", exercise(false, null));
+        projects.put("unknown", null);
+        projects.put("sooner", exercise(false, DAY));
+
+        opener.open(projects, true);
+        waitUntilPending(2);
+        assertEquals(Arrays.asList("sooner", "later", "noDeadline", "unknown"), opened());
+
+        idleMillis = StagedProjectOpener.IDLE_BEFORE_DEFERRED;
+        waitUntilPending(0);
+        assertEquals(Arrays.asList("sooner", "later", "noDeadline", "unknown", "completed", "expired"), opened());
+    }
+
+    @Test
+    public void itDoesNotDeferProjectsTheUserAskedFor() throws Exception {
+        Map<String, Exercise> background = new LinkedHashMap<String, Exercise>();
+        background.put("completed", exercise(true, null));
+        opener.setDelays(1, 60 * 1000);
+        opener.open(background, true);
+        Thread.sleep(50);
+        assertEquals(1, opener.getPendingCount());
+
+        Map<String, Exercise> requested = new LinkedHashMap<String, Exercise>();
+        requested.put("expired", exercise(false, -DAY));
+        requested.put("completed", exercise(true, null));
+        requested.put("unfinished", exercise(false, DAY));
+        opener.open(requested, false);
+        waitUntilPending(0);
+
+        assertEquals(Arrays.asList("unfinished", "expired", "completed"), opened());
+    }
+
+    @Test
+    public void itOpensInBatches() throws Exception {
+        Map<String, Exercise> projects = new LinkedHashMap<String, Exercise>();
+        for (int i = 0; i < 12; ++i) {
+            projects.put("p" + i, null);
+        }
+
+        opener.open(projects, true);
+        waitUntilPending(0);
+
+        assertEquals(3, batches.size());
+        assertEquals(StagedProjectOpener.BATCH_SIZE, batches.get(0).size());
+        assertEquals(StagedProjectOpener.BATCH_SIZE, batches.get(1).size());
+        assertEquals(2, batches.get(2).size());
+    }
+}
@@ -38,6 +38,33 @@ public class TmcProjectFileTest {
         assertTrue(result.getExtraStudentFiles().isEmpty());
     }
 
+    @Test
+    public void testExtraStudentFilesMayBeGlobs() throws IOException {
+        writeFile("extra_student_files:\n  - \"test/**/*Own*.java\"");
+        TmcProjectFile result = TmcProjectFile.load(getFile());
+        assertTrue(result.getExtraStudentFileGlobs().matches("test/MyOwnTest.java"));
+        assertTrue(result.getExtraStudentFileGlobs().matches("test/pkg/MyOwnTest.java"));
+        assertFalse(result.getExtraStudentFileGlobs().matches("test/pkg/OtherTest.java"));
+    }
+
+    @Test
+    public void testForProjectReloadsChangedFile() throws IOException {
+        writeFile("extra_student_files:\n  - \"one\"");
+        TmcProjectFile first = TmcProjectFile.forProject(tempDir.get());
+        assertSame(first, TmcProjectFile.forProject(tempDir.get()));
+
+        writeFile("extra_student_files:\n  - \"one\"\n  - \"two\"");
+        getFile().setLastModified(getFile().lastModified() + 2000);
+        TmcProjectFile second = TmcProjectFile.forProject(tempDir.get());
+        assertEquals(2, second.getExtraStudentFiles().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedProjectFilesCannotBeModified() throws IOException {
+        writeFile("extra_student_files:\n  - \"one\"");
+        TmcProjectFile.forProject(tempDir.get()).getExtraStudentFiles().add("two");
+    }
+
     private File getFile() {
         return new File(tempDir.get().getPath() + File.separator + ".tmcproject.yml");
     }
@@ -4,8 +4,13 @@ import org.openide.filesystems.FileObject;
 import org.netbeans.api.project.Project;
 import fi.helsinki.cs.tmc.testing.TempTestDir;
 import fi.helsinki.cs.tmc.utilities.zip.RecursiveZipper;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -81,6 +86,59 @@ public class TmcProjectInfoTest {
         assertFalse(zd.shouldZip("MyExercise/test/Excluded.txt"));
     }
     
+    @Test
+    public void itShouldSupportGlobsInTheProjectFile() throws IOException {
+        new File(mainDir + SLASH + "test" + SLASH + "sub").mkdirs();
+        new File(mainDir + SLASH + "test" + SLASH + "sub" + SLASH + "OwnTest.txt").createNewFile();
+
+        FileUtils.write(new File(mainDir + SLASH + ".tmcproject.yml"), "extra_student_files:\n  - test/**/Own*.txt", "UTF-8");
+
+        RecursiveZipper.ZippingDecider zd = projectInfo.getZippingDecider();
+        assertFalse(zd.shouldZip("MyExercise/test/"));
+        assertTrue(zd.shouldLookInside("MyExercise/test/"));
+        assertTrue(zd.shouldLookInside("MyExercise/test/sub/"));
+        assertFalse(zd.shouldLookInside("MyExercise/excluded/"));
+        assertTrue(zd.shouldZip("MyExercise/test/sub/OwnTest.txt"));
+        assertFalse(zd.shouldZip("MyExercise/test/Excluded.txt"));
+    }
+
+    @Test
+    public void itShouldOnlyZipDirectoriesThatHoldFilesMatchingALeadingGlobstar() throws IOException {
+        new File(mainDir + SLASH + "test" + SLASH + "sub").mkdirs();
+        new File(mainDir + SLASH + "test" + SLASH + "sub" + SLASH + "OwnTest.txt").createNewFile();
+        new File(mainDir + SLASH + "build" + SLASH + "classes").mkdirs();
+        new File(mainDir + SLASH + "build" + SLASH + "classes" + SLASH + "Foo.class").createNewFile();
+        new File(mainDir + SLASH + "nbproject" + SLASH + "private").mkdirs();
+        new File(mainDir + SLASH + "nbproject" + SLASH + "private" + SLASH + "private.xml").createNewFile();
+
+        FileUtils.write(new File(mainDir + SLASH + ".tmcproject.yml"), "extra_student_files:\n  - \"**/Own*.txt\"", "UTF-8");
+
+        List<String> entries = zipEntryNames(new RecursiveZipper(new File(mainDir), projectInfo.getZippingDecider()).zipProjectSources());
+        assertTrue(entries.contains("MyExercise/test/"));
+        assertTrue(entries.contains("MyExercise/test/sub/"));
+        assertTrue(entries.contains("MyExercise/test/sub/OwnTest.txt"));
+        assertTrue(entries.contains("MyExercise/src/subdir/Included2.txt"));
+        assertFalse(entries.contains("MyExercise/build/"));
+        assertFalse(entries.contains("MyExercise/build/classes/"));
+        assertFalse(entries.contains("MyExercise/nbproject/"));
+        assertFalse(entries.contains("MyExercise/nbproject/private/"));
+        assertFalse(entries.contains("MyExercise/excluded/"));
+    }
+
+    private List<String> zipEntryNames(byte[] zipData) throws IOException {
+        List<String> result = new ArrayList<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipData));
+        try {
+            ZipEntry zent;
+            while ((zent = zis.getNextEntry()) != null) {
+                result.add(zent.getName());
+            }
+        } finally {
+            zis.close();
+        }
+        return result;
+    }
+    
     @Test
     public void itShouldChooseToZipEverythingInMavenProjects() throws IOException {
         new File(mainDir + SLASH + "src" + SLASH + "main" + SLASH + "java").mkdirs();
@@ -0,0 +1,104 @@
+package fi.helsinki.cs.tmc.snapshots.eventsources;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.model.TmcProjectInfo;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SnapshotSchedulerTest {
+
+    private Semaphore counter;
+    private volatile JsonMaker lastMetadata;
+
+    private SnapshotScheduler.SnapshotTask task = new SnapshotScheduler.SnapshotTask() {
+        @Override
+        public void run(Exercise exercise, TmcProjectInfo projectInfo, JsonMaker metadata) {
+            lastMetadata = metadata;
+            counter.release();
+        }
+    };
+
+    private static SnapshotScheduler.Change change(String cause, String file) {
+        return new SnapshotScheduler.Change(cause, file);
+    }
+
+    @Before
+    public void setUp() {
+        counter = new Semaphore(0);
+    }
+
+    @Test
+    public void eventsWithinTheDebounceWindowAreCoalesced() throws InterruptedException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(task, 200);
+        TmcProjectInfo project = mock(TmcProjectInfo.class);
+        Exercise exercise = mock(Exercise.class);
+
+        for (int i = 0; i < 10; ++i) {
+            scheduler.schedule(exercise, project, change("modified", "A.java"), JsonMaker.create());
+        }
+        counter.acquire();
+        assertFalse(counter.tryAcquire(400, TimeUnit.MILLISECONDS));
+
+        assertEquals(10, scheduler.getEventsReceived());
+        assertEquals(9, scheduler.getEventsCoalesced());
+        assertEquals(0, scheduler.getEventsDropped());
+        scheduler.close();
+    }
+
+    @Test
+    public void coalescedSnapshotsListEachChangedFileOnce() throws InterruptedException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(task, 200);
+        TmcProjectInfo project = mock(TmcProjectInfo.class);
+        Exercise exercise = mock(Exercise.class);
+
+        scheduler.schedule(exercise, project, change("modified", "A.java"), JsonMaker.create());
+        scheduler.schedule(exercise, project, change("modified", "B.java"), JsonMaker.create());
+        scheduler.schedule(exercise, project, change("modified", "A.java"), JsonMaker.create());
+        scheduler.schedule(exercise, project, change("deleted", "A.java"), JsonMaker.create());
+        scheduler.close();
+
+        assertEquals(1, counter.availablePermits());
+        String json = lastMetadata.toString();
+        assertTrue(json, json.contains("\"modified A.java\\nmodified B.java\\ndeleted A.java\""));
+        assertTrue(json, json.contains("\"coalesced_events\":4"));
+    }
+
+    @Test
+    public void eachProjectGetsItsOwnSnapshot() throws InterruptedException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(task, 5);
+        Exercise exercise = mock(Exercise.class);
+
+        scheduler.schedule(exercise, mock(TmcProjectInfo.class), change("modified", "A.java"), JsonMaker.create());
+        scheduler.schedule(exercise, mock(TmcProjectInfo.class), change("modified", "A.java"), JsonMaker.create());
+        assertTrue(counter.tryAcquire(2, 1, TimeUnit.SECONDS));
+        scheduler.close();
+    }
+
+    @Test
+    public void eventsBeyondThePendingLimitAreDropped() throws InterruptedException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(task, 200, 1, 1);
+        Exercise exercise = mock(Exercise.class);
+
+        scheduler.schedule(exercise, mock(TmcProjectInfo.class), change("modified", "A.java"), JsonMaker.create());
+        scheduler.schedule(exercise, mock(TmcProjectInfo.class), change("modified", "A.java"), JsonMaker.create());
+        scheduler.close();
+
+        assertEquals(1, counter.availablePermits());
+        assertEquals(1, scheduler.getEventsDropped());
+    }
+
+    @Test
+    public void pendingSnapshotsAreTakenOnClose() throws InterruptedException {
+        SnapshotScheduler scheduler = new SnapshotScheduler(task, 100);
+
+        scheduler.schedule(mock(Exercise.class), mock(TmcProjectInfo.class), change("modified", "A.java"), JsonMaker.create());
+        scheduler.close();
+
+        assertEquals(1, counter.availablePermits());
+    }
+}
@@ -0,0 +1,107 @@
+package fi.helsinki.cs.tmc.snapshots.eventsources;
+
+import java.util.LinkedList;
+import java.util.List;
+import name.fraser.neil.plaintext.DiffMatchPatch;
+import name.fraser.neil.plaintext.DiffMatchPatch.Patch;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TextInsertEventSourceTest {
+    private DiffMatchPatch dmp;
+    private String original;
+    private TextMirror mirror;
+    private List<Patch> patches;
+
+    @Before
+    public void setUp() {
+        dmp = new DiffMatchPatch();
+    }
+
+    private void start(String text) {
+        original = text;
+        mirror = new TextMirror(text);
+        patches = new LinkedList<Patch>();
+    }
+
+    private void insert(int offset, String text) {
+        patches.add(TextInsertEventSource.makePatch(mirror, offset, "", text));
+        mirror.insert(offset, text);
+    }
+
+    private void remove(int offset, int length) {
+        String removed = mirror.substring(offset, offset + length);
+        patches.add(TextInsertEventSource.makePatch(mirror, offset, removed, ""));
+        mirror.remove(offset, length);
+    }
+
+    // Does what the server does with the patches we send.
+    private void assertPatchesReproduceTheDocument() {
+        List<Patch> parsed = dmp.patch_fromText(dmp.patch_toText(patches));
+        Object[] result = dmp.patch_apply(new LinkedList<Patch>(parsed), original);
+        assertEquals(mirror.toString(), result[0]);
+        for (boolean applied : (boolean[]) result[1]) {
+            assertTrue(applied);
+        }
+    }
+
+    @Test
+    public void deletes() {
+        start("public class Foo {\n    int x;\n}\n");
+        remove(18, 11);
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void insertsAtTheStart() {
+        start("class Foo {}\n");
+        insert(0, "public ");
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void insertsIntoAnEmptyDocument() {
+        start("");
+        insert(0, "class Foo {}\n");
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void editsAtTheEnd() {
+        start("class Foo {}");
+        insert(12, "\n");
+        assertPatchesReproduceTheDocument();
+
+        start("class Foo {}\n\n\n");
+        remove(12, 3);
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void mergesSeveralPatchesIntoOneEvent() {
+        start("int x = 1;\nint y = 2;\n");
+        insert(10, " // x");
+        remove(0, 4);
+        insert(0, "long ");
+        insert(mirror.length(), "int z = 3;\n");
+        remove(mirror.length() - 1, 1);
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void editsRepetitiveTextWhereTheContextIsNotUnique() {
+        start("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        insert(20, "b");
+        remove(30, 2);
+        insert(5, "ccc");
+        assertPatchesReproduceTheDocument();
+    }
+
+    @Test
+    public void encodesSpecialCharacters() {
+        start("String s = \"\";\n");
+        insert(12, "100% + \u00e4\n\t%0A");
+        assertPatchesReproduceTheDocument();
+    }
+}
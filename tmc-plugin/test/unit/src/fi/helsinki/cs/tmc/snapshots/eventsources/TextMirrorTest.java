@@ -0,0 +1,55 @@
+package fi.helsinki.cs.tmc.snapshots.eventsources;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TextMirrorTest {
+
+    @Test
+    public void insertsAndRemovesAnywhere() {
+        TextMirror mirror = new TextMirror("hello world");
+        mirror.insert(5, ",");
+        mirror.insert(0, ">> ");
+        mirror.insert(mirror.length(), "!");
+        assertEquals(">> hello, world!", mirror.toString());
+
+        assertEquals("hello", mirror.remove(3, 5));
+        assertEquals(">> , world!", mirror.toString());
+        assertEquals(", w", mirror.substring(3, 6));
+    }
+
+    @Test
+    public void substringsSpanningTheGapAreJoined() {
+        TextMirror mirror = new TextMirror("abcdef");
+        mirror.insert(3, "X");
+        assertEquals("bcXde", mirror.substring(1, 6));
+    }
+
+    @Test
+    public void followsRandomEditsLikeAStringBuilder() {
+        Random random = new Random(1234);
+        StringBuilder expected = new StringBuilder("initial text");
+        TextMirror mirror = new TextMirror(expected.toString());
+
+        for (int i = 0; i < 5000; ++i) {
+            int offset = random.nextInt(expected.length() + 1);
+            if (random.nextInt(3) == 0 && offset < expected.length()) {
+                int length = random.nextInt(expected.length() - offset + 1);
+                assertEquals(expected.substring(offset, offset + length), mirror.remove(offset, length));
+                expected.delete(offset, offset + length);
+            } else {
+                String text = Integer.toString(random.nextInt(100000));
+                mirror.insert(offset, text);
+                expected.insert(offset, text);
+            }
+            assertEquals(expected.length(), mirror.length());
+        }
+        assertEquals(expected.toString(), mirror.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsRangesOutsideTheText() {
+        new TextMirror("abc").remove(2, 2);
+    }
+}
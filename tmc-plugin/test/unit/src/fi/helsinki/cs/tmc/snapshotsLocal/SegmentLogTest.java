@@ -0,0 +1,137 @@
+package fi.helsinki.cs.tmc.snapshotsLocal;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private TempTestDir tempDir;
+    private File logDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = new TempTestDir();
+        logDir = new File(tempDir.get(), "log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tempDir.destroy();
+    }
+
+    @Test
+    public void recordsAreReadBackInOrder() throws IOException {
+        SegmentLog log = new SegmentLog(logDir);
+        log.append(bytes("one"));
+        log.append(bytes("two"));
+
+        assertEquals(list("one", "two"), strings(log.read(Long.MAX_VALUE)));
+        log.close();
+    }
+
+    @Test
+    public void acknowledgedRecordsAreNotReadAgainAfterReopening() throws IOException {
+        SegmentLog log = new SegmentLog(logDir);
+        log.append(bytes("one"));
+        log.acknowledge(log.read(Long.MAX_VALUE));
+        log.append(bytes("two"));
+        log.close();
+
+        log = new SegmentLog(logDir);
+        assertEquals(list("two"), strings(log.read(Long.MAX_VALUE)));
+        log.close();
+    }
+
+    @Test
+    public void batchesAreLimitedBySize() throws IOException {
+        SegmentLog log = new SegmentLog(logDir);
+        log.append(bytes("one"));
+        log.append(bytes("two"));
+        log.append(bytes("three"));
+
+        SegmentLog.Batch batch = log.read(1);
+        assertEquals(list("one"), strings(batch));
+        log.acknowledge(batch);
+        assertEquals(list("two", "three"), strings(log.read(6)));
+        log.close();
+    }
+
+    @Test
+    public void anIncompleteRecordIsTruncatedAfterACrash() throws IOException {
+        SegmentLog log = new SegmentLog(logDir);
+        log.append(bytes("one"));
+        log.append(bytes("two"));
+        log.close();
+
+        File segment = logDir.listFiles((dir, name) -> name.endsWith(".seg"))[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        log = new SegmentLog(logDir);
+        assertEquals(list("one"), strings(log.read(Long.MAX_VALUE)));
+        log.append(bytes("three"));
+        assertEquals(list("one", "three"), strings(log.read(Long.MAX_VALUE)));
+        log.close();
+    }
+
+    @Test
+    public void consumedSegmentsAreDeleted() throws IOException {
+        SegmentLog log = new SegmentLog(logDir, 20, Long.MAX_VALUE, Long.MAX_VALUE);
+        for (int i = 0; i < 10; ++i) {
+            log.append(bytes("record" + i));
+        }
+        assertTrue(segmentCount() > 5);
+
+        log.acknowledge(log.read(Long.MAX_VALUE));
+        assertEquals(1, segmentCount());
+        assertTrue(log.isEmpty());
+        log.close();
+    }
+
+    @Test
+    public void oldestSegmentsAreDroppedWhenTheLogIsFull() throws IOException {
+        SegmentLog log = new SegmentLog(logDir, 20, Long.MAX_VALUE, 50);
+        for (int i = 0; i < 10; ++i) {
+            log.append(bytes("record" + i));
+        }
+
+        List<String> remaining = strings(log.read(Long.MAX_VALUE));
+        assertEquals("record9", remaining.get(remaining.size() - 1));
+        assertEquals(10, remaining.size() + log.getRecordsDropped());
+        log.close();
+    }
+
+    private int segmentCount() {
+        return logDir.listFiles((dir, name) -> name.endsWith(".seg")).length;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    private static List<String> list(String... strings) {
+        List<String> result = new ArrayList<String>();
+        for (String s : strings) {
+            result.add(s);
+        }
+        return result;
+    }
+
+    private static List<String> strings(SegmentLog.Batch batch) {
+        List<String> result = new ArrayList<String>();
+        for (byte[] record : batch.getRecords()) {
+            result.add(new String(record, UTF8));
+        }
+        return result;
+    }
+}
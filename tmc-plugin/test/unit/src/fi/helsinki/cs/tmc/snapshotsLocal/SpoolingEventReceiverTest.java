@@ -0,0 +1,107 @@
+package fi.helsinki.cs.tmc.snapshotsLocal;
+
+import fi.helsinki.cs.tmc.snapshots.EventReceiver;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SpoolingEventReceiverTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private TempTestDir tempDir;
+    private File logDir;
+    private List<LoggableEvent> sent;
+    private volatile boolean online;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = new TempTestDir();
+        logDir = new File(tempDir.get(), "spool");
+        sent = Collections.synchronizedList(new ArrayList<LoggableEvent>());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tempDir.destroy();
+    }
+
+    private SpoolingEventReceiver newSpool(SegmentLog segmentLog) {
+        SpoolingEventReceiver.BatchSender sender = new SpoolingEventReceiver.BatchSender() {
+            @Override
+            public void send(List<LoggableEvent> events) throws Exception {
+                if (!online) {
+                    throw new IOException("Offline");
+                }
+                sent.addAll(events);
+            }
+        };
+        EventReceiver fallback = new EventReceiver() {
+            @Override
+            public void receiveEvent(LoggableEvent event) {
+                fail("Spooling should not fail");
+            }
+
+            @Override
+            public void close() {
+                fail("The spool must not close the fallback receiver");
+            }
+        };
+        return new SpoolingEventReceiver(segmentLog, sender, fallback, 60 * 1000, 1024 * 1024);
+    }
+
+    private void drainAll(SpoolingEventReceiver spool) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        spool.drainAllThen(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void eventsStayInTheLogUntilTheServerAcceptsThem() throws Exception {
+        SegmentLog segmentLog = new SegmentLog(logDir);
+        SpoolingEventReceiver spool = newSpool(segmentLog);
+        spool.receiveEvent(new LoggableEvent("ide_action", "one".getBytes(UTF8)));
+        spool.receiveEvent(new LoggableEvent("ide_action", "two".getBytes(UTF8)));
+
+        online = false;
+        drainAll(spool);
+        assertTrue(sent.isEmpty());
+        assertFalse(segmentLog.isEmpty());
+
+        online = true;
+        drainAll(spool);
+        assertEquals(2, sent.size());
+        assertTrue(segmentLog.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void unsentEventsSurviveARestart() throws Exception {
+        SpoolingEventReceiver spool = newSpool(new SegmentLog(logDir));
+        spool.receiveEvent(new LoggableEvent("ide_action", "one".getBytes(UTF8)));
+        online = false;
+        drainAll(spool);
+        spool.close();
+
+        online = true;
+        spool = newSpool(new SegmentLog(logDir));
+        drainAll(spool);
+        assertEquals(1, sent.size());
+        spool.close();
+    }
+}
@@ -0,0 +1,144 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import fi.helsinki.cs.tmc.utilities.BackgroundScheduler.JobStatus;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BackgroundSchedulerTest {
+    private BackgroundScheduler scheduler;
+    private AtomicInteger runs;
+
+    @Before
+    public void setUp() {
+        scheduler = new BackgroundScheduler(Executors.newSingleThreadScheduledExecutor(), new Random(1));
+        runs = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    private BackgroundScheduler.Job countingJob(final boolean succeed) {
+        return new BackgroundScheduler.Job() {
+            @Override
+            public void run(BackgroundScheduler.Outcome outcome) {
+                runs.incrementAndGet();
+                if (succeed) {
+                    outcome.succeeded();
+                } else {
+                    outcome.failed(new RuntimeException("offline"));
+                }
+            }
+        };
+    }
+
+    private JobStatus statusOf(String name) {
+        for (JobStatus status : scheduler.getStatus()) {
+            if (status.name.equals(name)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    private void waitForRuns(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runs.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void itRunsJobsRepeatedly() throws Exception {
+        scheduler.schedulePeriodically("job", 0, 20, false, countingJob(true));
+        waitForRuns(3);
+        assertTrue(runs.get() >= 3);
+        assertEquals(0, statusOf("job").consecutiveFailures);
+    }
+
+    @Test
+    public void itBacksOffAfterFailures() throws Exception {
+        scheduler.schedulePeriodically("job", 0, 1000, false, countingJob(false));
+        waitForRuns(1);
+        JobStatus status = statusOf("job");
+        while (status.running) {
+            Thread.sleep(5);
+            status = statusOf("job");
+        }
+
+        assertEquals(1, status.consecutiveFailures);
+        assertNotNull(status.lastFailure);
+        long delay = status.nextRunAt - status.lastRunAt;
+        assertTrue("Delay was " + delay, delay >= 1800 && delay <= 2500);
+    }
+
+    @Test
+    public void itNeverRestartsJobsSoonerThanTheShortestDelay() throws Exception {
+        scheduler.shutdown();
+        scheduler = new BackgroundScheduler(Executors.newSingleThreadScheduledExecutor(), new Random() {
+            @Override
+            public double nextDouble() {
+                return 0.0; // As much negative jitter as there can be
+            }
+        });
+        long interval = 20 * 60 * 1000;
+        scheduler.schedulePeriodically("job", 0, interval, false, countingJob(true));
+        waitForRuns(1);
+        JobStatus status = statusOf("job");
+        while (status.running) {
+            Thread.sleep(5);
+            status = statusOf("job");
+        }
+
+        long earliestStart = status.nextRunAt - BackgroundScheduler.COALESCE_WINDOW;
+        assertTrue(earliestStart - status.lastRunAt >= BackgroundScheduler.shortestDelay(interval));
+    }
+
+    @Test
+    public void itPausesJobsWhileIdleAndResumesOnActivity() throws Exception {
+        scheduler.setIdleTimeout(0);
+        scheduler.schedulePeriodically("job", 0, 1000, true, countingJob(true));
+        Thread.sleep(100);
+        assertEquals(0, runs.get());
+        assertTrue(statusOf("job").pausedForIdle);
+
+        scheduler.setIdleTimeout(60 * 60 * 1000);
+        scheduler.userActive();
+        waitForRuns(1);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void itCoalescesPendingOneOffTasks() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.runSoon("blocker", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+        for (int i = 0; i < 3; ++i) {
+            scheduler.runSoon("task", new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            });
+        }
+        release.countDown();
+        waitForRuns(1);
+        Thread.sleep(50);
+        assertEquals(1, runs.get());
+    }
+}
@@ -0,0 +1,91 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HardLinkDeduplicatorTest {
+
+    private TempTestDir tempDir;
+    private Path root;
+    private Path store;
+    private HardLinkDeduplicator deduplicator;
+    private byte[] jarContent;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        root = tempDir.get().toPath();
+        store = root.resolve("store");
+        deduplicator = new HardLinkDeduplicator(store, 1000);
+        jarContent = new byte[5000];
+        for (int i = 0; i < jarContent.length; ++i) {
+            jarContent[i] = (byte) i;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tempDir.destroy();
+    }
+
+    private Path write(String path, byte[] content) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return file;
+    }
+
+    @Test
+    public void itLinksIdenticalJars() throws Exception {
+        Path a = write("ex1/lib/testrunner/runner.jar", jarContent);
+        Path b = write("ex2/lib/testrunner/runner.jar", jarContent);
+
+        assertEquals(0, deduplicator.deduplicate(root.resolve("ex1")));
+        assertEquals(jarContent.length, deduplicator.deduplicate(root.resolve("ex2")));
+
+        assertTrue(Files.isSameFile(a, b));
+        assertArrayEquals(jarContent, Files.readAllBytes(b));
+    }
+
+    @Test
+    public void itLeavesSmallFilesAndOtherFilesAlone() throws Exception {
+        byte[] small = Arrays.copyOf(jarContent, 10);
+        Path a = write("ex1/lib/small.jar", small);
+        Path b = write("ex2/lib/small.jar", small);
+        Path c = write("ex1/src/Big.java", jarContent);
+        Path d = write("ex2/src/Big.java", jarContent);
+
+        deduplicator.deduplicate(root.resolve("ex1"));
+        deduplicator.deduplicate(root.resolve("ex2"));
+
+        assertFalse(Files.isSameFile(a, b));
+        assertFalse(Files.isSameFile(c, d));
+    }
+
+    @Test
+    public void breakingLinksGivesPrivateCopies() throws Exception {
+        Path a = write("ex1/lib/runner.jar", jarContent);
+        Path b = write("ex2/lib/runner.jar", jarContent);
+        deduplicator.deduplicate(root.resolve("ex1"));
+        deduplicator.deduplicate(root.resolve("ex2"));
+
+        deduplicator.breakLinks(root.resolve("ex2"));
+        Files.write(b, new byte[] {1, 2, 3});
+
+        assertFalse(Files.isSameFile(a, b));
+        assertArrayEquals(jarContent, Files.readAllBytes(a));
+    }
+
+    @Test
+    public void everyoneUsingAStoreSharesOneInstance() {
+        assertSame(HardLinkDeduplicator.forStore(store), HardLinkDeduplicator.forStore(root.resolve("x/../store")));
+        assertNotSame(HardLinkDeduplicator.forStore(store), HardLinkDeduplicator.forStore(root.resolve("other")));
+    }
+}
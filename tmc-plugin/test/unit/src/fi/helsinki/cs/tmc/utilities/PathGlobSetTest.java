@@ -0,0 +1,59 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PathGlobSetTest {
+    @Test
+    public void testPlainPathsMatchExactly() {
+        PathGlobSet globs = new PathGlobSet(Arrays.asList("test/Foo.java", "bar"));
+        assertTrue(globs.matches("test/Foo.java"));
+        assertTrue(globs.matches("bar"));
+        assertFalse(globs.matches("test/Bar.java"));
+        assertFalse(globs.matches("test"));
+        assertFalse(globs.matches("bar/baz"));
+    }
+
+    @Test
+    public void testWildcardsMatchWithinASegment() {
+        PathGlobSet globs = new PathGlobSet(Arrays.asList("test/*Test.java", "lib/?.jar"));
+        assertTrue(globs.matches("test/FooTest.java"));
+        assertFalse(globs.matches("test/sub/FooTest.java"));
+        assertTrue(globs.matches("lib/a.jar"));
+        assertFalse(globs.matches("lib/ab.jar"));
+    }
+
+    @Test
+    public void testDoubleStarMatchesAnyNumberOfSegments() {
+        PathGlobSet globs = new PathGlobSet(Arrays.asList("foo/bar/*/baz/**/xoox.*"));
+        assertTrue(globs.matches("foo/bar/x/baz/xoox.txt"));
+        assertTrue(globs.matches("foo/bar/x/baz/a/b/c/xoox.java"));
+        assertFalse(globs.matches("foo/bar/baz/xoox.txt"));
+        assertFalse(globs.matches("foo/bar/x/baz/a/b/c/other.java"));
+    }
+
+    @Test
+    public void testSpecialCharactersAreLiteral() {
+        PathGlobSet globs = new PathGlobSet(Arrays.asList("a+b/(c).*"));
+        assertTrue(globs.matches("a+b/(c).txt"));
+        assertFalse(globs.matches("aab/(c).txt"));
+    }
+
+    @Test
+    public void testMayMatchBelow() {
+        PathGlobSet globs = new PathGlobSet(Arrays.asList("test/sub/Foo.java", "res/**"));
+        assertTrue(globs.mayMatchBelow("test/"));
+        assertTrue(globs.mayMatchBelow("test/sub/"));
+        assertFalse(globs.mayMatchBelow("test/other/"));
+        assertFalse(globs.mayMatchBelow("src/"));
+        assertTrue(globs.mayMatchBelow("res/deep/er/"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(PathGlobSet.empty().isEmpty());
+        assertFalse(PathGlobSet.empty().matches("anything"));
+        assertFalse(PathGlobSet.empty().mayMatchBelow("dir/"));
+    }
+}
@@ -0,0 +1,82 @@
+package fi.helsinki.cs.tmc.utilities;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WriteBehindFileTest {
+
+    private TempTestDir tempDir;
+    private Path path;
+    private AtomicInteger reads;
+    private volatile String content;
+    private WriteBehindFile file;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = new TempTestDir();
+        path = tempDir.get().toPath().resolve("sub").resolve("file.json");
+        reads = new AtomicInteger();
+        content = "first";
+        file = new WriteBehindFile(path, new WriteBehindFile.ContentSource() {
+            @Override
+            public String getContent() {
+                reads.incrementAndGet();
+                return content;
+            }
+        }, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tempDir.destroy();
+    }
+
+    @Test
+    public void testBurstOfChangesIsWrittenOnce() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            content = "version " + i;
+            file.markDirty();
+        }
+        assertFalse(Files.exists(path));
+
+        Thread.sleep(500);
+
+        assertEquals(1, reads.get());
+        assertFalse(file.isDirty());
+        assertEquals("version 9", read(path));
+    }
+
+    @Test
+    public void testFlushWritesImmediately() throws Exception {
+        file.markDirty();
+        file.flush();
+        assertEquals("first", read(path));
+        assertEquals(1, reads.get());
+
+        file.flush();
+        assertEquals(1, reads.get());
+
+        Thread.sleep(300);
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testWriteAtomicallyReplacesFileAndLeavesNoTemporaryFile() throws Exception {
+        WriteBehindFile.writeAtomically(path, "one");
+        WriteBehindFile.writeAtomically(path, "two");
+        assertEquals("two", read(path));
+        assertFalse(Files.exists(path.resolveSibling("file.json.tmp")));
+    }
+
+    private String read(Path p) throws Exception {
+        return new String(Files.readAllBytes(p), Charset.forName("UTF-8"));
+    }
+}
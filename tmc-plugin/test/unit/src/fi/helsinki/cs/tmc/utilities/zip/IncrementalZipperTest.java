@@ -0,0 +1,133 @@
+package fi.helsinki.cs.tmc.utilities.zip;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IncrementalZipperTest {
+    private static final String SLASH = File.separator;
+    private TempTestDir tempDir;
+    private String mainDir;
+    private IncrementalZipper zipper;
+    private SnapshotManifest manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = new TempTestDir();
+
+        mainDir = tempDir.getPath() + SLASH + "MyExercise";
+        new File(mainDir + SLASH + "src").mkdirs();
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "One.txt"), "one", "UTF-8");
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "Two.txt"), "two", "UTF-8");
+
+        zipper = new IncrementalZipper(new File(mainDir), RecursiveZipper.ZIP_ALL_THE_THINGS);
+        manifest = new SnapshotManifest(3);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tempDir.destroy();
+    }
+
+    @Test
+    public void theFirstSnapshotIsFull() throws IOException {
+        IncrementalZipper.Result result = zipper.zipChanges(manifest);
+
+        assertTrue(result.isFull());
+        List<String> entries = zipEntryNames(result.getData());
+        assertTrue(entries.contains("MyExercise/src/One.txt"));
+        assertTrue(entries.contains("MyExercise/src/Two.txt"));
+    }
+
+    @Test
+    public void deltasContainOnlyChangedAndAddedFiles() throws IOException {
+        zipper.zipChanges(manifest).commit();
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "One.txt"), "changed", "UTF-8");
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "Three.txt"), "three", "UTF-8");
+
+        IncrementalZipper.Result result = zipper.zipChanges(manifest);
+
+        assertFalse(result.isFull());
+        List<String> entries = zipEntryNames(result.getData());
+        assertTrue(entries.contains("MyExercise/src/One.txt"));
+        assertTrue(entries.contains("MyExercise/src/Three.txt"));
+        assertFalse(entries.contains("MyExercise/src/Two.txt"));
+    }
+
+    @Test
+    public void deltasListDeletedFiles() throws IOException {
+        zipper.zipChanges(manifest).commit();
+        new File(mainDir + SLASH + "src" + SLASH + "Two.txt").delete();
+
+        IncrementalZipper.Result result = zipper.zipChanges(manifest);
+
+        assertEquals(1, result.getDeletedPaths().size());
+        assertEquals("MyExercise/src/Two.txt", result.getDeletedPaths().get(0));
+    }
+
+    @Test
+    public void unchangedProjectGivesAnEmptyDelta() throws IOException {
+        zipper.zipChanges(manifest).commit();
+
+        assertTrue(zipper.zipChanges(manifest).isEmpty());
+    }
+
+    @Test
+    public void uncommittedSnapshotsLeaveTheManifestAlone() throws IOException {
+        zipper.zipChanges(manifest);
+        assertTrue(zipper.zipChanges(manifest).isFull());
+        zipper.zipChanges(manifest).commit();
+
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "One.txt"), "changed", "UTF-8");
+        zipper.zipChanges(manifest);
+        IncrementalZipper.Result result = zipper.zipChanges(manifest);
+
+        assertEquals(1, result.getChangedPaths().size());
+        assertEquals("MyExercise/src/One.txt", result.getChangedPaths().get(0));
+    }
+
+    @Test
+    public void resetForcesAFullBaseline() throws IOException {
+        zipper.zipChanges(manifest).commit();
+        manifest.reset();
+
+        assertTrue(zipper.zipChanges(manifest).isFull());
+    }
+
+    @Test
+    public void aFullBaselineIsTakenPeriodically() throws IOException {
+        IncrementalZipper.Result result = zipper.zipChanges(manifest);
+        assertTrue(result.isFull());
+        result.commit();
+        for (int i = 0; i < 3; ++i) {
+            result = zipper.zipChanges(manifest);
+            assertFalse(result.isFull());
+            result.commit();
+        }
+        assertTrue(zipper.zipChanges(manifest).isFull());
+    }
+
+    private List<String> zipEntryNames(byte[] zipData) throws IOException {
+        ArrayList<String> result = new ArrayList<String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipData));
+        try {
+            ZipEntry zent;
+            while ((zent = zis.getNextEntry()) != null) {
+                result.add(zent.getName());
+            }
+        } finally {
+            zis.close();
+        }
+        return result;
+    }
+}
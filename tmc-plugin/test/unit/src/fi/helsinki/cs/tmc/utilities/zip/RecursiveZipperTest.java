@@ -1,13 +1,20 @@
 package fi.helsinki.cs.tmc.utilities.zip;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import fi.helsinki.cs.tmc.testing.TempTestDir;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -69,12 +76,106 @@ public class RecursiveZipperTest {
         }
     }
 
+    @Test
+    public void itShouldStreamTheSameZipIntoAFileChannel() throws IOException {
+        RecursiveZipper zipper = new RecursiveZipper(new File(mainDir), RecursiveZipper.ZIP_ALL_THE_THINGS);
+        File zipFile = new File(tempDir.getPath() + SLASH + "out.zip");
+
+        FileOutputStream out = new FileOutputStream(zipFile);
+        try {
+            zipper.zipTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+
+        assertArrayEquals(zipper.zipProjectSources(), FileUtils.readFileToByteArray(zipFile));
+    }
+
+    @Test
+    public void itShouldNotCloseTheGivenStream() throws IOException {
+        RecursiveZipper zipper = new RecursiveZipper(new File(mainDir), RecursiveZipper.ZIP_ALL_THE_THINGS);
+        final boolean[] closed = { false };
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        zipper.zipTo(out);
+
+        assertFalse(closed[0]);
+        assertTrue(zipEntryNames(out.toByteArray()).contains("MyExercise/src/Included1.txt"));
+    }
+
+    @Test
+    public void itShouldGiveTheSameContentsWhenZippingInParallel() throws IOException {
+        ForkJoinPool pool = RecursiveZipper.newZippingPool("Test zipper", 4);
+        try {
+            for (int fileCount : new int[] { 0, 1, 10, 200 }) {
+                File dir = new File(mainDir + SLASH + "src" + SLASH + "many" + fileCount);
+                dir.mkdirs();
+                for (int i = 0; i < fileCount; ++i) {
+                    StringBuilder content = new StringBuilder();
+                    for (int j = 0; j < i * 50; ++j) {
+                        content.append("line ").append(j).append(" of file ").append(i).append('\n');
+                    }
+                    FileUtils.write(new File(dir, "File" + i + ".txt"), content, "UTF-8");
+                }
+
+                RecursiveZipper zipper = new RecursiveZipper(new File(mainDir), RecursiveZipper.ZIP_ALL_THE_THINGS);
+                byte[] serial = zipper.zipProjectSources();
+                zipper.setParallel(pool);
+                byte[] parallel = zipper.zipProjectSources();
+
+                assertEquals("With " + fileCount + " files", zipContents(serial), zipContents(parallel));
+                assertArrayEquals("With " + fileCount + " files", parallel, zipper.zipProjectSources());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void itShouldZipFileContentsIntact() throws IOException {
+        FileUtils.write(new File(mainDir + SLASH + "src" + SLASH + "Included1.txt"), "hello hello hello", "UTF-8");
+        RecursiveZipper zipper = new RecursiveZipper(new File(mainDir), RecursiveZipper.ZIP_ALL_THE_THINGS);
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipper.zipProjectSources()));
+        try {
+            ZipEntry zent;
+            while ((zent = zis.getNextEntry()) != null) {
+                if (zent.getName().equals("MyExercise/src/Included1.txt")) {
+                    assertEquals("hello hello hello", IOUtils.toString(zis, "UTF-8"));
+                    return;
+                }
+            }
+        } finally {
+            zis.close();
+        }
+        fail("Expected file not in zip.");
+    }
+
     private List<String> getZipEntries(RecursiveZipper.ZippingDecider decider) throws IOException {
         RecursiveZipper zipper = new RecursiveZipper(new File(mainDir), decider);
         byte[] zipData = zipper.zipProjectSources();
         return zipEntryNames(zipData);
     }
     
+    private Map<String, String> zipContents(byte[] zipData) throws IOException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipData));
+        try {
+            ZipEntry zent;
+            while ((zent = zis.getNextEntry()) != null) {
+                result.put(zent.getName(), zent.getTime() + ":" + IOUtils.toString(zis, "UTF-8"));
+            }
+        } finally {
+            zis.close();
+        }
+        return result;
+    }
+
     private List<String> zipEntryNames(byte[] zipData) throws IOException {
         ArrayList<String> result = new ArrayList<String>();
         ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipData));
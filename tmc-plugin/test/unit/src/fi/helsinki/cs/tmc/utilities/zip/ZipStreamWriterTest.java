@@ -0,0 +1,57 @@
+package fi.helsinki.cs.tmc.utilities.zip;
+
+import fi.helsinki.cs.tmc.testing.TempTestDir;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ZipStreamWriterTest {
+    private TempTestDir tempDir;
+    private File zipFile;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = new TempTestDir();
+        zipFile = new File(tempDir.get(), "out.zip");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tempDir.destroy();
+    }
+
+    @Test
+    public void itShouldWriteMoreEntriesThanThePlainFormatAllows() throws IOException {
+        int count = 0x10000 + 10;
+        OutputStream out = new FileOutputStream(zipFile);
+        try {
+            ZipStreamWriter writer = new ZipStreamWriter(out);
+            for (int i = 0; i < count - 1; ++i) {
+                writer.writeDirectory("dir" + i + "/", 0);
+            }
+            writer.writeFile("last.txt", 0, ZipStreamWriter.deflateToMemory(new ByteArrayInputStream("hello".getBytes("UTF-8"))));
+            writer.finish();
+        } finally {
+            out.close();
+        }
+
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            assertEquals(count, zip.size());
+            ZipEntry last = zip.getEntry("last.txt");
+            assertNotNull(last);
+            assertEquals("hello", IOUtils.toString(zip.getInputStream(last), "UTF-8"));
+        } finally {
+            zip.close();
+        }
+    }
+}